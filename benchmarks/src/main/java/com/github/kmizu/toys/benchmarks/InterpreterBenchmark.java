@@ -0,0 +1,71 @@
+package com.github.kmizu.toys.benchmarks;
+
+import com.github.kmizu.toys.Ast;
+import com.github.kmizu.toys.Interpreter;
+import com.github.kmizu.toys.ToysParser;
+import com.github.kmizu.toys.Values.Value;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Interpreter#callMain} on every engine.  Programs are parsed once; each operation runs a fresh
+ * interpreter, so compilation done by the engine is part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"TREE", "CLOSURE", "BYTECODE", "VM"})
+    public Interpreter.Engine engine;
+
+    private Ast.Program factorial;
+    private Ast.Program fib;
+    private Ast.Program whileLoop;
+    private Ast.Program forLoop;
+    private Ast.Program arrays;
+    private Ast.Program indexing;
+
+    @Setup
+    public void setUp() {
+        factorial = ToysParser.parse(Programs.FACTORIAL);
+        fib = ToysParser.parse(Programs.FIB);
+        whileLoop = ToysParser.parse(Programs.WHILE_LOOP);
+        forLoop = ToysParser.parse(Programs.FOR_LOOP);
+        arrays = ToysParser.parse(Programs.ARRAYS);
+        indexing = ToysParser.parse(Programs.INDEXING);
+    }
+
+    @Benchmark
+    public Value factorial() {
+        return new Interpreter(engine).callMain(factorial);
+    }
+
+    @Benchmark
+    public Value fib() {
+        return new Interpreter(engine).callMain(fib);
+    }
+
+    @Benchmark
+    public Value whileLoop() {
+        return new Interpreter(engine).callMain(whileLoop);
+    }
+
+    @Benchmark
+    public Value forLoop() {
+        return new Interpreter(engine).callMain(forLoop);
+    }
+
+    @Benchmark
+    public Value arrays() {
+        return new Interpreter(engine).callMain(arrays);
+    }
+
+    @Benchmark
+    public Value indexing() {
+        return new Interpreter(engine).callMain(indexing);
+    }
+}
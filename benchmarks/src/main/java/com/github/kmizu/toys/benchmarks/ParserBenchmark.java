@@ -0,0 +1,50 @@
+package com.github.kmizu.toys.benchmarks;
+
+import com.github.kmizu.toys.Ast;
+import com.github.kmizu.toys.Parsers;
+import com.github.kmizu.toys.ToysParser;
+import org.javafp.parsecj.input.Input;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of the combinator grammar, with and without packrat memoization, and of the hand-written parser,
+ * over a generated program of {@code size} functions or over one of the {@link Programs#nested} shapes nested
+ * {@code size} deep.  Deep nesting recurses deeply in the combinator grammar, hence the large thread stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss512m")
+public class ParserBenchmark {
+    @Param({"program", "expression", "parentheses", "if-else", "blocks"})
+    public String shape;
+
+    @Param({"25", "100", "400"})
+    public int size;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = shape.equals("program") ? Programs.generate(size) : Programs.nested(shape, size);
+    }
+
+    @Benchmark
+    public Ast.Program parsecj() throws Exception {
+        return Parsers.program().parse(Input.of(source)).getResult();
+    }
+
+    @Benchmark
+    public Ast.Program packrat() throws Exception {
+        return Parsers.parsePackrat(Parsers.program(), source).getResult();
+    }
+
+    @Benchmark
+    public Ast.Program toysParser() {
+        return ToysParser.parse(source);
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.kmizu.toys.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Sources measured by the benchmarks.  Generated programs use a fixed seed so every run parses the same text.
+ */
+final class Programs {
+    static final String FACTORIAL = """
+            define factorial(n) {
+              if(n < 2) 1; else n * factorial(n - 1);
+            }
+            define main() {
+              i = 0;
+              while(i < 1000) {
+                factorial(12);
+                i = i + 1;
+              }
+            }""";
+
+    static final String FIB = """
+            define fib(n) {
+              if(n < 2) n; else fib(n - 1) + fib(n - 2);
+            }
+            define main() {
+              fib(24);
+            }""";
+
+    static final String WHILE_LOOP = """
+            define main() {
+              i = 0;
+              sum = 0;
+              while(i < 100000) {
+                sum = sum + i / 3;
+                i = i + 1;
+              }
+              sum;
+            }""";
+
+    static final String FOR_LOOP = """
+            define main() {
+              sum = 0;
+              for(i in 1 to 100000) {
+                sum = sum + i * 2 - 1;
+              }
+              sum;
+            }""";
+
+    static final String ARRAYS = """
+            define cons(head, tail) {
+              [head, tail];
+            }
+            define main() {
+              list = [];
+              for(i in 1 to 10000) {
+                list = cons([i, i + 1, i + 2], list);
+              }
+              list;
+            }""";
+
+    static final String INDEXING = """
+            define main() {
+              a = [];
+              for(i in 0 to 10000) push(a, i);
+              sum = 0;
+              for(i in 0 to length(a)) {
+                a[i] = a[i] * 2;
+                sum = sum + a[i];
+              }
+              sum;
+            }""";
+
+    private Programs() {
+    }
+
+    /**
+     * A program of {@code functions} definitions mixing every statement and expression form of the grammar.
+     */
+    static String generate(int functions) {
+        var random = new Random(42);
+        var out = new StringBuilder();
+        out.append("global limit = 10;\n");
+        for(int i = 0; i < functions; i++) {
+            out.append("define f").append(i).append("(a, b) {\n");
+            out.append("  x = a * ").append(random.nextInt(100)).append(" + b / (a - ").append(random.nextInt(10)).append(");\n");
+            out.append("  if(x <= limit) { x = x + 1; } else { x = x - 1; }\n");
+            out.append("  while(x >= ").append(random.nextInt(50)).append(") x = x - 2;\n");
+            out.append("  for(y in 1 to ").append(random.nextInt(20)).append(") println(y != x);\n");
+            out.append("  [x, true, false, [a, b]];\n");
+            if(i > 0) {
+                out.append("  f").append(random.nextInt(i)).append("[b = x, a = 1];\n");
+            }
+            out.append("}\n");
+        }
+        out.append("define main() {\n  f0(1, 2);\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * A main() nesting one form of the grammar {@code depth} deep: {@code expression} mixes calls, named calls,
+     * parentheses and arrays, and {@code parentheses}, {@code if-else} and {@code blocks} repeat just that form.
+     */
+    static String nested(String shape, int depth) {
+        return switch(shape) {
+            case "expression" -> "define main() { " + nestedExpression(depth) + "; }";
+            case "parentheses" -> "define main() { x = " + "(".repeat(depth) + "1" + ")".repeat(depth) + "; }";
+            case "if-else" -> "define main() { " + "if(a) x; else ".repeat(depth) + "y; }";
+            case "blocks" -> "define main() { " + "while(a) { b = 1; ".repeat(depth) + "}".repeat(depth) + " }";
+            default -> throw new IllegalArgumentException("unknown shape " + shape);
+        };
+    }
+
+    private static String nestedExpression(int depth) {
+        if(depth == 0) return "x";
+        return switch(depth % 4) {
+            case 0 -> "f(" + nestedExpression(depth - 1) + ", 1)";
+            case 1 -> "g[a = " + nestedExpression(depth - 1) + "]";
+            case 2 -> "(" + nestedExpression(depth - 1) + " + 1)";
+            default -> "[" + nestedExpression(depth - 1) + "] == y";
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.kmizu.toys.benchmarks;
+
+import com.github.kmizu.toys.Values;
+import com.github.kmizu.toys.Values.Value;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Boxing costs of the value layer: cached and uncached {@code Int}s, {@code Bool}s and wrapped arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueBenchmark {
+    private static final int COUNT = 1000;
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void cachedInt(Blackhole blackhole) {
+        for(int i = 0; i < COUNT; i++) {
+            blackhole.consume(Values.Int.of(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void boxedInt(Blackhole blackhole) {
+        for(int i = 0; i < COUNT; i++) {
+            blackhole.consume(Values.Int.of(i + 100000));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void bool(Blackhole blackhole) {
+        for(int i = 0; i < COUNT; i++) {
+            blackhole.consume(Values.Bool.of((i & 1) == 0));
+        }
+    }
+
+    @Benchmark
+    public Value array() {
+        var values = new ArrayList<Value>(COUNT);
+        for(int i = 0; i < COUNT; i++) {
+            values.add(Values.Int.of(i));
+        }
+        return Values.wrap(values);
+    }
+
+    @Benchmark
+    public long arraySum(ArrayState state) {
+        long sum = 0;
+        for(var value : state.array.asArray().values()) {
+            sum += value.asInt().value();
+        }
+        return sum;
+    }
+
+    @State(Scope.Benchmark)
+    public static class ArrayState {
+        Value array;
+
+        @Setup
+        public void setUp() {
+            var values = new ArrayList<Value>(COUNT);
+            for(int i = 0; i < COUNT; i++) {
+                values.add(Values.Int.of(i * 7));
+            }
+            array = Values.wrap(values);
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.github.kmizu.toys;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 public class Ast {
@@ -18,7 +17,7 @@ public class Ast {
     public static BinaryExpression divide(Expression lhs, Expression rhs) {
         return new BinaryExpression(Operator.DIVIDE, lhs, rhs);
     }
-    public static IntegerLiteral integer(int value) {
+    public static IntegerLiteral integer(long value) {
         return new IntegerLiteral(value);
     }
     public static BinaryExpression lessThan(Expression lhs, Expression rhs) {
@@ -36,6 +35,12 @@ public class Ast {
     public static BinaryExpression equalEqual(Expression lhs, Expression rhs) {
         return new BinaryExpression(Operator.EQUAL_EQUAL, lhs, rhs);
     }
+    public static BinaryExpression notEqual(Expression lhs, Expression rhs) {
+        return new BinaryExpression(Operator.NOT_EQUAL, lhs, rhs);
+    }
+    public static Index index(Expression array, Expression index) {
+        return new Index(array, index);
+    }
     public static Identifier symbol(String name) {
         return new Identifier(name);
     }
@@ -67,9 +72,11 @@ public class Ast {
 
     sealed public interface Expression permits
             BinaryExpression, IntegerLiteral, FunctionCall, Identifier,
-            BlockExpression, Assignment, WhileExpression, IfExpression, Println, LabelledCall, ArrayLiteral, BoolLiteral {}
+            BlockExpression, Assignment, WhileExpression, IfExpression, Println, LabelledCall, ArrayLiteral, BoolLiteral,
+            Index, IndexAssignment, BuiltinCall, DictionaryLiteral,
+            ResolvedIdentifier, FunctionReference, ResolvedAssignment, ResolvedCall {}
     public final static record BinaryExpression(Operator operator, Expression lhs, Expression rhs) implements Expression {}
-    public final static record IntegerLiteral(int value) implements Expression {}
+    public final static record IntegerLiteral(long value) implements Expression {}
     public final static record Identifier(String name) implements Expression {}
     public final static record FunctionCall(String name, List<Expression> args) implements Expression {}
     public final static record BlockExpression(List<Expression> elements) implements Expression {}
@@ -79,24 +86,29 @@ public class Ast {
     public final static record Println(Expression arg) implements Expression {}
     public final static record ArrayLiteral(List<Expression> items) implements Expression {}
     public final static record BoolLiteral(boolean value) implements Expression {}
+    public final static record Index(Expression array, Expression index) implements Expression {}
+    public final static record IndexAssignment(Expression array, Expression index, Expression expression) implements Expression {}
+    public final static record BuiltinCall(Builtin builtin, List<Expression> args) implements Expression {}
+    public final static record DictionaryEntry(Expression key, Expression value) {}
+    public final static record DictionaryLiteral(List<DictionaryEntry> entries) implements Expression {}
+    public final static record ResolvedIdentifier(String name, int depth, int slot) implements Expression {}
+    public final static record ResolvedAssignment(String name, int depth, int slot, Expression expression) implements Expression {}
+    public final static record ResolvedCall(CallSite site, List<Expression> args) implements Expression {}
+    /**
+     * An identifier that names a function of the program rather than a variable.
+     */
+    public final static record FunctionReference(String name) implements Expression {}
 
     sealed public interface TopLevel permits GlobalVariableDefinition, FunctionDefinition {}
     public final static record GlobalVariableDefinition(String name, Expression expression) implements TopLevel {}
-    public final static record FunctionDefinition(String name, List<String> args, Expression body) implements TopLevel {}
-
-    public final static record Program(List<TopLevel> definitions) {}
-
-    public final static record Environment(Map<String, Values.Value> bindings, Optional<Environment> next) {
-        public Optional<Map<String, Values.Value>> findBinding(String name) {
-            if(bindings.get(name) != null) return Optional.of(bindings);
-            if(next.isPresent()) {
-                return next.get().findBinding(name);
-            } else {
-                return Optional.empty();
-            }
+    public final static record FunctionDefinition(String name, List<String> args, Expression body, int frameSize) implements TopLevel {
+        public FunctionDefinition(String name, List<String> args, Expression body) {
+            this(name, args, body, args.size());
         }
     }
 
+    public final static record Program(List<TopLevel> definitions) {}
+
     public final static record LabelledParameter(String name, Expression parameter) {}
     public final static record LabelledCall(String name, List<LabelledParameter> args) implements Expression {}
 }
\ No newline at end of file
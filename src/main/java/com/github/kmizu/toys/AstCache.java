@@ -0,0 +1,432 @@
+package com.github.kmizu.toys;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.github.kmizu.toys.Ast.*;
+
+/**
+ * An on-disk cache of parsed programs.  Entries are named by the SHA-256 of the language version and the
+ * source text, hold a compact binary encoding of the {@link Ast} records, and are read back through a
+ * memory-mapped buffer.  An entry whose header does not match, or that fails to decode, is treated as a miss
+ * and replaced.
+ */
+public final class AstCache {
+    /**
+     * Bump whenever the grammar or any {@link Ast} record changes; older entries then stop matching.
+     */
+    public static final int LANGUAGE_VERSION = 6;
+    private static final int MAGIC = 0x544F5953;
+    private static final int HASH_LENGTH = 32;
+
+    private static final byte BINARY = 0;
+    private static final byte INTEGER = 1;
+    private static final byte IDENTIFIER = 2;
+    private static final byte FUNCTION_CALL = 3;
+    private static final byte BLOCK = 4;
+    private static final byte ASSIGNMENT = 5;
+    private static final byte WHILE = 6;
+    private static final byte IF = 7;
+    private static final byte IF_ELSE = 8;
+    private static final byte PRINTLN = 9;
+    private static final byte ARRAY = 10;
+    private static final byte BOOL = 11;
+    private static final byte RESOLVED_IDENTIFIER = 12;
+    private static final byte RESOLVED_ASSIGNMENT = 13;
+    private static final byte LABELLED_CALL = 14;
+    private static final byte GLOBAL_VARIABLE = 15;
+    private static final byte FUNCTION_DEFINITION = 16;
+    private static final byte RESOLVED_CALL = 17;
+    private static final byte INDEX = 18;
+    private static final byte INDEX_ASSIGNMENT = 19;
+    private static final byte BUILTIN_CALL = 20;
+    private static final byte DICTIONARY = 21;
+    private static final byte FUNCTION_REFERENCE = 22;
+
+    private final Path directory;
+
+    public AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".cache", "toys");
+    }
+
+    /**
+     * Returns the cached program for {@code source}, parsing and storing it on a miss.
+     * I/O failures only cost the cache; the program is parsed as usual.
+     */
+    public Program load(String source) {
+        var hash = hash(source);
+        var entry = directory.resolve(HexFormat.of().formatHex(hash) + ".ast");
+        var cached = read(entry, hash);
+        if(cached.isPresent()) {
+            return cached.get();
+        }
+        var program = ToysParser.parse(source);
+        try {
+            write(entry, hash, program);
+        } catch (IOException | UncheckedIOException e) {
+            // a read-only or full cache directory must not stop the program from running
+        }
+        return program;
+    }
+
+    static byte[] hash(String source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(4).putInt(LANGUAGE_VERSION).array());
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Optional<Program> read(Path entry, byte[] hash) {
+        if(!Files.isRegularFile(entry)) {
+            return Optional.empty();
+        }
+        try(var channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC || buffer.getInt() != LANGUAGE_VERSION) {
+                return Optional.empty();
+            }
+            var stored = new byte[HASH_LENGTH];
+            buffer.get(stored);
+            if(!Arrays.equals(stored, hash)) {
+                return Optional.empty();
+            }
+            return Optional.of(decode(buffer));
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void write(Path entry, byte[] hash, Program program) throws IOException {
+        Files.createDirectories(directory(entry));
+        var temporary = Files.createTempFile(directory(entry), "entry", ".tmp");
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(LANGUAGE_VERSION);
+            out.write(hash);
+            out.write(encode(program));
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static Path directory(Path entry) {
+        return entry.toAbsolutePath().getParent();
+    }
+
+    /**
+     * Encodes a program as a table of the distinct names it uses followed by its nodes in prefix order.
+     */
+    public static byte[] encode(Program program) {
+        var encoder = new Encoder();
+        try {
+            encoder.out.writeInt(program.definitions().size());
+            for(var definition : program.definitions()) {
+                encoder.topLevel(definition);
+            }
+            var result = new ByteArrayOutputStream();
+            var out = new DataOutputStream(result);
+            out.writeInt(encoder.names.size());
+            for(var name : encoder.names) {
+                var bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            encoder.bytes.writeTo(out);
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Program decode(ByteBuffer buffer) {
+        var names = new String[buffer.getInt()];
+        for(int i = 0; i < names.length; i++) {
+            var bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        var decoder = new Decoder(buffer, names);
+        int count = buffer.getInt();
+        var definitions = new ArrayList<TopLevel>(count);
+        for(int i = 0; i < count; i++) {
+            definitions.add(decoder.topLevel());
+        }
+        if(buffer.hasRemaining()) {
+            throw new LanguageException("Trailing bytes in cached program");
+        }
+        return new Program(definitions);
+    }
+
+    private static final class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndexes = new HashMap<>();
+
+        private void name(String name) throws IOException {
+            var index = nameIndexes.get(name);
+            if(index == null) {
+                index = names.size();
+                names.add(name);
+                nameIndexes.put(name, index);
+            }
+            out.writeInt(index);
+        }
+
+        private void names(List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for(var value : values) {
+                name(value);
+            }
+        }
+
+        private void expressions(List<Expression> expressions) throws IOException {
+            out.writeInt(expressions.size());
+            for(var expression : expressions) {
+                expression(expression);
+            }
+        }
+
+        private void topLevel(TopLevel topLevel) throws IOException {
+            if(topLevel instanceof GlobalVariableDefinition globalVariableDefinition) {
+                out.writeByte(GLOBAL_VARIABLE);
+                name(globalVariableDefinition.name());
+                expression(globalVariableDefinition.expression());
+            } else if(topLevel instanceof FunctionDefinition functionDefinition) {
+                out.writeByte(FUNCTION_DEFINITION);
+                name(functionDefinition.name());
+                names(functionDefinition.args());
+                out.writeInt(functionDefinition.frameSize());
+                expression(functionDefinition.body());
+            }
+        }
+
+        private void expression(Expression expression) throws IOException {
+            if(expression instanceof BinaryExpression binaryExpression) {
+                out.writeByte(BINARY);
+                out.writeByte(binaryExpression.operator().ordinal());
+                expression(binaryExpression.lhs());
+                expression(binaryExpression.rhs());
+            } else if(expression instanceof IntegerLiteral integerLiteral) {
+                out.writeByte(INTEGER);
+                out.writeLong(integerLiteral.value());
+            } else if(expression instanceof Identifier identifier) {
+                out.writeByte(IDENTIFIER);
+                name(identifier.name());
+            } else if(expression instanceof FunctionCall functionCall) {
+                out.writeByte(FUNCTION_CALL);
+                name(functionCall.name());
+                expressions(functionCall.args());
+            } else if(expression instanceof BlockExpression blockExpression) {
+                out.writeByte(BLOCK);
+                expressions(blockExpression.elements());
+            } else if(expression instanceof Assignment assignment) {
+                out.writeByte(ASSIGNMENT);
+                name(assignment.name());
+                expression(assignment.expression());
+            } else if(expression instanceof WhileExpression whileExpression) {
+                out.writeByte(WHILE);
+                expression(whileExpression.condition());
+                expression(whileExpression.body());
+            } else if(expression instanceof IfExpression ifExpression) {
+                out.writeByte(ifExpression.elseClause().isPresent() ? IF_ELSE : IF);
+                expression(ifExpression.condition());
+                expression(ifExpression.thenClause());
+                if(ifExpression.elseClause().isPresent()) {
+                    expression(ifExpression.elseClause().get());
+                }
+            } else if(expression instanceof Println println) {
+                out.writeByte(PRINTLN);
+                expression(println.arg());
+            } else if(expression instanceof ArrayLiteral arrayLiteral) {
+                out.writeByte(ARRAY);
+                expressions(arrayLiteral.items());
+            } else if(expression instanceof BoolLiteral boolLiteral) {
+                out.writeByte(BOOL);
+                out.writeBoolean(boolLiteral.value());
+            } else if(expression instanceof ResolvedIdentifier identifier) {
+                out.writeByte(RESOLVED_IDENTIFIER);
+                name(identifier.name());
+                out.writeInt(identifier.depth());
+                out.writeInt(identifier.slot());
+            } else if(expression instanceof ResolvedAssignment assignment) {
+                out.writeByte(RESOLVED_ASSIGNMENT);
+                name(assignment.name());
+                out.writeInt(assignment.depth());
+                out.writeInt(assignment.slot());
+                expression(assignment.expression());
+            } else if(expression instanceof ResolvedCall resolvedCall) {
+                out.writeByte(RESOLVED_CALL);
+                name(resolvedCall.site().name());
+                var labels = resolvedCall.site().labels();
+                out.writeBoolean(labels != null);
+                if(labels != null) {
+                    names(labels);
+                }
+                expressions(resolvedCall.args());
+            } else if(expression instanceof Index index) {
+                out.writeByte(INDEX);
+                expression(index.array());
+                expression(index.index());
+            } else if(expression instanceof IndexAssignment assignment) {
+                out.writeByte(INDEX_ASSIGNMENT);
+                expression(assignment.array());
+                expression(assignment.index());
+                expression(assignment.expression());
+            } else if(expression instanceof BuiltinCall builtinCall) {
+                out.writeByte(BUILTIN_CALL);
+                out.writeByte(builtinCall.builtin().ordinal());
+                expressions(builtinCall.args());
+            } else if(expression instanceof DictionaryLiteral dictionaryLiteral) {
+                out.writeByte(DICTIONARY);
+                out.writeInt(dictionaryLiteral.entries().size());
+                for(var entry : dictionaryLiteral.entries()) {
+                    expression(entry.key());
+                    expression(entry.value());
+                }
+            } else if(expression instanceof FunctionReference reference) {
+                out.writeByte(FUNCTION_REFERENCE);
+                name(reference.name());
+            } else if(expression instanceof LabelledCall labelledCall) {
+                out.writeByte(LABELLED_CALL);
+                name(labelledCall.name());
+                out.writeInt(labelledCall.args().size());
+                for(var arg : labelledCall.args()) {
+                    name(arg.name());
+                    expression(arg.parameter());
+                }
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private static final Operator[] OPERATORS = Operator.values();
+        private final ByteBuffer in;
+        private final String[] names;
+
+        Decoder(ByteBuffer in, String[] names) {
+            this.in = in;
+            this.names = names;
+        }
+
+        private String name() {
+            return names[in.getInt()];
+        }
+
+        private int count() {
+            int count = in.getInt();
+            if(count < 0 || count > in.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            return count;
+        }
+
+        private List<String> names() {
+            int count = count();
+            var values = new ArrayList<String>(count);
+            for(int i = 0; i < count; i++) {
+                values.add(name());
+            }
+            return values;
+        }
+
+        private List<Expression> expressions() {
+            int count = count();
+            var expressions = new ArrayList<Expression>(count);
+            for(int i = 0; i < count; i++) {
+                expressions.add(expression());
+            }
+            return expressions;
+        }
+
+        private TopLevel topLevel() {
+            return switch(in.get()) {
+                case GLOBAL_VARIABLE -> new GlobalVariableDefinition(name(), expression());
+                case FUNCTION_DEFINITION -> {
+                    var name = name();
+                    var args = names();
+                    int frameSize = in.getInt();
+                    yield new FunctionDefinition(name, args, expression(), frameSize);
+                }
+                default -> throw new LanguageException("Unknown top level tag in cached program");
+            };
+        }
+
+        private Expression expression() {
+            return switch(in.get()) {
+                case BINARY -> new BinaryExpression(OPERATORS[in.get()], expression(), expression());
+                case INTEGER -> new IntegerLiteral(in.getLong());
+                case IDENTIFIER -> new Identifier(name());
+                case FUNCTION_CALL -> new FunctionCall(name(), expressions());
+                case BLOCK -> new BlockExpression(expressions());
+                case ASSIGNMENT -> new Assignment(name(), expression());
+                case WHILE -> new WhileExpression(expression(), expression());
+                case IF -> new IfExpression(expression(), expression(), Optional.empty());
+                case IF_ELSE -> new IfExpression(expression(), expression(), Optional.of(expression()));
+                case PRINTLN -> new Println(expression());
+                case ARRAY -> new ArrayLiteral(expressions());
+                case BOOL -> new BoolLiteral(in.get() != 0);
+                case RESOLVED_IDENTIFIER -> new ResolvedIdentifier(name(), in.getInt(), in.getInt());
+                case RESOLVED_ASSIGNMENT -> new ResolvedAssignment(name(), in.getInt(), in.getInt(), expression());
+                case RESOLVED_CALL -> {
+                    var name = name();
+                    var labels = in.get() != 0 ? names() : null;
+                    yield new ResolvedCall(new CallSite(name, labels), expressions());
+                }
+                case INDEX -> new Index(expression(), expression());
+                case INDEX_ASSIGNMENT -> new IndexAssignment(expression(), expression(), expression());
+                case BUILTIN_CALL -> new BuiltinCall(Builtin.of(in.get()), expressions());
+                case FUNCTION_REFERENCE -> new FunctionReference(name());
+                case DICTIONARY -> {
+                    int count = count();
+                    var entries = new ArrayList<DictionaryEntry>(count);
+                    for(int i = 0; i < count; i++) {
+                        entries.add(new DictionaryEntry(expression(), expression()));
+                    }
+                    yield new DictionaryLiteral(entries);
+                }
+                case LABELLED_CALL -> {
+                    var name = name();
+                    int count = count();
+                    var args = new ArrayList<LabelledParameter>(count);
+                    for(int i = 0; i < count; i++) {
+                        args.add(new LabelledParameter(name(), expression()));
+                    }
+                    yield new LabelledCall(name, args);
+                }
+                default -> throw new LanguageException("Unknown expression tag in cached program");
+            };
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.kmizu.toys;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Limits on one execution of a program.  A step is a function call or an iteration of a loop; between two steps an
+ * engine runs at most a bounded stretch of straight-line code, so the steps bound the nodes evaluated up to a factor
+ * of the size of the program.  Allocations count the elements of array and dictionary literals and the elements
+ * added by builtins and by stores into dictionaries.  Each limit, once passed, fails the execution with its own
+ * subtype of {@link Exceeded}.  Calls nested deeper than the stack of the running thread allows fail with
+ * {@link CallDepthExceeded} too, whatever the limit on their depth.
+ */
+public record Budget(long maxSteps, Optional<Duration> timeout, int maxCallDepth, long maxAllocations) {
+    public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Optional.empty(), Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    public Budget withMaxSteps(long maxSteps) {
+        return new Budget(maxSteps, timeout, maxCallDepth, maxAllocations);
+    }
+
+    public Budget withTimeout(Duration timeout) {
+        return new Budget(maxSteps, Optional.of(timeout), maxCallDepth, maxAllocations);
+    }
+
+    public Budget withMaxCallDepth(int maxCallDepth) {
+        return new Budget(maxSteps, timeout, maxCallDepth, maxAllocations);
+    }
+
+    public Budget withMaxAllocations(long maxAllocations) {
+        return new Budget(maxSteps, timeout, maxCallDepth, maxAllocations);
+    }
+
+    public static class Exceeded extends LanguageException {
+        private Exceeded(String message) {
+            super(message);
+        }
+    }
+
+    public static final class StepsExceeded extends Exceeded {
+        StepsExceeded(long maxSteps) {
+            super("Execution took more than " + maxSteps + " steps");
+        }
+    }
+
+    public static final class DeadlineExceeded extends Exceeded {
+        DeadlineExceeded(Duration timeout) {
+            super("Execution took longer than " + timeout.toMillis() + "ms");
+        }
+    }
+
+    public static final class CallDepthExceeded extends Exceeded {
+        CallDepthExceeded(int maxCallDepth) {
+            super("Calls nested deeper than " + maxCallDepth);
+        }
+
+        CallDepthExceeded() {
+            super("Calls nested deeper than the stack allows");
+        }
+    }
+
+    public static final class AllocationsExceeded extends Exceeded {
+        AllocationsExceeded(long maxAllocations) {
+            super("Execution allocated more than " + maxAllocations + " elements");
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.kmizu.toys;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * Functions implemented in Java over the backing storage of their arguments.  The {@link Resolver} turns a call
+ * of one of these names into an {@link Ast.BuiltinCall} unless the program defines a function of the same name.
+ * The parallel builtins split their range into chunks of at most {@link #CHUNK} indices that run as fork-join
+ * tasks in the common pool, each on a {@link Caller} of its own.  Chunk boundaries depend only on the range,
+ * so a reduction combines the same partial results in the same order on every run.
+ */
+public enum Builtin {
+    LENGTH("length", 1) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            if(args[0] instanceof Dictionary dictionary) {
+                return Int.of(dictionary.size());
+            }
+            return Int.of(array(args[0]).length());
+        }
+    },
+    PUSH("push", 2) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            var array = array(args[0]);
+            meter.allocate(1);
+            array.push(args[1]);
+            return array;
+        }
+    },
+    SLICE("slice", 3) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            var slice = array(args[0]).slice(intValue(args[1]), intValue(args[2]));
+            meter.allocate(slice.length());
+            return slice;
+        }
+    },
+    FILL("fill", 2) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            var array = array(args[0]);
+            array.fill(args[1]);
+            return array;
+        }
+    },
+    COPY("copy", 1) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            var array = array(args[0]);
+            meter.allocate(array.length());
+            return array.copy();
+        }
+    },
+    CONTAINS("contains", 2) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            return Bool.of(dictionary(args[0]).containsKey(args[1]));
+        }
+    },
+    REMOVE("remove", 2) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            return Bool.of(dictionary(args[0]).remove(args[1]));
+        }
+    },
+    PARALLEL_MAP("parallelMap", 2) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            var array = array(args[0]);
+            var function = function(args[1]);
+            meter.allocate(array.length());
+            var results = new Value[array.length()];
+            inChunks(callers, 0, results.length, (caller, from, to) -> {
+                for(int i = from; i < to; i++) {
+                    results[i] = caller.call(function, array.get(i));
+                }
+                return null;
+            });
+            return new Array(Arrays.asList(results));
+        }
+    },
+    PARALLEL_REDUCE("parallelReduce", 3) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            var array = array(args[0]);
+            var function = function(args[2]);
+            if(array.length() == 0) {
+                return args[1];
+            }
+            var total = inChunks(callers, 0, array.length(), new Work<Value>() {
+                @Override
+                public Value run(Caller caller, int from, int to) {
+                    var result = array.get(from);
+                    for(int i = from + 1; i < to; i++) {
+                        result = caller.call(function, result, array.get(i));
+                    }
+                    return result;
+                }
+
+                @Override
+                public Value combine(Value lhs, Value rhs) {
+                    return callers.get().call(function, lhs, rhs);
+                }
+            });
+            return callers.get().call(function, args[1], total);
+        }
+    },
+    PARALLEL_FOR("parallelFor", 3) {
+        @Override
+        protected Value apply(Meter meter, Supplier<Caller> callers, Value[] args) {
+            int from = intValue(args[0]);
+            int to = intValue(args[1]);
+            var function = function(args[2]);
+            inChunks(callers, from, to, (caller, start, end) -> {
+                for(int i = start; i < end; i++) {
+                    caller.call(function, Int.of(i));
+                }
+                return null;
+            });
+            return Bool.TRUE;
+        }
+    };
+
+    /**
+     * Calls a function of the running program.  A caller has execution state of its own, and is used by one
+     * thread at a time.
+     */
+    @FunctionalInterface
+    public interface Caller {
+        Value call(String function, Value... args);
+    }
+
+    static final int CHUNK = 1024;
+
+    /**
+     * The work of a parallel builtin on one chunk, and how the results of two adjacent chunks combine.
+     */
+    private interface Work<T> {
+        T run(Caller caller, int from, int to);
+
+        default T combine(T lhs, T rhs) {
+            return null;
+        }
+    }
+
+    private static <T> T inChunks(Supplier<Caller> callers, int from, int to, Work<T> work) {
+        return new Chunks<>(callers, work, from, to).invoke();
+    }
+
+    /**
+     * Halves a range of indices until each chunk fits in {@link #CHUNK}.
+     */
+    private static final class Chunks<T> extends RecursiveTask<T> {
+        private final Supplier<Caller> callers;
+        private final Work<T> work;
+        private final int from;
+        private final int to;
+
+        private Chunks(Supplier<Caller> callers, Work<T> work, int from, int to) {
+            this.callers = callers;
+            this.work = work;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected T compute() {
+            if(to - from <= CHUNK) {
+                return work.run(callers.get(), from, to);
+            }
+            int middle = (from + to) >>> 1;
+            var left = new Chunks<>(callers, work, from, middle);
+            left.fork();
+            var rhs = new Chunks<>(callers, work, middle, to).compute();
+            return work.combine(left.join(), rhs);
+        }
+    }
+
+    private static final Builtin[] VALUES = values();
+
+    private final String functionName;
+    private final int arity;
+
+    Builtin(String functionName, int arity) {
+        this.functionName = functionName;
+        this.arity = arity;
+    }
+
+    public String functionName() {
+        return functionName;
+    }
+
+    public int arity() {
+        return arity;
+    }
+
+    public static Optional<Builtin> find(String name) {
+        for(var builtin : VALUES) {
+            if(builtin.functionName.equals(name)) {
+                return Optional.of(builtin);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public static Builtin of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @param meter is charged for the elements the builtin allocates
+     * @param callers gives a new caller for each piece of work of a builtin that takes a function
+     */
+    public Value call(Meter meter, Supplier<Caller> callers, Value... args) {
+        if(args.length != arity) {
+            throw new LanguageException("Function " + functionName + " takes " + arity + " arguments");
+        }
+        return apply(meter, callers, args);
+    }
+
+    protected abstract Value apply(Meter meter, Supplier<Caller> callers, Value[] args);
+
+    private static Array array(Value value) {
+        if(value instanceof Array array) {
+            return array;
+        }
+        throw new LanguageException(value + " is not an array");
+    }
+
+    private static String function(Value value) {
+        if(value instanceof FunctionReference reference) {
+            return reference.name();
+        }
+        throw new LanguageException(value + " is not a function");
+    }
+
+    private static Dictionary dictionary(Value value) {
+        if(value instanceof Dictionary dictionary) {
+            return dictionary;
+        }
+        throw new LanguageException(value + " is not a dictionary");
+    }
+}
@@ -0,0 +1,548 @@
+package com.github.kmizu.toys;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * Lowers resolved functions to static methods of a hidden class so that HotSpot can JIT them.
+ * Only functions that work purely on int/bool locals and call other compiled functions are
+ * lowered; every other function is left to the Interpreter.  Compiled functions never touch
+ * globals, so they can be called from the interpreter without sharing any state.
+ * A call of a function to itself in tail position becomes a jump back to its start.  JVM methods
+ * cannot tail-call each other, so functions on a cycle of tail calls between different functions
+ * are left to the Interpreter, which runs such calls in constant stack.
+ * Compiled code works on 32-bit ints with overflow-checked arithmetic.  A call whose arguments do not fit in an int,
+ * or that overflows, is run by the Interpreter instead, which can restart it from the beginning because compiled
+ * functions have no side effects.
+ * Every compiled method takes the {@link Meter} of the calling thread as its last parameter, and charges it on
+ * entry, on return and at back-edges as the other engines do.
+ */
+public class BytecodeCompiler {
+    private enum Type {
+        INT, BOOL, NONE, UNKNOWN
+    }
+
+    private static final class Unsupported extends RuntimeException {
+        private Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * @param reaches the functions the compiled code calls, directly or through other compiled functions, which are
+     *                the versions compiled along with it
+     */
+    public final static record CompiledFunction(Ast.FunctionDefinition definition, MethodHandle handle, boolean returnsBool, Set<String> reaches) {
+        /**
+         * Calls the function, returning null if the arguments or the result do not fit in an int.
+         */
+        public Value invoke(List<Value> args) {
+            var ints = new int[args.size()];
+            for(int i = 0; i < ints.length; i++) {
+                if(!(args.get(i) instanceof Int v) || (int)v.value() != v.value()) {
+                    return null;
+                }
+                ints[i] = (int)v.value();
+            }
+            return invoke(new Meter(Budget.UNLIMITED), ints);
+        }
+
+        /**
+         * Calls the function with the arguments held in the first slots of {@code frame}, which must be
+         * {@link Int}s that fit in an int.  Returns null if the result does not fit in an int.
+         */
+        public Value invoke(Meter meter, Frame frame) {
+            var ints = new int[definition.args().size()];
+            for(int i = 0; i < ints.length; i++) {
+                ints[i] = (int)frame.get(i).asInt().value();
+            }
+            return invoke(meter, ints);
+        }
+
+        private Value invoke(Meter meter, int[] ints) {
+            int depth = meter.depth();
+            int result;
+            try {
+                result = (int)handle.invokeExact(ints, meter);
+            } catch (ArithmeticException e) {
+                meter.unwind(depth);
+                return null;
+            } catch (RuntimeException | Error e) {
+                meter.unwind(depth);
+                throw e;
+            } catch (Throwable e) {
+                meter.unwind(depth);
+                throw new LanguageException(e.toString());
+            }
+            return returnsBool ? Bool.of(result != 0) : Int.of(result);
+        }
+    }
+
+    private final Map<String, Ast.FunctionDefinition> candidates = new LinkedHashMap<>();
+    private final Map<String, Type> returnTypes = new HashMap<>();
+
+    private BytecodeCompiler(Ast.Program program) {
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                candidates.put(functionDefinition.name(), functionDefinition);
+            }
+        }
+    }
+
+    /**
+     * Compiles every function of a resolved program that the compiler supports.
+     */
+    public static Map<String, CompiledFunction> compile(Ast.Program program) {
+        var compiler = new BytecodeCompiler(program);
+        compiler.excludeMutualTailCalls();
+        compiler.inferReturnTypes();
+        if(compiler.candidates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return compiler.emit();
+    }
+
+    private void excludeMutualTailCalls() {
+        var tailCalls = new HashMap<String, Set<String>>();
+        for(var definition : candidates.values()) {
+            var callees = new HashSet<String>();
+            collectTailCalls(definition.body(), callees);
+            callees.remove(definition.name());
+            tailCalls.put(definition.name(), callees);
+        }
+        candidates.keySet().removeIf(name -> reaches(tailCalls, name, name, new HashSet<>()));
+    }
+
+    private static void collectTailCalls(Ast.Expression expression, Set<String> callees) {
+        if(expression instanceof Ast.ResolvedCall resolvedCall) {
+            callees.add(resolvedCall.site().name());
+        } else if(expression instanceof Ast.BlockExpression block && !block.elements().isEmpty()) {
+            collectTailCalls(block.elements().get(block.elements().size() - 1), callees);
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            collectTailCalls(ifExpression.thenClause(), callees);
+            ifExpression.elseClause().ifPresent(elseClause -> collectTailCalls(elseClause, callees));
+        }
+    }
+
+    private static boolean reaches(Map<String, Set<String>> tailCalls, String from, String target, Set<String> visited) {
+        for(var callee : tailCalls.getOrDefault(from, Set.of())) {
+            if(callee.equals(target) || (visited.add(callee) && reaches(tailCalls, callee, target, visited))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void inferReturnTypes() {
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(var definition : new ArrayList<>(candidates.values())) {
+                Type type;
+                try {
+                    type = new Checker(definition).check();
+                } catch (Unsupported e) {
+                    type = Type.NONE;
+                }
+                if(type == Type.NONE) {
+                    candidates.remove(definition.name());
+                    returnTypes.remove(definition.name());
+                    changed = true;
+                } else if(type != returnTypes.get(definition.name())) {
+                    returnTypes.put(definition.name(), type);
+                    changed = true;
+                }
+            }
+            if(!changed) {
+                changed = candidates.keySet().removeIf(name -> returnTypes.get(name) == Type.UNKNOWN);
+            }
+        }
+    }
+
+    private final class Checker {
+        private final Ast.FunctionDefinition definition;
+        private final Type[] locals;
+        /**
+         * The locals assigned on every path to the expression being checked.
+         */
+        private BitSet assigned = new BitSet();
+
+        private Checker(Ast.FunctionDefinition definition) {
+            this.definition = definition;
+            this.locals = new Type[definition.frameSize()];
+            if(locals.length > 254) {
+                throw new Unsupported("too many locals");
+            }
+            for(int i = 0; i < definition.args().size(); i++) {
+                locals[i] = Type.INT;
+            }
+            assigned.set(0, definition.args().size());
+        }
+
+        private Type check() {
+            return check(definition.body());
+        }
+
+        private Type expect(Ast.Expression expression, Type expected) {
+            var type = check(expression);
+            if(type != expected && type != Type.UNKNOWN) {
+                throw new Unsupported(expression + " is not " + expected);
+            }
+            return expected;
+        }
+
+        private Type join(Type a, Type b) {
+            if(a == Type.UNKNOWN) return b;
+            if(b == Type.UNKNOWN || a == b) return a;
+            return Type.NONE;
+        }
+
+        private Type check(Ast.Expression expression) {
+            if(expression instanceof Ast.IntegerLiteral integerLiteral) {
+                if((int)integerLiteral.value() != integerLiteral.value()) {
+                    throw new Unsupported(integerLiteral.value() + " does not fit in an int");
+                }
+                return Type.INT;
+            } else if(expression instanceof Ast.BoolLiteral) {
+                return Type.BOOL;
+            } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+                expect(binaryExpression.lhs(), Type.INT);
+                expect(binaryExpression.rhs(), Type.INT);
+                return switch(binaryExpression.operator()) {
+                    case ADD, SUBTRACT, MULTIPLY, DIVIDE -> Type.INT;
+                    default -> Type.BOOL;
+                };
+            } else if(expression instanceof Ast.ResolvedIdentifier identifier) {
+                if(identifier.depth() != 0 || !assigned.get(identifier.slot())) {
+                    throw new Unsupported(identifier.name() + " is not a definitely assigned local");
+                }
+                return locals[identifier.slot()];
+            } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+                if(assignment.depth() != 0) {
+                    throw new Unsupported(assignment.name() + " is not a local");
+                }
+                var type = check(assignment.expression());
+                var slot = assignment.slot();
+                if(type == Type.NONE || type == Type.UNKNOWN || (locals[slot] != null && locals[slot] != type)) {
+                    throw new Unsupported(assignment.name() + " changes its type");
+                }
+                locals[slot] = type;
+                assigned.set(slot);
+                return type;
+            } else if(expression instanceof Ast.ResolvedCall resolvedCall) {
+                return checkCall(resolvedCall.site().name(), orderedArguments(resolvedCall));
+            } else if(expression instanceof Ast.BlockExpression block) {
+                var type = Type.NONE;
+                for(var element : block.elements()) {
+                    type = check(element);
+                }
+                return type;
+            } else if(expression instanceof Ast.Println println) {
+                throw new Unsupported("println writes output");
+            } else if(expression instanceof Ast.IfExpression ifExpression) {
+                expect(ifExpression.condition(), Type.BOOL);
+                var before = (BitSet)assigned.clone();
+                var thenType = check(ifExpression.thenClause());
+                if(ifExpression.elseClause().isEmpty()) {
+                    assigned = before;
+                    return Type.NONE;
+                }
+                var afterThen = assigned;
+                assigned = before;
+                var type = join(thenType, check(ifExpression.elseClause().get()));
+                assigned.and(afterThen);
+                return type;
+            } else if(expression instanceof Ast.WhileExpression whileExpression) {
+                expect(whileExpression.condition(), Type.BOOL);
+                // The body may not run at all.
+                var before = (BitSet)assigned.clone();
+                check(whileExpression.body());
+                assigned = before;
+                return Type.BOOL;
+            } else {
+                throw new Unsupported(expression.getClass().getSimpleName() + " is not supported");
+            }
+        }
+
+        private Type checkCall(String name, List<Ast.Expression> args) {
+            var callee = candidates.get(name);
+            if(callee == null || callee.args().size() != args.size()) {
+                throw new Unsupported(name + " is not compilable");
+            }
+            for(var arg : args) {
+                expect(arg, Type.INT);
+            }
+            return returnTypes.getOrDefault(name, Type.UNKNOWN);
+        }
+    }
+
+    private List<Ast.Expression> orderedArguments(Ast.ResolvedCall resolvedCall) {
+        var labels = resolvedCall.site().labels();
+        if(labels == null) {
+            return resolvedCall.args();
+        }
+        var callee = candidates.get(resolvedCall.site().name());
+        if(callee == null) {
+            throw new Unsupported(resolvedCall.site().name() + " is not compilable");
+        }
+        var ordered = new ArrayList<Ast.Expression>();
+        for(var param : callee.args()) {
+            int index = labels.indexOf(param);
+            if(index < 0) {
+                throw new Unsupported("argument " + param + " is missing");
+            }
+            ordered.add(resolvedCall.args().get(index));
+        }
+        return ordered;
+    }
+
+    /**
+     * Integer division for compiled code, failing like {@link Math#addExact} when the quotient overflows.
+     */
+    public static int divideExact(int lhs, int rhs) {
+        if(lhs == Integer.MIN_VALUE && rhs == -1) {
+            throw new ArithmeticException("integer overflow");
+        }
+        return lhs / rhs;
+    }
+
+    private static final String METER = "com/github/kmizu/toys/Meter";
+
+    private static String descriptor(int arity) {
+        return "(" + "I".repeat(arity) + ")I";
+    }
+
+    private static String functionDescriptor(int arity) {
+        return "(" + "I".repeat(arity) + "L" + METER + ";)I";
+    }
+
+    private Map<String, CompiledFunction> emit() {
+        var writer = new ClassFileWriter("com/github/kmizu/toys/CompiledToys");
+        for(var definition : candidates.values()) {
+            new Emitter(writer, definition).emitFunction();
+        }
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+            var callees = new HashMap<String, Set<String>>();
+            for(var definition : candidates.values()) {
+                callees.put(definition.name(), Inliner.callees(definition.body()));
+            }
+            var compiled = new HashMap<String, CompiledFunction>();
+            for(var definition : candidates.values()) {
+                var arity = definition.args().size();
+                var handle = lookup.findStatic(lookup.lookupClass(), definition.name(), MethodType.fromMethodDescriptorString(functionDescriptor(arity), null))
+                        .asSpreader(0, int[].class, arity);
+                var reaches = new HashSet<String>();
+                collectReached(definition.name(), callees, reaches);
+                compiled.put(definition.name(), new CompiledFunction(definition, handle, returnTypes.get(definition.name()) == Type.BOOL, reaches));
+            }
+            return compiled;
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new LanguageException("Failed to load compiled code: " + e);
+        }
+    }
+
+    private static void collectReached(String from, Map<String, Set<String>> callees, Set<String> reached) {
+        for(var callee : callees.getOrDefault(from, Set.of())) {
+            if(reached.add(callee)) {
+                collectReached(callee, callees, reached);
+            }
+        }
+    }
+
+    private final class Emitter {
+        private final ClassFileWriter writer;
+        private final Ast.FunctionDefinition definition;
+        private final ClassFileWriter.Code code;
+        private final ClassFileWriter.Label start = new ClassFileWriter.Label();
+
+        private Emitter(ClassFileWriter writer, Ast.FunctionDefinition definition) {
+            this.writer = writer;
+            this.definition = definition;
+            this.code = writer.method(definition.name(), functionDescriptor(definition.args().size()), definition.frameSize() + 1, meter(), METER);
+        }
+
+        /**
+         * The JVM local holding the meter, right after the arguments.
+         */
+        private int meter() {
+            return definition.args().size();
+        }
+
+        /**
+         * The JVM local holding a slot of the frame.
+         */
+        private int local(int slot) {
+            return slot < meter() ? slot : slot + 1;
+        }
+
+        private void charge(String method) {
+            code.loadReference(meter());
+            code.invokeVoid(METER, method);
+        }
+
+        private void emitFunction() {
+            charge("enter");
+            for(int i = definition.args().size(); i < definition.frameSize(); i++) {
+                code.pushInt(0);
+                code.store(local(i));
+            }
+            code.place(start);
+            emitTail(definition.body());
+            code.end();
+        }
+
+        /**
+         * Emits an expression whose value the function returns.
+         */
+        private void emitTail(Ast.Expression expression) {
+            if(expression instanceof Ast.ResolvedCall resolvedCall && resolvedCall.site().name().equals(definition.name())) {
+                emitSelfTailCall(orderedArguments(resolvedCall));
+            } else if(expression instanceof Ast.BlockExpression block && !block.elements().isEmpty()) {
+                var elements = block.elements();
+                for(int i = 0; i < elements.size() - 1; i++) {
+                    emit(elements.get(i), false);
+                }
+                emitTail(elements.get(elements.size() - 1));
+            } else if(expression instanceof Ast.IfExpression ifExpression && ifExpression.elseClause().isPresent()) {
+                var elseLabel = new ClassFileWriter.Label();
+                emitBranchIfFalse(ifExpression.condition(), elseLabel);
+                emitTail(ifExpression.thenClause());
+                code.place(elseLabel);
+                emitTail(ifExpression.elseClause().get());
+            } else {
+                emit(expression, true);
+                charge("exit");
+                code.returnInt();
+            }
+        }
+
+        private void emitSelfTailCall(List<Ast.Expression> args) {
+            for(var arg : args) {
+                emit(arg, true);
+            }
+            for(int i = args.size() - 1; i >= 0; i--) {
+                code.store(local(i));
+            }
+            charge("step");
+            code.jump(start);
+        }
+
+        private void emit(Ast.Expression expression, boolean keep) {
+            if(expression instanceof Ast.IntegerLiteral integerLiteral) {
+                if(keep) code.pushInt((int)integerLiteral.value());
+            } else if(expression instanceof Ast.BoolLiteral boolLiteral) {
+                if(keep) code.pushInt(boolLiteral.value() ? 1 : 0);
+            } else if(expression instanceof Ast.ResolvedIdentifier identifier) {
+                if(keep) code.load(local(identifier.slot()));
+            } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+                emit(assignment.expression(), true);
+                if(keep) code.dup();
+                code.store(local(assignment.slot()));
+            } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+                emitBinary(binaryExpression);
+                if(!keep) code.pop();
+            } else if(expression instanceof Ast.ResolvedCall resolvedCall) {
+                emitCall(resolvedCall.site().name(), orderedArguments(resolvedCall), keep);
+            } else if(expression instanceof Ast.BlockExpression block) {
+                var elements = block.elements();
+                for(int i = 0; i < elements.size(); i++) {
+                    emit(elements.get(i), keep && i == elements.size() - 1);
+                }
+            } else if(expression instanceof Ast.IfExpression ifExpression) {
+                var elseLabel = new ClassFileWriter.Label();
+                var endLabel = new ClassFileWriter.Label();
+                emitBranchIfFalse(ifExpression.condition(), elseLabel);
+                emit(ifExpression.thenClause(), keep);
+                if(ifExpression.elseClause().isPresent()) {
+                    code.jump(endLabel);
+                    code.place(elseLabel);
+                    emit(ifExpression.elseClause().get(), keep);
+                    code.place(endLabel);
+                } else {
+                    code.place(elseLabel);
+                }
+            } else if(expression instanceof Ast.WhileExpression whileExpression) {
+                var loopLabel = new ClassFileWriter.Label();
+                var exitLabel = new ClassFileWriter.Label();
+                code.place(loopLabel);
+                emitBranchIfFalse(whileExpression.condition(), exitLabel);
+                emit(whileExpression.body(), false);
+                charge("step");
+                code.jump(loopLabel);
+                code.place(exitLabel);
+                if(keep) code.pushInt(1);
+            } else {
+                throw new Unsupported(expression.getClass().getSimpleName() + " is not supported");
+            }
+        }
+
+        private void emitCall(String name, List<Ast.Expression> args, boolean keep) {
+            for(var arg : args) {
+                emit(arg, true);
+            }
+            code.loadReference(meter());
+            code.invokeStatic(writer.className(), name, functionDescriptor(args.size()), args.size() + 1);
+            if(!keep) code.pop();
+        }
+
+        private void emitBinary(Ast.BinaryExpression binaryExpression) {
+            switch(binaryExpression.operator()) {
+                case ADD, SUBTRACT, MULTIPLY, DIVIDE -> {
+                    emit(binaryExpression.lhs(), true);
+                    emit(binaryExpression.rhs(), true);
+                    switch(binaryExpression.operator()) {
+                        case ADD -> code.invokeStatic("java/lang/Math", "addExact", descriptor(2), 2);
+                        case SUBTRACT -> code.invokeStatic("java/lang/Math", "subtractExact", descriptor(2), 2);
+                        case MULTIPLY -> code.invokeStatic("java/lang/Math", "multiplyExact", descriptor(2), 2);
+                        default -> code.invokeStatic("com/github/kmizu/toys/BytecodeCompiler", "divideExact", descriptor(2), 2);
+                    }
+                }
+                default -> {
+                    var falseLabel = new ClassFileWriter.Label();
+                    var endLabel = new ClassFileWriter.Label();
+                    emitBranchIfFalse(binaryExpression, falseLabel);
+                    code.pushInt(1);
+                    code.jump(endLabel);
+                    code.place(falseLabel);
+                    code.pushInt(0);
+                    code.place(endLabel);
+                }
+            }
+        }
+
+        private void emitBranchIfFalse(Ast.Expression condition, ClassFileWriter.Label target) {
+            if(condition instanceof Ast.BinaryExpression binaryExpression) {
+                var negated = switch(binaryExpression.operator()) {
+                    case LESS_THAN -> ClassFileWriter.Code.IF_ICMPGE;
+                    case LESS_OR_EQUAL -> ClassFileWriter.Code.IF_ICMPGT;
+                    case GREATER_THAN -> ClassFileWriter.Code.IF_ICMPLE;
+                    case GREATER_OR_EQUAL -> ClassFileWriter.Code.IF_ICMPLT;
+                    case EQUAL_EQUAL -> ClassFileWriter.Code.IF_ICMPNE;
+                    case NOT_EQUAL -> ClassFileWriter.Code.IF_ICMPEQ;
+                    default -> -1;
+                };
+                if(negated >= 0) {
+                    emit(binaryExpression.lhs(), true);
+                    emit(binaryExpression.rhs(), true);
+                    code.branch(negated, target);
+                    return;
+                }
+            }
+            emit(condition, true);
+            code.branch(ClassFileWriter.Code.IFEQ, target);
+        }
+    }
+}
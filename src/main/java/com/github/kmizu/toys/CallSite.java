@@ -0,0 +1,93 @@
+package com.github.kmizu.toys;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The target of one call expression.  The {@link Interpreter} links it on first use and again only after
+ * the function table has changed, so a call normally costs one int comparison instead of a lookup by name.
+ * A labelled call also keeps, for each parameter of the callee, the position of the argument bound to it.
+ * Threads running the same program may link a site concurrently; {@link #version} is written last and read
+ * first, so a thread that sees it current also sees the rest of the link.
+ */
+public final class CallSite {
+    private final String name;
+    private final List<String> labels;
+    private Ast.FunctionDefinition definition;
+    private BytecodeCompiler.CompiledFunction compiled;
+    private int[] order;
+    private volatile int version = -1;
+
+    /**
+     * @param labels the labels of a labelled call in source order, or null for a positional call
+     */
+    public CallSite(String name, List<String> labels) {
+        this.name = name;
+        this.labels = labels;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public List<String> labels() {
+        return labels;
+    }
+
+    public boolean isLinked(int version) {
+        return this.version == version;
+    }
+
+    /**
+     * @param arguments the number of arguments of the call
+     * @throws LanguageException if the arguments do not fit the parameters of {@code definition}
+     */
+    public void link(Ast.FunctionDefinition definition, BytecodeCompiler.CompiledFunction compiled, int arguments, int version) {
+        if(labels == null && arguments != definition.args().size()) {
+            throw new LanguageException("Function " + name + " takes " + definition.args().size() + " arguments");
+        } else if(labels != null) {
+            var params = definition.args();
+            var ordered = new int[params.size()];
+            for(int i = 0; i < ordered.length; i++) {
+                ordered[i] = labels.indexOf(params.get(i));
+                if(ordered[i] < 0) {
+                    throw new LanguageException("Argument " + params.get(i) + " of " + name + " is missing");
+                }
+            }
+            this.order = ordered;
+        }
+        this.definition = definition;
+        this.compiled = compiled;
+        this.version = version;
+    }
+
+    public Ast.FunctionDefinition definition() {
+        return definition;
+    }
+
+    public BytecodeCompiler.CompiledFunction compiled() {
+        return compiled;
+    }
+
+    /**
+     * The index of the argument expression bound to the {@code parameter}-th parameter of the linked function.
+     */
+    public int argument(int parameter) {
+        return order == null ? parameter : order[parameter];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CallSite site && name.equals(site.name) && Objects.equals(labels, site.labels);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, labels);
+    }
+
+    @Override
+    public String toString() {
+        return labels == null ? name : name + labels;
+    }
+}
@@ -0,0 +1,347 @@
+package com.github.kmizu.toys;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A minimal class file writer for classes made of static methods whose locals
+ * and operand stack entries are all JVM ints, apart from one local holding a
+ * reference that never changes.  That restriction lets every branch target be
+ * described by a full_frame of the same locals and of ints in the StackMapTable.
+ */
+final class ClassFileWriter {
+    private static final int JAVA_17 = 61;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ITEM_INTEGER = 1;
+    private static final int ITEM_OBJECT = 7;
+    private static final int FULL_FRAME = 255;
+
+    private final String className;
+    private final List<byte[]> constants = new ArrayList<>();
+    private final Map<String, Integer> constantIndexes = new HashMap<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFileWriter(String className) {
+        this.className = className;
+    }
+
+    String className() {
+        return className;
+    }
+
+    /**
+     * @param referenceSlot the local holding a reference, or -1 if every local is an int
+     * @param referenceClass the internal name of the class of that reference
+     */
+    Code method(String name, String descriptor, int maxLocals, int referenceSlot, String referenceClass) {
+        return new Code(name, descriptor, maxLocals, referenceSlot, referenceClass);
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        return bytes(out -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(JAVA_17);
+            out.writeShort(constants.size() + 1);
+            for(var constant : constants) {
+                out.write(constant);
+            }
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for(var method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        });
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant("M" + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(10);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(String key, Emitter emitter) {
+        var index = constantIndexes.get(key);
+        if(index == null) {
+            constants.add(bytes(emitter));
+            index = constants.size();
+            constantIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    private interface Emitter {
+        void emit(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] bytes(Emitter emitter) {
+        var buffer = new ByteArrayOutputStream();
+        try(var out = new DataOutputStream(buffer)) {
+            emitter.emit(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    static final class Label {
+        private int position = -1;
+        private int stackDepth = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    final class Code {
+        static final int IFEQ = 0x99, IFNE = 0x9a;
+        static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4;
+        private static final int GOTO = 0xa7;
+
+        private final String name;
+        private final String descriptor;
+        private final int maxLocals;
+        private final int referenceSlot;
+        private final String referenceClass;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final TreeMap<Integer, Integer> frames = new TreeMap<>();
+        private final List<Label> forwardTargets = new ArrayList<>();
+        private int stack;
+        private int maxStack;
+
+        private Code(String name, String descriptor, int maxLocals, int referenceSlot, String referenceClass) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+            this.referenceSlot = referenceSlot;
+            this.referenceClass = referenceClass;
+        }
+
+        private void grow(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void u1(int value) {
+            code.write(value);
+        }
+
+        private void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        void pushInt(int value) {
+            if(-1 <= value && value <= 5) {
+                u1(0x03 + value);
+            } else if(Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE) {
+                u1(0x10);
+                u1(value);
+            } else if(Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
+                u1(0x11);
+                u2(value);
+            } else {
+                u1(0x13);
+                u2(integer(value));
+            }
+            grow(1);
+        }
+
+        void load(int slot) {
+            u1(0x15);
+            u1(slot);
+            grow(1);
+        }
+
+        void store(int slot) {
+            u1(0x36);
+            u1(slot);
+            grow(-1);
+        }
+
+        void loadReference(int slot) {
+            u1(0x19);
+            u1(slot);
+            grow(1);
+        }
+
+        /**
+         * Invokes a method that takes no arguments and returns nothing on the reference on top of the stack.
+         */
+        void invokeVoid(String owner, String methodName) {
+            u1(0xb6);
+            u2(methodRef(owner, methodName, "()V"));
+            grow(-1);
+        }
+
+        void dup() {
+            u1(0x59);
+            grow(1);
+        }
+
+        void pop() {
+            u1(0x57);
+            grow(-1);
+        }
+
+        void invokeStatic(String owner, String methodName, String methodDescriptor, int arity) {
+            u1(0xb8);
+            u2(methodRef(owner, methodName, methodDescriptor));
+            grow(1 - arity);
+        }
+
+        void returnInt() {
+            u1(0xac);
+            grow(-1);
+        }
+
+        void branch(int opcode, Label target) {
+            grow(opcode == IFEQ || opcode == IFNE ? -1 : opcode == GOTO ? 0 : -2);
+            jump(opcode, target);
+        }
+
+        void jump(Label target) {
+            jump(GOTO, target);
+        }
+
+        private void jump(int opcode, Label target) {
+            if(target.stackDepth < 0) {
+                target.stackDepth = stack;
+            } else if(target.stackDepth != stack) {
+                throw new LanguageException("inconsistent stack depth at branch target");
+            }
+            int at = code.size();
+            u1(opcode);
+            if(target.position >= 0) {
+                u2(target.position - at);
+            } else {
+                if(target.branches.isEmpty()) {
+                    forwardTargets.add(target);
+                }
+                target.branches.add(at);
+                u2(0);
+            }
+        }
+
+        void place(Label label) {
+            if(label.stackDepth < 0) {
+                label.stackDepth = stack;
+            }
+            stack = label.stackDepth;
+            label.position = code.size();
+            frames.put(label.position, stack);
+        }
+
+        void end() {
+            var bytes = code.toByteArray();
+            for(var target : forwardTargets) {
+                if(target.position < 0) {
+                    throw new LanguageException("label is never placed in " + name);
+                }
+                for(int at : target.branches) {
+                    int offset = target.position - at;
+                    bytes[at + 1] = (byte)(offset >> 8);
+                    bytes[at + 2] = (byte)offset;
+                }
+            }
+            if(bytes.length > Short.MAX_VALUE) {
+                throw new LanguageException("method " + name + " is too large");
+            }
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int codeName = utf8("Code");
+            int stackMapName = frames.isEmpty() ? 0 : utf8("StackMapTable");
+            int referenceClassIndex = referenceSlot < 0 ? 0 : classRef(referenceClass);
+            var stackMap = bytes(out -> {
+                out.writeShort(frames.size());
+                int previous = -1;
+                for(var frame : frames.entrySet()) {
+                    out.writeByte(FULL_FRAME);
+                    out.writeShort(frame.getKey() - previous - 1);
+                    out.writeShort(maxLocals);
+                    for(int i = 0; i < maxLocals; i++) {
+                        if(i == referenceSlot) {
+                            out.writeByte(ITEM_OBJECT);
+                            out.writeShort(referenceClassIndex);
+                        } else {
+                            out.writeByte(ITEM_INTEGER);
+                        }
+                    }
+                    out.writeShort(frame.getValue());
+                    for(int i = 0; i < frame.getValue(); i++) {
+                        out.writeByte(ITEM_INTEGER);
+                    }
+                    previous = frame.getKey();
+                }
+            });
+            methods.add(bytes(out -> {
+                out.writeShort(ACC_PUBLIC | ACC_STATIC);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                int attributesLength = frames.isEmpty() ? 0 : 6 + stackMap.length;
+                out.writeInt(12 + bytes.length + attributesLength);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeShort(0);
+                if(frames.isEmpty()) {
+                    out.writeShort(0);
+                } else {
+                    out.writeShort(1);
+                    out.writeShort(stackMapName);
+                    out.writeInt(stackMap.length);
+                    out.write(stackMap);
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,758 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * Compiles resolved expressions into trees of pre-linked nodes.
+ * Operators, variable slots and call targets are selected once at compile time,
+ * so evaluating a node never dispatches on the kind of the AST node again.
+ * Calls in tail position of a function body do not call; they leave their target in the frame for the
+ * trampoline in {@link #run}, which reuses that frame.  Nodes keep no execution state of their own and
+ * find the global frame through the frame they evaluate in, so the functions of one compiler can run on
+ * several threads at once, each with its own globals.
+ * A local variable that the {@link TypeChecker} finds is only ever assigned integers is stored unboxed in its
+ * frame, so that loops counting and summing in locals allocate nothing.  An assignment of anything else to it,
+ * such as an integer that overflowed a long, stores that value boxed instead.
+ */
+public class ClosureCompiler {
+    @FunctionalInterface
+    public interface Node {
+        Value evaluate(Frame frame);
+
+        /**
+         * The value as a long, or {@link Promoted} carrying it if it is not an {@link Int}.
+         */
+        default long evaluateLong(Frame frame) {
+            return longValue(evaluate(frame));
+        }
+
+        default boolean evaluateBool(Frame frame) {
+            return evaluate(frame).asBool().value();
+        }
+
+        /**
+         * Evaluates the node for its effects only, without boxing a value nobody reads.
+         */
+        default void execute(Frame frame) {
+            evaluate(frame);
+        }
+    }
+
+    /**
+     * A node producing an integer.  Parents asking for {@link #evaluateLong} get it without boxing
+     * unless it overflows a long.
+     */
+    private static abstract class LongNode implements Node {
+        @Override
+        public Value evaluate(Frame frame) {
+            try {
+                return Int.of(evaluateLong(frame));
+            } catch (Promoted e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        public abstract long evaluateLong(Frame frame);
+    }
+
+    private static abstract class BoolNode implements Node {
+        @Override
+        public Value evaluate(Frame frame) {
+            return Bool.of(evaluateBool(frame));
+        }
+
+        @Override
+        public abstract boolean evaluateBool(Frame frame);
+    }
+
+    /**
+     * Works on longs until an operand or the result is not an {@link Int}, and then on the boxed values.
+     */
+    private static abstract class ArithmeticNode extends LongNode {
+        private final Operator operator;
+        private final Node lhs;
+        private final Node rhs;
+
+        private ArithmeticNode(Operator operator, Node lhs, Node rhs) {
+            this.operator = operator;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        abstract long apply(long lhs, long rhs);
+
+        @Override
+        public long evaluateLong(Frame frame) {
+            long l;
+            try {
+                l = lhs.evaluateLong(frame);
+            } catch (Promoted e) {
+                throw new Promoted(arithmetic(operator, e.value, rhs.evaluate(frame)));
+            }
+            long r;
+            try {
+                r = rhs.evaluateLong(frame);
+            } catch (Promoted e) {
+                throw new Promoted(arithmetic(operator, Int.of(l), e.value));
+            }
+            return apply(l, r);
+        }
+    }
+
+    private static abstract class ComparisonNode extends BoolNode {
+        private final Operator operator;
+        private final Node lhs;
+        private final Node rhs;
+
+        private ComparisonNode(Operator operator, Node lhs, Node rhs) {
+            this.operator = operator;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        abstract boolean test(long lhs, long rhs);
+
+        @Override
+        public boolean evaluateBool(Frame frame) {
+            long l;
+            try {
+                l = lhs.evaluateLong(frame);
+            } catch (Promoted e) {
+                return compare(operator, e.value, rhs.evaluate(frame));
+            }
+            long r;
+            try {
+                r = rhs.evaluateLong(frame);
+            } catch (Promoted e) {
+                return compare(operator, Int.of(l), e.value);
+            }
+            return test(l, r);
+        }
+    }
+
+    public final static record Code(Ast.FunctionDefinition definition, Node body) {}
+
+    public final static class Function {
+        private final String name;
+        private Code code;
+
+        private Function(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Code code() {
+            if(code == null) {
+                throw new LanguageException("Function " + name + " is not found");
+            }
+            return code;
+        }
+    }
+
+    private final Map<String, Function> functions = new HashMap<>();
+    private Map<Ast.WhileExpression, String> loopLabels = Map.of();
+    private BitSet unboxedSlots = new BitSet();
+
+    public void reset() {
+        functions.clear();
+    }
+
+    public Function function(String name) {
+        return functions.computeIfAbsent(name, Function::new);
+    }
+
+    /**
+     * Compiles {@code definition}, storing unboxed the slots that {@code signature} says are only assigned integers.
+     */
+    public Function define(Ast.FunctionDefinition definition, TypeChecker.Signature signature) {
+        var function = function(definition.name());
+        loopLabels = Profiler.loopLabels(definition.name(), definition.body());
+        unboxedSlots = new BitSet();
+        for(int i = 0; i < signature.slots().size(); i++) {
+            if(signature.slots().get(i).equals(TypeChecker.Type.INT)) {
+                unboxedSlots.set(i);
+            }
+        }
+        function.code = new Code(definition, compile(definition.body(), true));
+        return function;
+    }
+
+    /**
+     * Removes the code of a function, so that calling it fails as if it had never been defined.
+     */
+    public void undefine(String name) {
+        var function = functions.get(name);
+        if(function != null) {
+            function.code = null;
+        }
+    }
+
+    public Value call(Frame globalFrame, Function function, Value... args) {
+        var code = function.code();
+        checkArity(function, code, args.length);
+        var frame = new Frame(code.definition().frameSize(), globalFrame);
+        for(int i = 0; i < args.length; i++) {
+            frame.set(i, args[i]);
+        }
+        return run(code, frame);
+    }
+
+    public Value call(Frame globalFrame, String name, Value... args) {
+        var function = functions.get(name);
+        if(function == null) {
+            throw new LanguageException("Function " + name + " is not found");
+        }
+        return call(globalFrame, function, args);
+    }
+
+    /**
+     * A caller for builtins.  Nodes keep no execution state, so it needs only a meter of its own.
+     */
+    private Builtin.Caller worker(Frame globalFrame) {
+        var fork = globalFrame.fork();
+        return (name, args) -> call(fork, name, args);
+    }
+
+    private Value run(Code code, Frame frame) {
+        var meter = frame.root().meter();
+        meter.enter(code.definition().name());
+        try {
+            return run(code, frame, meter);
+        } finally {
+            meter.exit();
+        }
+    }
+
+    private Value run(Code code, Frame frame, Meter meter) {
+        while(true) {
+            var result = code.body().evaluate(frame);
+            if(frame.tailCallee() == null) {
+                return result;
+            }
+            var next = (Code)frame.tailCallee();
+            meter.tailCall(next.definition().name());
+            var args = frame.tailArgs();
+            frame.clearTailCall();
+            if(frame.size() < next.definition().frameSize()) {
+                frame = new Frame(next.definition().frameSize(), frame.parent());
+            } else {
+                frame.clear();
+            }
+            for(int i = 0; i < args.length; i++) {
+                frame.set(i, args[i]);
+            }
+            code = next;
+        }
+    }
+
+    public Node compileTopLevel(Ast.Expression expression) {
+        loopLabels = Profiler.loopLabels(Profiler.TOP_LEVEL, expression);
+        unboxedSlots = new BitSet();
+        return compile(expression, false);
+    }
+
+    public Node compile(Ast.Expression expression) {
+        return compile(expression, false);
+    }
+
+    private Node compile(Ast.Expression expression, boolean tail) {
+        if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            return compileBinary(binaryExpression);
+        } else if(expression instanceof Ast.IntegerLiteral integerLiteral) {
+            var value = Int.of(integerLiteral.value());
+            return new LongNode() {
+                @Override
+                public Value evaluate(Frame frame) {
+                    return value;
+                }
+
+                @Override
+                public long evaluateLong(Frame frame) {
+                    return value.value();
+                }
+            };
+        } else if(expression instanceof Ast.BoolLiteral boolLiteral) {
+            var value = Bool.of(boolLiteral.value());
+            return frame -> value;
+        } else if(expression instanceof Ast.FunctionReference reference) {
+            var value = new FunctionReference(reference.name());
+            return frame -> value;
+        } else if(expression instanceof Ast.ResolvedIdentifier identifier) {
+            return compileIdentifier(identifier);
+        } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+            return compileAssignment(assignment);
+        } else if(expression instanceof Ast.ResolvedCall resolvedCall) {
+            var site = resolvedCall.site();
+            if(site.labels() == null) {
+                return compileCall(function(site.name()), compileAll(resolvedCall.args()), tail);
+            }
+            return compileLabelledCall(resolvedCall, tail);
+        } else if(expression instanceof Ast.BlockExpression block) {
+            var elements = new Node[block.elements().size()];
+            for(int i = 0; i < elements.length; i++) {
+                elements[i] = compile(block.elements().get(i), tail && i == elements.length - 1);
+            }
+            return compileBlock(elements);
+        } else if(expression instanceof Ast.Println println) {
+            var arg = compile(println.arg());
+            return frame -> {
+                var value = arg.evaluate(frame);
+                frame.root().output().println(value);
+                return value;
+            };
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            var condition = compile(ifExpression.condition());
+            var thenClause = compile(ifExpression.thenClause(), tail);
+            var elseClause = ifExpression.elseClause().map(e -> compile(e, tail)).orElse(null);
+            return new Node() {
+                @Override
+                public Value evaluate(Frame frame) {
+                    if(condition.evaluateBool(frame)) {
+                        return thenClause.evaluate(frame);
+                    }
+                    return elseClause == null ? null : elseClause.evaluate(frame);
+                }
+
+                @Override
+                public void execute(Frame frame) {
+                    if(condition.evaluateBool(frame)) {
+                        thenClause.execute(frame);
+                    } else if(elseClause != null) {
+                        elseClause.execute(frame);
+                    }
+                }
+            };
+        } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            var condition = compile(whileExpression.condition());
+            var body = compile(whileExpression.body());
+            var label = loopLabels.get(whileExpression);
+            return frame -> {
+                var meter = frame.root().meter();
+                while(condition.evaluateBool(frame)) {
+                    body.execute(frame);
+                    meter.loop(label);
+                }
+                return Bool.TRUE;
+            };
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            var items = compileAll(arrayLiteral.items());
+            if(items.length > 0 && Arrays.stream(items).allMatch(item -> item instanceof LongNode)) {
+                return frame -> {
+                    frame.root().meter().allocate(items.length);
+                    var values = new long[items.length];
+                    for(int i = 0; i < values.length; i++) {
+                        try {
+                            values[i] = items[i].evaluateLong(frame);
+                        } catch (Promoted e) {
+                            var boxed = new ArrayList<Value>(items.length);
+                            for(int j = 0; j < i; j++) {
+                                boxed.add(Int.of(values[j]));
+                            }
+                            boxed.add(e.value);
+                            for(int j = i + 1; j < items.length; j++) {
+                                boxed.add(items[j].evaluate(frame));
+                            }
+                            return wrap(boxed);
+                        }
+                    }
+                    return new Array(values);
+                };
+            }
+            return frame -> {
+                frame.root().meter().allocate(items.length);
+                var values = new ArrayList<Value>(items.length);
+                for(var item : items) {
+                    values.add(item.evaluate(frame));
+                }
+                return wrap(values);
+            };
+        } else if(expression instanceof Ast.Index index) {
+            return compileIndex(index);
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            var array = compile(assignment.array());
+            var index = compile(assignment.index());
+            var value = compile(assignment.expression());
+            return frame -> {
+                var target = array.evaluate(frame);
+                var key = index.evaluate(frame);
+                var v = value.evaluate(frame);
+                if(store(target, key, v)) {
+                    frame.root().meter().allocate(1);
+                }
+                return v;
+            };
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            var entries = dictionaryLiteral.entries();
+            var keys = new Node[entries.size()];
+            var values = new Node[entries.size()];
+            for(int i = 0; i < keys.length; i++) {
+                keys[i] = compile(entries.get(i).key());
+                values[i] = compile(entries.get(i).value());
+            }
+            return frame -> {
+                frame.root().meter().allocate(keys.length);
+                var dictionary = new Dictionary();
+                for(int i = 0; i < keys.length; i++) {
+                    dictionary.put(keys[i].evaluate(frame), values[i].evaluate(frame));
+                }
+                return dictionary;
+            };
+        } else if(expression instanceof Ast.BuiltinCall builtinCall) {
+            return compileBuiltin(builtinCall.builtin(), compileAll(builtinCall.args()));
+        } else {
+            throw new LanguageException("Unresolved expression " + expression);
+        }
+    }
+
+    private Node[] compileAll(List<Ast.Expression> expressions) {
+        var nodes = new Node[expressions.size()];
+        for(int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private Node compileBinary(Ast.BinaryExpression binaryExpression) {
+        var l = compile(binaryExpression.lhs());
+        var r = compile(binaryExpression.rhs());
+        var operator = binaryExpression.operator();
+        return switch(operator) {
+            case ADD -> new ArithmeticNode(operator, l, r) {
+                @Override
+                long apply(long lhs, long rhs) {
+                    return addExact(lhs, rhs);
+                }
+            };
+            case SUBTRACT -> new ArithmeticNode(operator, l, r) {
+                @Override
+                long apply(long lhs, long rhs) {
+                    return subtractExact(lhs, rhs);
+                }
+            };
+            case MULTIPLY -> new ArithmeticNode(operator, l, r) {
+                @Override
+                long apply(long lhs, long rhs) {
+                    return multiplyExact(lhs, rhs);
+                }
+            };
+            case DIVIDE -> new ArithmeticNode(operator, l, r) {
+                @Override
+                long apply(long lhs, long rhs) {
+                    return divideExact(lhs, rhs);
+                }
+            };
+            case LESS_THAN -> new ComparisonNode(operator, l, r) {
+                @Override
+                boolean test(long lhs, long rhs) {
+                    return lhs < rhs;
+                }
+            };
+            case LESS_OR_EQUAL -> new ComparisonNode(operator, l, r) {
+                @Override
+                boolean test(long lhs, long rhs) {
+                    return lhs <= rhs;
+                }
+            };
+            case GREATER_THAN -> new ComparisonNode(operator, l, r) {
+                @Override
+                boolean test(long lhs, long rhs) {
+                    return lhs > rhs;
+                }
+            };
+            case GREATER_OR_EQUAL -> new ComparisonNode(operator, l, r) {
+                @Override
+                boolean test(long lhs, long rhs) {
+                    return lhs >= rhs;
+                }
+            };
+            case EQUAL_EQUAL -> new ComparisonNode(operator, l, r) {
+                @Override
+                boolean test(long lhs, long rhs) {
+                    return lhs == rhs;
+                }
+            };
+            case NOT_EQUAL -> new ComparisonNode(operator, l, r) {
+                @Override
+                boolean test(long lhs, long rhs) {
+                    return lhs != rhs;
+                }
+            };
+        };
+    }
+
+    /**
+     * Parents asking for an integer or a bool read it straight from primitive array storage.
+     * An integer key computed by a long node looks up a dictionary without being boxed.
+     */
+    private Node compileIndex(Ast.Index index) {
+        var target = compile(index.array());
+        var key = compile(index.index());
+        boolean longKey = key instanceof LongNode;
+        return new Node() {
+            private int position(Frame frame) {
+                try {
+                    return intValue(key.evaluateLong(frame));
+                } catch (Promoted e) {
+                    return intValue(e.value);
+                }
+            }
+
+            private Value lookup(Value value, Frame frame) {
+                if(value instanceof Dictionary dictionary) {
+                    if(!longKey) {
+                        return dictionary.get(key.evaluate(frame));
+                    }
+                    try {
+                        return dictionary.get(key.evaluateLong(frame));
+                    } catch (Promoted e) {
+                        return dictionary.get(e.value);
+                    }
+                }
+                return value.asArray().get(position(frame));
+            }
+
+            @Override
+            public Value evaluate(Frame frame) {
+                return lookup(target.evaluate(frame), frame);
+            }
+
+            @Override
+            public long evaluateLong(Frame frame) {
+                var value = target.evaluate(frame);
+                if(value instanceof Array array) {
+                    return array.getLong(position(frame));
+                }
+                return longValue(lookup(value, frame));
+            }
+
+            @Override
+            public boolean evaluateBool(Frame frame) {
+                var value = target.evaluate(frame);
+                if(value instanceof Array array) {
+                    return array.getBool(position(frame));
+                }
+                return lookup(value, frame).asBool().value();
+            }
+        };
+    }
+
+    private Node compileBuiltin(Builtin builtin, Node[] args) {
+        if(builtin == Builtin.LENGTH && args.length == 1) {
+            var array = args[0];
+            return new LongNode() {
+                @Override
+                public long evaluateLong(Frame frame) {
+                    var value = array.evaluate(frame);
+                    return value instanceof Array a ? a.length() : longValue(builtin.call(frame.root().meter(), () -> worker(frame.root()), value));
+                }
+            };
+        }
+        return frame -> {
+            var values = new Value[args.length];
+            for(int i = 0; i < args.length; i++) {
+                values[i] = args[i].evaluate(frame);
+            }
+            return builtin.call(frame.root().meter(), () -> worker(frame.root()), values);
+        };
+    }
+
+    private Node compileIdentifier(Ast.ResolvedIdentifier identifier) {
+        var name = identifier.name();
+        var slot = identifier.slot();
+        var depth = identifier.depth();
+        if(depth == 0 && unboxedSlots.get(slot)) {
+            return new LongNode() {
+                @Override
+                public Value evaluate(Frame frame) {
+                    return defined(name, frame.get(slot));
+                }
+
+                @Override
+                public long evaluateLong(Frame frame) {
+                    return frame.isLong(slot) ? frame.getLong(slot) : longValue(evaluate(frame));
+                }
+            };
+        } else if(depth == 0) {
+            return frame -> defined(name, frame.get(slot));
+        }
+        return frame -> defined(name, frame.ancestor(depth).get(slot));
+    }
+
+    private static Value defined(String name, Value value) {
+        if(value == null) {
+            throw new LanguageException("Variable " + name + " is not defined");
+        }
+        return value;
+    }
+
+    private Node compileAssignment(Ast.ResolvedAssignment assignment) {
+        var value = compile(assignment.expression());
+        var slot = assignment.slot();
+        var depth = assignment.depth();
+        if(depth == 0 && unboxedSlots.get(slot)) {
+            return new LongNode() {
+                @Override
+                public long evaluateLong(Frame frame) {
+                    long v;
+                    try {
+                        v = value.evaluateLong(frame);
+                    } catch (Promoted e) {
+                        frame.set(slot, e.value);
+                        throw e;
+                    }
+                    frame.setLong(slot, v);
+                    return v;
+                }
+
+                @Override
+                public void execute(Frame frame) {
+                    try {
+                        frame.setLong(slot, value.evaluateLong(frame));
+                    } catch (Promoted e) {
+                        frame.set(slot, e.value);
+                    }
+                }
+            };
+        } else if(depth == 0) {
+            return frame -> {
+                var v = value.evaluate(frame);
+                frame.set(slot, v);
+                return v;
+            };
+        }
+        return frame -> {
+            var v = value.evaluate(frame);
+            frame.ancestor(depth).set(slot, v);
+            return v;
+        };
+    }
+
+    private Node compileBlock(Node[] elements) {
+        if(elements.length == 0) {
+            return frame -> null;
+        } else if(elements.length == 1) {
+            return elements[0];
+        }
+        var last = elements[elements.length - 1];
+        return new Node() {
+            @Override
+            public Value evaluate(Frame frame) {
+                for(int i = 0; i < elements.length - 1; i++) {
+                    elements[i].execute(frame);
+                }
+                return last.evaluate(frame);
+            }
+
+            @Override
+            public void execute(Frame frame) {
+                for(var element : elements) {
+                    element.execute(frame);
+                }
+            }
+        };
+    }
+
+    private static void checkArity(Function function, Code code, int count) {
+        if(count != code.definition().args().size()) {
+            throw new LanguageException("Function " + function.name() + " takes " + code.definition().args().size() + " arguments");
+        }
+    }
+
+    private Node compileCall(Function function, Node[] args, boolean tail) {
+        if(tail) {
+            return frame -> {
+                var code = function.code();
+                checkArity(function, code, args.length);
+                var values = new Value[args.length];
+                for(int i = 0; i < args.length; i++) {
+                    values[i] = args[i].evaluate(frame);
+                }
+                frame.setTailCall(code, values);
+                return null;
+            };
+        }
+        return frame -> {
+            var code = function.code();
+            checkArity(function, code, args.length);
+            var callee = new Frame(code.definition().frameSize(), frame.root());
+            for(int i = 0; i < args.length; i++) {
+                callee.set(i, args[i].evaluate(frame));
+            }
+            return run(code, callee);
+        };
+    }
+
+    private Node compileLabelledCall(Ast.ResolvedCall resolvedCall, boolean tail) {
+        var labels = new HashMap<String, Node>();
+        for(int i = 0; i < resolvedCall.args().size(); i++) {
+            labels.put(resolvedCall.site().labels().get(i), compile(resolvedCall.args().get(i)));
+        }
+        return new LabelledCallNode(function(resolvedCall.site().name()), labels, tail);
+    }
+
+    private final class LabelledCallNode implements Node {
+        private final Function function;
+        private final Map<String, Node> labels;
+        private final boolean tail;
+        private Linked linked;
+
+        private LabelledCallNode(Function function, Map<String, Node> labels, boolean tail) {
+            this.function = function;
+            this.labels = labels;
+            this.tail = tail;
+        }
+
+        /**
+         * Replaced as a whole, so that a thread never sees the arguments ordered for another function.
+         */
+        private record Linked(Code code, Node[] args) {}
+
+        private Linked link(Code code) {
+            var formalParams = code.definition().args();
+            var ordered = new Node[formalParams.size()];
+            for(int i = 0; i < ordered.length; i++) {
+                ordered[i] = labels.get(formalParams.get(i));
+                if(ordered[i] == null) {
+                    throw new LanguageException("Argument " + formalParams.get(i) + " of " + function.name() + " is missing");
+                }
+            }
+            var result = new Linked(code, ordered);
+            linked = result;
+            return result;
+        }
+
+        @Override
+        public Value evaluate(Frame frame) {
+            var code = function.code();
+            var current = linked;
+            if(current == null || current.code() != code) {
+                current = link(code);
+            }
+            var args = current.args();
+            if(tail) {
+                var values = new Value[args.length];
+                for(int i = 0; i < args.length; i++) {
+                    values[i] = args[i].evaluate(frame);
+                }
+                frame.setTailCall(code, values);
+                return null;
+            }
+            var callee = new Frame(code.definition().frameSize(), frame.root());
+            for(int i = 0; i < args.length; i++) {
+                callee.set(i, args[i].evaluate(frame));
+            }
+            return run(code, callee);
+        }
+    }
+}
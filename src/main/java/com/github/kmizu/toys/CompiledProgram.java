@@ -0,0 +1,82 @@
+package com.github.kmizu.toys;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * A program resolved and compiled once for an engine, which can then be run any number of times from any number
+ * of threads at once, without parsing or compiling it again.  Nothing in it changes after {@link #load}; every run
+ * happens in an {@link Execution} that holds the globals and the execution state of that run alone.
+ */
+public final class CompiledProgram {
+    private final Interpreter program;
+
+    private CompiledProgram(Interpreter program) {
+        this.program = program;
+    }
+
+    public static CompiledProgram load(Ast.Program program, Interpreter.Engine engine) {
+        return load(program, engine, Inliner.DEFAULT_LIMIT);
+    }
+
+    /**
+     * Loads {@code program}, inlining functions of at most {@code inlineLimit} nodes.
+     */
+    public static CompiledProgram load(Ast.Program program, Interpreter.Engine engine, int inlineLimit) {
+        var interpreter = new Interpreter(engine);
+        interpreter.setInlineLimit(inlineLimit);
+        interpreter.load(program);
+        return new CompiledProgram(interpreter);
+    }
+
+    /**
+     * A new execution, with the global variables of the program initialized by their definitions.
+     */
+    public Execution newExecution() {
+        return newExecution(Budget.UNLIMITED);
+    }
+
+    /**
+     * A new execution whose initialization of globals and calls together stay within {@code budget}.
+     */
+    public Execution newExecution(Budget budget) {
+        return newExecution(budget, OutputSink.standardOutput());
+    }
+
+    /**
+     * A new execution within {@code budget} whose {@code println}s write to {@code output}.
+     */
+    public Execution newExecution(Budget budget, OutputSink output) {
+        return new Execution(program.newExecution(budget, output));
+    }
+
+    public Value callMain() {
+        return newExecution().callMain();
+    }
+
+    public Value call(String function, Value... args) {
+        return newExecution().call(function, args);
+    }
+
+    /**
+     * One run of the program.  An execution is used by one thread at a time.
+     */
+    public static final class Execution {
+        private final Interpreter context;
+
+        private Execution(Interpreter context) {
+            this.context = context;
+        }
+
+        public Value callMain() {
+            return context.callMain();
+        }
+
+        public Value call(String function, Value... args) {
+            return context.call(function, args);
+        }
+
+        public Value getValue(String name) {
+            return context.getValue(name);
+        }
+    }
+}
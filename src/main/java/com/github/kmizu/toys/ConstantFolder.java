@@ -0,0 +1,171 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * Simplifies resolved code once, before an engine compiles it.  Arithmetic and comparisons of integer literals are
+ * computed, as are the literals ending a chain of additions or of multiplications, and additions of zero and
+ * multiplications by one are dropped from operands that are integers.  Branches and loops whose condition is a
+ * literal are pruned, and blocks nested in blocks are flattened.
+ *
+ * Nothing that could behave differently at runtime is folded: a division by zero is left to fail when it is
+ * evaluated, a result that overflows a long is left for the engine to promote, and an operand that might not be an
+ * integer keeps the operation that would reject it.
+ */
+public final class ConstantFolder {
+    private static final Ast.BlockExpression NIL = new Ast.BlockExpression(List.of());
+
+    private ConstantFolder() {}
+
+    public static Ast.Program fold(Ast.Program program) {
+        var definitions = new ArrayList<Ast.TopLevel>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition definition) {
+                definitions.add(fold(definition));
+            } else if(topLevel instanceof Ast.GlobalVariableDefinition definition) {
+                definitions.add(new Ast.GlobalVariableDefinition(definition.name(), fold(definition.expression())));
+            }
+        }
+        return new Ast.Program(definitions);
+    }
+
+    public static Ast.FunctionDefinition fold(Ast.FunctionDefinition definition) {
+        return new Ast.FunctionDefinition(definition.name(), definition.args(), fold(definition.body()), definition.frameSize());
+    }
+
+    public static Ast.Expression fold(Ast.Expression expression) {
+        if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            return foldBinary(binaryExpression.operator(), fold(binaryExpression.lhs()), fold(binaryExpression.rhs()));
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            var condition = fold(ifExpression.condition());
+            if(condition instanceof Ast.BoolLiteral literal) {
+                if(literal.value()) {
+                    return fold(ifExpression.thenClause());
+                }
+                return ifExpression.elseClause().map(ConstantFolder::fold).orElse(NIL);
+            }
+            return new Ast.IfExpression(condition, fold(ifExpression.thenClause()), ifExpression.elseClause().map(ConstantFolder::fold));
+        } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            var condition = fold(whileExpression.condition());
+            if(condition instanceof Ast.BoolLiteral literal && !literal.value()) {
+                return new Ast.BoolLiteral(true);
+            }
+            return new Ast.WhileExpression(condition, fold(whileExpression.body()));
+        } else if(expression instanceof Ast.BlockExpression block) {
+            return foldBlock(block);
+        } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+            return new Ast.ResolvedAssignment(assignment.name(), assignment.depth(), assignment.slot(), fold(assignment.expression()));
+        } else if(expression instanceof Ast.ResolvedCall call) {
+            return new Ast.ResolvedCall(call.site(), foldAll(call.args()));
+        } else if(expression instanceof Ast.BuiltinCall call) {
+            return new Ast.BuiltinCall(call.builtin(), foldAll(call.args()));
+        } else if(expression instanceof Ast.Println println) {
+            return new Ast.Println(fold(println.arg()));
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            return new Ast.ArrayLiteral(foldAll(arrayLiteral.items()));
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            return new Ast.DictionaryLiteral(dictionaryLiteral.entries().stream()
+                    .map(entry -> new Ast.DictionaryEntry(fold(entry.key()), fold(entry.value())))
+                    .toList());
+        } else if(expression instanceof Ast.Index index) {
+            return new Ast.Index(fold(index.array()), fold(index.index()));
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            return new Ast.IndexAssignment(fold(assignment.array()), fold(assignment.index()), fold(assignment.expression()));
+        }
+        return expression;
+    }
+
+    private static List<Ast.Expression> foldAll(List<Ast.Expression> expressions) {
+        return expressions.stream().map(ConstantFolder::fold).toList();
+    }
+
+    private static Ast.Expression foldBinary(Operator operator, Ast.Expression lhs, Ast.Expression rhs) {
+        if(lhs instanceof Ast.IntegerLiteral l && rhs instanceof Ast.IntegerLiteral r) {
+            var folded = evaluate(operator, l.value(), r.value());
+            if(folded.isPresent()) return folded.get();
+        }
+        // (x + a) + b is x + (a + b), and likewise for *, since integers never wrap around.
+        if((operator == Operator.ADD || operator == Operator.MULTIPLY) && rhs instanceof Ast.IntegerLiteral r
+                && lhs instanceof Ast.BinaryExpression inner && inner.operator() == operator
+                && inner.rhs() instanceof Ast.IntegerLiteral l) {
+            var folded = evaluate(operator, l.value(), r.value());
+            if(folded.isPresent()) return foldBinary(operator, inner.lhs(), folded.get());
+        }
+        if(rhs instanceof Ast.IntegerLiteral r && isInteger(lhs) && (
+                r.value() == 0 && (operator == Operator.ADD || operator == Operator.SUBTRACT) ||
+                r.value() == 1 && (operator == Operator.MULTIPLY || operator == Operator.DIVIDE))) {
+            return lhs;
+        }
+        if(lhs instanceof Ast.IntegerLiteral l && isInteger(rhs) && (
+                l.value() == 0 && operator == Operator.ADD ||
+                l.value() == 1 && operator == Operator.MULTIPLY)) {
+            return rhs;
+        }
+        return new Ast.BinaryExpression(operator, lhs, rhs);
+    }
+
+    private static Optional<Ast.Expression> evaluate(Operator operator, long lhs, long rhs) {
+        return switch(operator) {
+            case ADD, SUBTRACT, MULTIPLY, DIVIDE -> {
+                if(operator == Operator.DIVIDE && rhs == 0) {
+                    yield Optional.empty();
+                }
+                try {
+                    yield Optional.of(new Ast.IntegerLiteral(arithmetic(operator, lhs, rhs)));
+                } catch (Promoted e) {
+                    yield Optional.empty();
+                }
+            }
+            default -> Optional.of(new Ast.BoolLiteral(compare(operator, lhs, rhs)));
+        };
+    }
+
+    /**
+     * Whether {@code expression} evaluates to an integer whenever it evaluates at all.
+     */
+    private static boolean isInteger(Ast.Expression expression) {
+        if(expression instanceof Ast.IntegerLiteral) return true;
+        return expression instanceof Ast.BinaryExpression binaryExpression && switch(binaryExpression.operator()) {
+            case ADD, SUBTRACT, MULTIPLY, DIVIDE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Splices nested blocks into their parent and drops literals whose value is not used.  A block of one element
+     * is that element.
+     */
+    private static Ast.Expression foldBlock(Ast.BlockExpression block) {
+        var flattened = new ArrayList<Ast.Expression>();
+        var originals = block.elements();
+        for(int i = 0; i < originals.size(); i++) {
+            var element = fold(originals.get(i));
+            // An empty block last gives the block its nil value, so it stays.
+            if(element instanceof Ast.BlockExpression inner && (!inner.elements().isEmpty() || i < originals.size() - 1)) {
+                flattened.addAll(inner.elements());
+            } else {
+                flattened.add(element);
+            }
+        }
+        var elements = new ArrayList<Ast.Expression>();
+        for(int i = 0; i < flattened.size(); i++) {
+            var element = flattened.get(i);
+            if(i == flattened.size() - 1 || !(isLiteral(element) || element.equals(NIL))) {
+                elements.add(element);
+            }
+        }
+        if(elements.size() == 1) {
+            return elements.get(0);
+        }
+        return new Ast.BlockExpression(elements);
+    }
+
+    private static boolean isLiteral(Ast.Expression expression) {
+        return expression instanceof Ast.IntegerLiteral || expression instanceof Ast.BoolLiteral
+                || expression instanceof Ast.FunctionReference;
+    }
+}
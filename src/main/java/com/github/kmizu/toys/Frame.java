@@ -0,0 +1,159 @@
+package com.github.kmizu.toys;
+
+import java.util.Arrays;
+
+public final class Frame {
+    /**
+     * Marks a slot whose value is held unboxed in {@link #longs}.
+     */
+    private static final Values.Value UNBOXED = new Values.Int(0);
+
+    private Values.Value[] slots;
+    private long[] longs;
+    private final Frame parent;
+    private Object tailCallee;
+    private Values.Value[] tailArgs;
+    private Meter meter;
+    private OutputSink output;
+
+    public Frame(int size, Frame parent) {
+        this.slots = new Values.Value[size];
+        this.parent = parent;
+        this.meter = parent == null ? new Meter(Budget.UNLIMITED) : null;
+        this.output = parent == null ? OutputSink.standardOutput() : null;
+    }
+
+    private Frame(Values.Value[] slots, Meter meter, OutputSink output) {
+        this.slots = slots;
+        this.parent = null;
+        this.meter = meter;
+        this.output = output;
+    }
+
+    /**
+     * A global frame sharing the slots and the output of this one, with a fork of its meter, for work on another thread.
+     * Top-level code never runs in a fork, so the slots never grow apart.
+     */
+    public Frame fork() {
+        return new Frame(slots, meter.fork(), output);
+    }
+
+    /**
+     * The meter of the thread running in this global frame.
+     */
+    public Meter meter() {
+        return meter;
+    }
+
+    public void setMeter(Meter meter) {
+        this.meter = meter;
+    }
+
+    /**
+     * Where {@code println} writes in this global frame.
+     */
+    public OutputSink output() {
+        return output;
+    }
+
+    public void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    public Frame parent() {
+        return parent;
+    }
+
+    /**
+     * The global frame: this frame if it has no parent, and its outermost ancestor otherwise.
+     */
+    public Frame root() {
+        var frame = this;
+        while(frame.parent != null) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    public Frame ancestor(int depth) {
+        var frame = this;
+        for(int i = 0; i < depth; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    public Values.Value get(int slot) {
+        var value = slots[slot];
+        return value == UNBOXED ? Values.Int.of(longs[slot]) : value;
+    }
+
+    public void set(int slot, Values.Value value) {
+        slots[slot] = value;
+    }
+
+    /**
+     * Stores an integer in {@code slot} without boxing it.  Only the slots of function frames are stored this way,
+     * so the global slots shared by {@link #fork}s are always boxed.
+     */
+    public void setLong(int slot, long value) {
+        if(longs == null) {
+            longs = new long[slots.length];
+        }
+        longs[slot] = value;
+        slots[slot] = UNBOXED;
+    }
+
+    /**
+     * Whether {@code slot} was last stored by {@link #setLong}.
+     */
+    public boolean isLong(int slot) {
+        return slots[slot] == UNBOXED;
+    }
+
+    /**
+     * The integer last stored in {@code slot} by {@link #setLong}.
+     */
+    public long getLong(int slot) {
+        return longs[slot];
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, null);
+    }
+
+    /**
+     * Records the call in tail position of the function running in this frame, for the engine to make once the
+     * body has returned.  Keeping it in the frame rather than in the engine lets threads share the engine.
+     */
+    public void setTailCall(Object callee, Values.Value[] args) {
+        this.tailCallee = callee;
+        this.tailArgs = args;
+    }
+
+    public Object tailCallee() {
+        return tailCallee;
+    }
+
+    public Values.Value[] tailArgs() {
+        return tailArgs;
+    }
+
+    public void clearTailCall() {
+        tailCallee = null;
+        tailArgs = null;
+    }
+
+    public void ensureCapacity(int size) {
+        if(slots.length < size) {
+            slots = Arrays.copyOf(slots, Math.max(size, slots.length * 2));
+            if(longs != null) {
+                longs = Arrays.copyOf(longs, slots.length);
+            }
+        }
+    }
+}
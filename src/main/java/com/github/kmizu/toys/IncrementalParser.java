@@ -0,0 +1,143 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses successive versions of one program, as an editor sends them on every keystroke, reparsing only the
+ * definitions whose text changed.  The source is kept split into chunks, each running from a {@code define} or
+ * {@code global} keyword to the next one, and a chunk whose text is unchanged keeps the very {@link Ast.TopLevel}
+ * parsed for it before, which {@link Interpreter#rerunMain} relies on to load only what changed.
+ *
+ * An update compares the new source with the previous one to find the edited span, and reparses the chunks that
+ * span touches and the chunk just before it, since text typed at the end of a definition belongs to that one.
+ * The work of an edit inside one definition thus depends on the size of that definition, not of the program.
+ */
+public final class IncrementalParser {
+    /**
+     * The text from {@code start} inclusive to {@code end} exclusive, and its definitions: none for the text before
+     * the first definition, and one otherwise.
+     */
+    private record Chunk(int start, int end, List<Ast.TopLevel> definitions) {
+        private Chunk shift(int delta) {
+            return new Chunk(start + delta, end + delta, definitions);
+        }
+    }
+
+    private String source = "";
+    private List<Chunk> chunks = List.of(new Chunk(0, 0, List.of()));
+    private int reparsed;
+
+    /**
+     * Parses {@code source} as the new version of the program.  A source that fails to parse leaves the parser
+     * at the previous version, so the next update is compared with the last one that parsed.
+     *
+     * @throws LanguageException if {@code source} does not parse
+     */
+    public Ast.Program update(String source) {
+        var old = this.source;
+        int limit = Math.min(old.length(), source.length());
+        int prefix = 0;
+        while(prefix < limit && old.charAt(prefix) == source.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while(suffix < limit - prefix && old.charAt(old.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int delta = source.length() - old.length();
+        int first = chunkAt(Math.max(prefix - 1, 0));
+        int last = chunkAt(old.length() - suffix);
+        int from = chunks.get(first).start();
+        int to = chunks.get(last).end() + delta;
+
+        var replaced = new ArrayList<Chunk>();
+        int count = 0;
+        for(var chunk : split(source, from, to)) {
+            var reused = reuse(old, source, chunk, first, last);
+            if(reused == null) {
+                reused = new Chunk(chunk.start(), chunk.end(), ToysParser.parse(source, chunk.start(), chunk.end()).definitions());
+                count += reused.definitions().size();
+            }
+            replaced.add(reused);
+        }
+        var updated = new ArrayList<Chunk>(chunks.size() - (last - first + 1) + replaced.size());
+        updated.addAll(chunks.subList(0, first));
+        updated.addAll(replaced);
+        for(var chunk : chunks.subList(last + 1, chunks.size())) {
+            updated.add(chunk.shift(delta));
+        }
+        this.source = source;
+        this.chunks = updated;
+        this.reparsed = count;
+        return program();
+    }
+
+    /**
+     * The program as of the last successful update.
+     */
+    public Ast.Program program() {
+        var definitions = new ArrayList<Ast.TopLevel>(chunks.size());
+        for(var chunk : chunks) {
+            definitions.addAll(chunk.definitions());
+        }
+        return new Ast.Program(definitions);
+    }
+
+    /**
+     * How many definitions the last update parsed again.
+     */
+    public int reparsed() {
+        return reparsed;
+    }
+
+    /**
+     * The index of the last chunk starting at or before {@code offset}.
+     */
+    private int chunkAt(int offset) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(chunks.get(middle).start() <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Splits the text from {@code from} to {@code to} before every {@code define} and {@code global}, leaving the
+     * definitions to be parsed.
+     */
+    private static List<Chunk> split(String source, int from, int to) {
+        var lexer = Lexer.tokenize(source, from, to);
+        var split = new ArrayList<Chunk>();
+        int start = from;
+        for(int i = 0; i < lexer.count(); i++) {
+            int kind = lexer.kind(i);
+            if((kind == Lexer.DEFINE || kind == Lexer.GLOBAL) && lexer.start(i) > start) {
+                split.add(new Chunk(start, lexer.start(i), null));
+                start = lexer.start(i);
+            }
+        }
+        split.add(new Chunk(start, to, null));
+        return split;
+    }
+
+    /**
+     * The chunk from {@code first} to {@code last} whose text is that of {@code chunk}, moved to where
+     * {@code chunk} is, or null if there is none.
+     */
+    private Chunk reuse(String old, String source, Chunk chunk, int first, int last) {
+        int length = chunk.end() - chunk.start();
+        for(var candidate : chunks.subList(first, last + 1)) {
+            if(candidate.end() - candidate.start() == length && old.regionMatches(candidate.start(), source, chunk.start(), length)) {
+                return new Chunk(chunk.start(), chunk.end(), candidate.definitions());
+            }
+        }
+        return null;
+    }
+}
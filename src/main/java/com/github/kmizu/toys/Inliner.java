@@ -0,0 +1,207 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Replaces calls of small functions by their bodies, in resolved code.  A call is inlined when it is positional and
+ * passes as many arguments as its callee takes, and the callee
+ * <ul>
+ *   <li>cannot reach itself through the calls it makes,</li>
+ *   <li>has no variables besides its parameters, so no variable of it can be read before it is assigned, and</li>
+ *   <li>has, with its own calls inlined, a body of at most {@code limit} nodes.</li>
+ * </ul>
+ * The parameters of an inlined body move to slots of their own past the end of the caller's frame, which grows to
+ * hold them, and the arguments are assigned to them in order before the body runs.  Inlined calls are no longer
+ * calls at all, so they don't count against the call depth of a {@link Budget} and the {@link Profiler} doesn't
+ * see them.
+ */
+public final class Inliner {
+    public static final int DEFAULT_LIMIT = 32;
+
+    private final Map<String, Ast.FunctionDefinition> functions;
+    private final int limit;
+    private final Set<String> recursive = new HashSet<>();
+    private final Map<String, Ast.FunctionDefinition> inlined = new HashMap<>();
+
+    /**
+     * @param functions the functions that calls may name, as they were resolved
+     * @param limit the largest body inlined, in nodes, with 0 inlining nothing
+     */
+    public Inliner(Map<String, Ast.FunctionDefinition> functions, int limit) {
+        this.functions = functions;
+        this.limit = limit;
+        var callees = new HashMap<String, Set<String>>();
+        functions.forEach((name, definition) -> callees.put(name, callees(definition.body())));
+        for(var name : functions.keySet()) {
+            if(reaches(name, name, callees, new HashSet<>())) {
+                recursive.add(name);
+            }
+        }
+    }
+
+    /**
+     * {@code definition} with the calls it makes inlined.
+     */
+    public Ast.FunctionDefinition inline(Ast.FunctionDefinition definition) {
+        if(functions.get(definition.name()) == definition) {
+            return inline(definition.name());
+        }
+        return new Rewriter(definition).definition();
+    }
+
+    private Ast.FunctionDefinition inline(String name) {
+        var definition = inlined.get(name);
+        if(definition == null) {
+            definition = new Rewriter(functions.get(name)).definition();
+            inlined.put(name, definition);
+        }
+        return definition;
+    }
+
+    /**
+     * The callee to inline at {@code call}, or null to leave it a call.
+     */
+    private Ast.FunctionDefinition callee(Ast.ResolvedCall call) {
+        var name = call.site().name();
+        var callee = functions.get(name);
+        if(limit == 0 || callee == null || call.site().labels() != null || recursive.contains(name)
+                || call.args().size() != callee.args().size() || callee.frameSize() != callee.args().size()) {
+            return null;
+        }
+        callee = inline(name);
+        return size(callee.body()) <= limit ? callee : null;
+    }
+
+    private static boolean reaches(String from, String target, Map<String, Set<String>> callees, Set<String> visited) {
+        for(var callee : callees.getOrDefault(from, Set.of())) {
+            if(callee.equals(target)) return true;
+            if(visited.add(callee) && reaches(callee, target, callees, visited)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The names of the functions {@code expression} calls.
+     */
+    static Set<String> callees(Ast.Expression expression) {
+        var names = new HashSet<String>();
+        collectCallees(expression, names);
+        return names;
+    }
+
+    private static void collectCallees(Ast.Expression expression, Set<String> names) {
+        if(expression instanceof Ast.ResolvedCall call) {
+            names.add(call.site().name());
+        }
+        map(expression, child -> {
+            collectCallees(child, names);
+            return child;
+        });
+    }
+
+    private static int size(Ast.Expression expression) {
+        int[] size = {1};
+        map(expression, child -> {
+            size[0] += size(child);
+            return child;
+        });
+        return size[0];
+    }
+
+    /**
+     * Moves the local variables of {@code expression} up by {@code base} slots.
+     */
+    private static Ast.Expression relocate(Ast.Expression expression, int base) {
+        if(expression instanceof Ast.ResolvedIdentifier identifier && identifier.depth() == 0) {
+            return new Ast.ResolvedIdentifier(identifier.name(), 0, identifier.slot() + base);
+        } else if(expression instanceof Ast.ResolvedAssignment assignment && assignment.depth() == 0) {
+            return new Ast.ResolvedAssignment(assignment.name(), 0, assignment.slot() + base, relocate(assignment.expression(), base));
+        }
+        return map(expression, child -> relocate(child, base));
+    }
+
+    /**
+     * Rebuilds {@code expression} with {@code f} applied to each of its direct subexpressions.
+     */
+    private static Ast.Expression map(Ast.Expression expression, UnaryOperator<Ast.Expression> f) {
+        if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            return new Ast.BinaryExpression(binaryExpression.operator(), f.apply(binaryExpression.lhs()), f.apply(binaryExpression.rhs()));
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            return new Ast.IfExpression(f.apply(ifExpression.condition()), f.apply(ifExpression.thenClause()), ifExpression.elseClause().map(f));
+        } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            return new Ast.WhileExpression(f.apply(whileExpression.condition()), f.apply(whileExpression.body()));
+        } else if(expression instanceof Ast.BlockExpression block) {
+            return new Ast.BlockExpression(mapAll(block.elements(), f));
+        } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+            return new Ast.ResolvedAssignment(assignment.name(), assignment.depth(), assignment.slot(), f.apply(assignment.expression()));
+        } else if(expression instanceof Ast.ResolvedCall call) {
+            return new Ast.ResolvedCall(call.site(), mapAll(call.args(), f));
+        } else if(expression instanceof Ast.BuiltinCall call) {
+            return new Ast.BuiltinCall(call.builtin(), mapAll(call.args(), f));
+        } else if(expression instanceof Ast.Println println) {
+            return new Ast.Println(f.apply(println.arg()));
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            return new Ast.ArrayLiteral(mapAll(arrayLiteral.items(), f));
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            return new Ast.DictionaryLiteral(dictionaryLiteral.entries().stream()
+                    .map(entry -> new Ast.DictionaryEntry(f.apply(entry.key()), f.apply(entry.value())))
+                    .toList());
+        } else if(expression instanceof Ast.Index index) {
+            return new Ast.Index(f.apply(index.array()), f.apply(index.index()));
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            return new Ast.IndexAssignment(f.apply(assignment.array()), f.apply(assignment.index()), f.apply(assignment.expression()));
+        }
+        return expression;
+    }
+
+    private static List<Ast.Expression> mapAll(List<Ast.Expression> expressions, UnaryOperator<Ast.Expression> f) {
+        var mapped = new ArrayList<Ast.Expression>(expressions.size());
+        for(var expression : expressions) {
+            mapped.add(f.apply(expression));
+        }
+        return mapped;
+    }
+
+    /**
+     * Inlines the calls of one function, growing its frame by the parameters of each body inlined.
+     */
+    private final class Rewriter {
+        private final Ast.FunctionDefinition definition;
+        private int frameSize;
+
+        private Rewriter(Ast.FunctionDefinition definition) {
+            this.definition = definition;
+            this.frameSize = definition.frameSize();
+        }
+
+        private Ast.FunctionDefinition definition() {
+            var body = rewrite(definition.body());
+            return new Ast.FunctionDefinition(definition.name(), definition.args(), body, frameSize);
+        }
+
+        private Ast.Expression rewrite(Ast.Expression expression) {
+            if(expression instanceof Ast.ResolvedCall call) {
+                var args = mapAll(call.args(), this::rewrite);
+                var callee = callee(call);
+                if(callee == null) {
+                    return new Ast.ResolvedCall(call.site(), args);
+                }
+                int base = frameSize;
+                frameSize += callee.frameSize();
+                var elements = new ArrayList<Ast.Expression>();
+                for(int i = 0; i < args.size(); i++) {
+                    elements.add(new Ast.ResolvedAssignment(callee.args().get(i), 0, base + i, args.get(i)));
+                }
+                elements.add(relocate(callee.body(), base));
+                return new Ast.BlockExpression(elements);
+            }
+            return map(expression, this::rewrite);
+        }
+    }
+}
@@ -1,164 +1,779 @@
 package com.github.kmizu.toys;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 import static com.github.kmizu.toys.Values.*;
 
+/**
+ * Runs Toys programs with one of the {@link Engine}s.  The resolver, the function table and the code compiled
+ * for the engine make up the loaded program; the global frame, the variable environment and the virtual machine
+ * are the state of one execution.  {@link CompiledProgram} shares the former between many executions of the latter.
+ */
 public class Interpreter {
-    private Ast.Environment variableEnvironment;
+    public enum Engine {
+        TREE, CLOSURE, BYTECODE, VM
+    }
+
+    /**
+     * Top-level code compiled once for the engine, and run in the context of an execution.
+     */
+    @FunctionalInterface
+    private interface TopLevelCode {
+        Value run(Interpreter context);
+    }
+
+    private record GlobalInitializer(int slot, TopLevelCode code) {}
+
+    private final Engine engine;
+    private final Resolver resolver;
+    private final ClosureCompiler closureCompiler;
+    private VirtualMachine virtualMachine;
+    private final Frame globalFrame;
+    private Frame variableEnvironment;
     private final Map<String, Ast.FunctionDefinition> functionEnvironment;
+    private Map<String, BytecodeCompiler.CompiledFunction> compiledFunctions = Map.of();
+    private final Map<Ast.WhileExpression, String> loopLabels;
+    private final Map<String, Ast.FunctionDefinition> writtenFunctions;
+    private final Map<String, TypeChecker.Signature> signatures;
+    private int inlineLimit = Inliner.DEFAULT_LIMIT;
+    private List<GlobalInitializer> globalInitializers = List.of();
+    private int functionTableVersion;
+    private Map<String, Ast.FunctionDefinition> rerunFunctions = new HashMap<>();
+    private Map<Ast.TopLevel, GlobalInitializer> rerunGlobals = new IdentityHashMap<>();
 
     public Interpreter() {
-        this.variableEnvironment = newEnvironment(Optional.empty());
+        this(Engine.TREE);
+    }
+
+    public Interpreter(Engine engine) {
+        this.engine = engine;
+        this.resolver = new Resolver();
+        this.globalFrame = new Frame(16, null);
+        this.closureCompiler = new ClosureCompiler();
+        this.virtualMachine = new VirtualMachine(new VmCode.Module(), globalFrame);
+        this.variableEnvironment = globalFrame;
         this.functionEnvironment = new HashMap<>();
+        this.loopLabels = new IdentityHashMap<>();
+        this.writtenFunctions = new HashMap<>();
+        this.signatures = new HashMap<>();
     }
 
-    public void reset() {
-        this.variableEnvironment = newEnvironment(Optional.empty());
-        this.functionEnvironment.clear();
+    /**
+     * An execution of the program loaded into {@code program}, with {@code globalFrame} as its globals.
+     */
+    private Interpreter(Interpreter program, Frame globalFrame) {
+        this.engine = program.engine;
+        this.resolver = program.resolver;
+        this.globalFrame = globalFrame;
+        this.closureCompiler = program.closureCompiler;
+        this.virtualMachine = engine == Engine.VM ? new VirtualMachine(program.virtualMachine.module(), globalFrame) : null;
+        this.variableEnvironment = globalFrame;
+        this.functionEnvironment = program.functionEnvironment;
+        this.compiledFunctions = program.compiledFunctions;
+        this.loopLabels = program.loopLabels;
+        this.writtenFunctions = program.writtenFunctions;
+        this.signatures = program.signatures;
+        this.inlineLimit = program.inlineLimit;
+        this.globalInitializers = program.globalInitializers;
+        this.functionTableVersion = program.functionTableVersion;
+    }
+
+    /**
+     * A new execution of the loaded program, with fresh globals initialized by their definitions within
+     * {@code budget}, printing to {@code output}.
+     */
+    Interpreter newExecution(Budget budget, OutputSink output) {
+        var context = new Interpreter(this, new Frame(resolver.globalCount(), null));
+        context.setBudget(budget);
+        context.setOutput(output);
+        context.initializeGlobals();
+        return context;
     }
 
-    private static Ast.Environment newEnvironment(Optional<Ast.Environment> next) {
-        return new Ast.Environment(new HashMap<>(), next);
+    /**
+     * Limits what runs from now on to {@code budget}, starting its clock.
+     */
+    public void setBudget(Budget budget) {
+        var meter = new Meter(budget);
+        meter.profile(globalFrame.meter().profiler());
+        globalFrame.setMeter(meter);
+    }
+
+    /**
+     * Inlines, in what is loaded from now on, calls of functions whose bodies have at most {@code limit} nodes; 0
+     * turns inlining off, so that every call is seen by budgets and the profiler.
+     */
+    public void setInlineLimit(int limit) {
+        this.inlineLimit = limit;
+    }
+
+    public void setOutput(OutputSink output) {
+        globalFrame.setOutput(output);
+    }
+
+    /**
+     * Reports what runs from now on to {@code profiler}, or stops profiling when it is null.
+     */
+    public void setProfiler(Profiler profiler) {
+        globalFrame.meter().profile(profiler);
+    }
+
+    public void reset() {
+        this.resolver.reset();
+        this.closureCompiler.reset();
+        this.virtualMachine = new VirtualMachine(new VmCode.Module(), globalFrame);
+        this.globalFrame.clear();
+        this.variableEnvironment = globalFrame;
+        this.functionEnvironment.clear();
+        this.compiledFunctions = Map.of();
+        this.loopLabels.clear();
+        this.writtenFunctions.clear();
+        this.signatures.clear();
+        this.globalInitializers = List.of();
+        this.functionTableVersion++;
+        this.rerunFunctions = new HashMap<>();
+        this.rerunGlobals = new IdentityHashMap<>();
     }
 
     public Value getValue(String name) {
-        return variableEnvironment.bindings().get(name);
+        return resolver.globalSlot(name).map(globalFrame::get).orElse(null);
     }
 
     public Value interpret(Ast.Expression expression) {
+        var resolved = ConstantFolder.fold(resolver.resolveTopLevel(expression));
+        new TypeChecker(signatures).check(resolved);
+        globalFrame.ensureCapacity(resolver.globalCount());
+        return guardStack(() -> execute(resolved));
+    }
+
+    private Value execute(Ast.Expression resolved) {
+        return prepare(resolved).run(this);
+    }
+
+    private TopLevelCode prepare(Ast.Expression resolved) {
+        return switch(engine) {
+            case CLOSURE -> {
+                var node = closureCompiler.compileTopLevel(resolved);
+                yield context -> context.runTopLevel(() -> node.evaluate(context.globalFrame));
+            }
+            case VM -> {
+                var function = VmCompiler.compileTopLevel(virtualMachine.module(), resolved);
+                yield context -> context.virtualMachine.call(function);
+            }
+            default -> {
+                loopLabels.putAll(Profiler.loopLabels(Profiler.TOP_LEVEL, resolved));
+                yield context -> context.runTopLevel(() -> context.evaluate(resolved));
+            }
+        };
+    }
+
+    /**
+     * Runs top-level code as if it were a function, as the VM does, so that the profiler sees the calls it makes.
+     */
+    private Value runTopLevel(Supplier<Value> code) {
+        var meter = globalFrame.meter();
+        meter.enter(Profiler.TOP_LEVEL);
+        try {
+            return code.get();
+        } finally {
+            meter.exit();
+        }
+    }
+
+    private void define(Ast.FunctionDefinition definition) {
+        functionEnvironment.put(definition.name(), definition);
+        functionTableVersion++;
+        switch(engine) {
+            case CLOSURE -> closureCompiler.define(definition, signatures.get(definition.name()));
+            case VM -> virtualMachine.module().define(VmCompiler.compile(virtualMachine.module(), definition));
+            default -> loopLabels.putAll(Profiler.loopLabels(definition.name(), definition.body()));
+        }
+    }
+
+    /**
+     * Removes a function, so that calling it fails as if it had never been defined.  Compiled code that could call
+     * it is dropped along with it.
+     */
+    private void undefine(String name) {
+        functionEnvironment.remove(name);
+        writtenFunctions.remove(name);
+        signatures.remove(name);
+        functionTableVersion++;
+        switch(engine) {
+            case CLOSURE -> closureCompiler.undefine(name);
+            case VM -> virtualMachine.module().undefine(name);
+            case BYTECODE -> {
+                var compiled = new HashMap<>(compiledFunctions);
+                compiled.values().removeIf(function -> function.definition().name().equals(name) || function.reaches().contains(name));
+                compiledFunctions = compiled;
+            }
+            default -> {}
+        }
+    }
+
+    public String disassemble(String name) {
+        var function = virtualMachine.module().function(name);
+        if(function == null) {
+            throw new LanguageException("Function " + name + " is not compiled for the VM");
+        }
+        return VmCode.disassemble(virtualMachine.module(), function);
+    }
+
+    private Value evaluate(Ast.Expression expression) {
         if(expression instanceof Ast.BinaryExpression binaryExpression) {
-            var lhs = interpret(binaryExpression.lhs()).asInt().value();
-            var rhs = interpret(binaryExpression.rhs()).asInt().value();
             return switch(binaryExpression.operator()) {
-                case ADD -> wrap(lhs + rhs);
-                case SUBTRACT -> wrap(lhs - rhs);
-                case MULTIPLY -> wrap(lhs * rhs);
-                case DIVIDE -> wrap(lhs / rhs);
-                case LESS_THAN -> wrap(lhs < rhs);
-                case LESS_OR_EQUAL -> wrap(lhs <= rhs);
-                case GREATER_THAN -> wrap(lhs > rhs);
-                case GREATER_OR_EQUAL -> wrap(lhs >= rhs);
-                case EQUAL_EQUAL -> wrap(lhs == rhs);
-                case NOT_EQUAL -> wrap(lhs != rhs);
+                case ADD, SUBTRACT, MULTIPLY, DIVIDE -> {
+                    try {
+                        yield Int.of(evaluateLong(binaryExpression));
+                    } catch (Promoted e) {
+                        yield e.value;
+                    }
+                }
+                default -> Bool.of(evaluateBool(binaryExpression));
             };
         } else if (expression instanceof Ast.IntegerLiteral integerLiteral){
-            return wrap(integerLiteral.value());
-        } else if (expression instanceof Ast.Identifier identifier) {
-            var bindingsOpt = variableEnvironment.findBinding(identifier.name());
-            return bindingsOpt.get().get(identifier.name());
-        } else if (expression instanceof Ast.FunctionCall functionCall) {
-            var definition = functionEnvironment.get(functionCall.name());
-            if(definition == null) {
-                throw new LanguageException("Function " + functionCall.name() + " is not found");
-            }
-
-            var actualParams = functionCall.args();
-            var formalParams= definition.args();
-            var body = definition.body();
-            var values = actualParams.stream().map(this::interpret).collect(Collectors.toList());
-            var backup = variableEnvironment;
-            variableEnvironment = newEnvironment(Optional.of(variableEnvironment));
-            int i = 0;
-            for(var formalParamName : formalParams) {
-                variableEnvironment.bindings().put(formalParamName, values.get(i));
-                i++;
-            }
-            var result = interpret(body);
-            variableEnvironment = backup;
-            return result;
-        }else if(expression instanceof Ast.Assignment assignment) {
-            var bindingsOpt= variableEnvironment.findBinding(assignment.name());
-            Value value = interpret(assignment.expression());
-            if(bindingsOpt.isPresent()) {
-                bindingsOpt.get().put(assignment.name(), value);
-            } else {
-                variableEnvironment.bindings().put(assignment.name(), value);
+            return Int.of(integerLiteral.value());
+        } else if (expression instanceof Ast.ResolvedIdentifier identifier) {
+            var value = variableEnvironment.ancestor(identifier.depth()).get(identifier.slot());
+            if(value == null) {
+                throw new LanguageException("Variable " + identifier.name() + " is not defined");
             }
             return value;
+        } else if (expression instanceof Ast.ResolvedCall resolvedCall) {
+            var site = link(resolvedCall.site(), resolvedCall.args().size());
+            return call(site, arguments(site, resolvedCall.args()));
+        } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+            Value value = evaluate(assignment.expression());
+            variableEnvironment.ancestor(assignment.depth()).set(assignment.slot(), value);
+            return value;
         } else if (expression instanceof Ast.BlockExpression block) {
             Value value = null;
             for(var e : block.elements()) {
-                value = interpret(e);
+                value = evaluate(e);
             }
             return value;
         } else if(expression instanceof Ast.Println println) {
-            return interpret(println.arg());
+            var value = evaluate(println.arg());
+            globalFrame.output().println(value);
+            return value;
         } else if(expression instanceof Ast.IfExpression ifExpression) {
-            boolean satisfied= interpret(ifExpression.condition()).asBool().value();
+            boolean satisfied = evaluateBool(ifExpression.condition());
             if(satisfied) {
-                return interpret(ifExpression.thenClause());
+                return evaluate(ifExpression.thenClause());
             } else {
                 var elseClauseOpt = ifExpression.elseClause();
-                return elseClauseOpt.map(this::interpret).orElse(null);
+                return elseClauseOpt.map(this::evaluate).orElse(null);
             }
         } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            var meter = globalFrame.meter();
+            var label = meter.profiling() ? loopLabels.get(whileExpression) : null;
             while (true) {
-                boolean satisfied = interpret(whileExpression.condition()).asBool().value();
+                boolean satisfied = evaluateBool(whileExpression.condition());
                 if (satisfied) {
-                    interpret(whileExpression.body());
+                    evaluate(whileExpression.body());
+                    meter.loop(label);
                 } else {
                     break;
                 }
             }
-            return wrap(true);
-        } else if (expression instanceof Ast.LabelledCall labelledCall) {
-            var definition = functionEnvironment.get(labelledCall.name());
-            if (definition == null) {
-                throw new RuntimeException("Function " + labelledCall.name() + " is not found");
-            }
-            var labels = labelledCall.args();
-            var mapping = new HashMap<String, Ast.Expression>();
-            for(var label:labels) {
-                mapping.put(label.name(), label.parameter());
-            }
-            var formalParams = definition.args();
-            var actualParams = new ArrayList<Ast.Expression>();
-            for(var param:formalParams) {
-                actualParams.add(mapping.get(param));
-            }
-            var body = definition.body();
-            var values = actualParams.stream().map(this::interpret).collect(Collectors.toList());
-            var backup = variableEnvironment;
-            variableEnvironment = newEnvironment(Optional.of(variableEnvironment));
-            int i = 0;
-            for (var formalParamName : formalParams) {
-                variableEnvironment.bindings().put(formalParamName, values.get(i));
-                i++;
-            }
-            var result = interpret(body);
-            variableEnvironment = backup;
-            return result;
+            return Bool.TRUE;
         } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
-            var items = arrayLiteral.items().stream().map(this::interpret).collect((Collectors.toList()));
-            return wrap(items);
+            globalFrame.meter().allocate(arrayLiteral.items().size());
+            return wrap(evaluateAll(arrayLiteral.items()));
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            globalFrame.meter().allocate(dictionaryLiteral.entries().size());
+            var dictionary = new Dictionary();
+            for(var entry : dictionaryLiteral.entries()) {
+                dictionary.put(evaluate(entry.key()), evaluate(entry.value()));
+            }
+            return dictionary;
+        } else if(expression instanceof Ast.Index index) {
+            var target = evaluate(index.array());
+            if(target instanceof Array array) {
+                return array.get(evaluateIndex(index.index()));
+            }
+            return Values.index(target, evaluate(index.index()));
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            var target = evaluate(assignment.array());
+            var key = evaluate(assignment.index());
+            var value = evaluate(assignment.expression());
+            if(store(target, key, value)) {
+                globalFrame.meter().allocate(1);
+            }
+            return value;
+        } else if(expression instanceof Ast.BuiltinCall builtinCall) {
+            return builtinCall.builtin().call(globalFrame.meter(), this::worker, evaluateAll(builtinCall.args()).toArray(new Value[0]));
         } else if(expression instanceof Ast.BoolLiteral boolLiteral) {
-            return wrap(boolLiteral.value());
+            return Bool.of(boolLiteral.value());
+        } else if(expression instanceof Ast.FunctionReference reference) {
+            return new FunctionReference(reference.name());
         } else {
             throw new RuntimeException("must not reach here");
         }
     }
 
+    /**
+     * Evaluates the tail position of a function body.  A call found there is not made; its callee and
+     * arguments are left in the function's frame for the enclosing {@link #call} to run in the same Java frame.
+     */
+    private Value evaluateTail(Ast.Expression expression) {
+        if(expression instanceof Ast.ResolvedCall resolvedCall) {
+            var site = link(resolvedCall.site(), resolvedCall.args().size());
+            var args = new Value[site.definition().args().size()];
+            for(int i = 0; i < args.length; i++) {
+                args[i] = evaluate(resolvedCall.args().get(site.argument(i)));
+            }
+            variableEnvironment.setTailCall(site, args);
+            return null;
+        } else if(expression instanceof Ast.BlockExpression block) {
+            var elements = block.elements();
+            if(elements.isEmpty()) {
+                return null;
+            }
+            for(int i = 0; i < elements.size() - 1; i++) {
+                evaluate(elements.get(i));
+            }
+            return evaluateTail(elements.get(elements.size() - 1));
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            if(evaluateBool(ifExpression.condition())) {
+                return evaluateTail(ifExpression.thenClause());
+            }
+            return ifExpression.elseClause().map(this::evaluateTail).orElse(null);
+        }
+        return evaluate(expression);
+    }
+
+    /**
+     * A caller for builtins that call functions, possibly on other threads.  It shares the globals of this
+     * execution but has a variable environment and a meter of its own.
+     */
+    private Builtin.Caller worker() {
+        return new Interpreter(this, globalFrame.fork())::call;
+    }
+
+    /**
+     * Calls a function of the loaded program.
+     */
+    public Value call(String name, Value... args) {
+        return guardStack(() -> switch(engine) {
+            case CLOSURE -> closureCompiler.call(globalFrame, name, args);
+            case VM -> virtualMachine.call(name, args);
+            default -> {
+                var site = link(new CallSite(name, null), args.length);
+                var frame = new Frame(site.definition().frameSize(), globalFrame);
+                for(int i = 0; i < args.length; i++) {
+                    frame.set(i, args[i]);
+                }
+                yield call(site, frame);
+            }
+        });
+    }
+
+    /**
+     * Runs {@code code}, which the host calls into the program with, failing with
+     * {@link Budget.CallDepthExceeded} when its calls nest deeper than the thread's stack allows, before the budget's
+     * own depth is reached.
+     */
+    private Value guardStack(Supplier<Value> code) {
+        var meter = globalFrame.meter();
+        int depth = meter.depth();
+        try {
+            return code.get();
+        } catch (StackOverflowError e) {
+            meter.unwind(depth);
+            throw new Budget.CallDepthExceeded();
+        }
+    }
+
+    /**
+     * Links {@code site}, a call with {@code arguments} arguments, to the function now defined by its name.
+     */
+    private CallSite link(CallSite site, int arguments) {
+        if(!site.isLinked(functionTableVersion)) {
+            var definition = functionEnvironment.get(site.name());
+            if(definition == null) {
+                throw new LanguageException("Function " + site.name() + " is not found");
+            }
+            var compiled = compiledFunctions.get(definition.name());
+            site.link(definition, compiled != null && compiled.definition() == definition ? compiled : null, arguments, functionTableVersion);
+        }
+        return site;
+    }
+
+    /**
+     * Evaluates the arguments of a call straight into the callee's frame.
+     */
+    private Frame arguments(CallSite site, List<Ast.Expression> args) {
+        var definition = site.definition();
+        var frame = new Frame(definition.frameSize(), globalFrame);
+        for(int i = 0; i < definition.args().size(); i++) {
+            frame.set(i, evaluate(args.get(site.argument(i))));
+        }
+        return frame;
+    }
+
+    private List<Value> evaluateAll(List<Ast.Expression> expressions) {
+        var values = new ArrayList<Value>(expressions.size());
+        for(var expression : expressions) {
+            values.add(evaluate(expression));
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates an expression expected to be an {@link Int} without boxing intermediate results.  If its value
+     * turns out to be anything else, for instance because an operation overflowed, the value is thrown as
+     * {@link Promoted} and the enclosing operations continue on boxed values.
+     */
+    private long evaluateLong(Ast.Expression expression) {
+        if(expression instanceof Ast.IntegerLiteral integerLiteral) {
+            return integerLiteral.value();
+        } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            var operator = binaryExpression.operator();
+            switch(operator) {
+                case ADD, SUBTRACT, MULTIPLY, DIVIDE -> {
+                    long lhs;
+                    try {
+                        lhs = evaluateLong(binaryExpression.lhs());
+                    } catch (Promoted e) {
+                        throw new Promoted(arithmetic(operator, e.value, evaluate(binaryExpression.rhs())));
+                    }
+                    long rhs;
+                    try {
+                        rhs = evaluateLong(binaryExpression.rhs());
+                    } catch (Promoted e) {
+                        throw new Promoted(arithmetic(operator, Int.of(lhs), e.value));
+                    }
+                    return arithmetic(operator, lhs, rhs);
+                }
+                default -> {
+                    return longValue(evaluate(expression));
+                }
+            }
+        } else if(expression instanceof Ast.Index index) {
+            var target = evaluate(index.array());
+            if(target instanceof Array array) {
+                return array.getLong(evaluateIndex(index.index()));
+            }
+            return longValue(Values.index(target, evaluate(index.index())));
+        }
+        return longValue(evaluate(expression));
+    }
+
+    private int evaluateIndex(Ast.Expression expression) {
+        try {
+            return intValue(evaluateLong(expression));
+        } catch (Promoted e) {
+            return intValue(e.value);
+        }
+    }
+
+    private boolean compare(Ast.BinaryExpression expression) {
+        var operator = expression.operator();
+        long lhs;
+        try {
+            lhs = evaluateLong(expression.lhs());
+        } catch (Promoted e) {
+            return Values.compare(operator, e.value, evaluate(expression.rhs()));
+        }
+        long rhs;
+        try {
+            rhs = evaluateLong(expression.rhs());
+        } catch (Promoted e) {
+            return Values.compare(operator, Int.of(lhs), e.value);
+        }
+        return Values.compare(operator, lhs, rhs);
+    }
+
+    private boolean evaluateBool(Ast.Expression expression) {
+        if(expression instanceof Ast.BoolLiteral boolLiteral) {
+            return boolLiteral.value();
+        } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            return switch(binaryExpression.operator()) {
+                case LESS_THAN, LESS_OR_EQUAL, GREATER_THAN, GREATER_OR_EQUAL, EQUAL_EQUAL, NOT_EQUAL -> compare(binaryExpression);
+                default -> evaluate(expression).asBool().value();
+            };
+        } else if(expression instanceof Ast.Index index) {
+            var target = evaluate(index.array());
+            if(target instanceof Array array) {
+                return array.getBool(evaluateIndex(index.index()));
+            }
+            return Values.index(target, evaluate(index.index())).asBool().value();
+        }
+        return evaluate(expression).asBool().value();
+    }
+
+    /**
+     * Calls a function whose arguments are already in {@code frame}, and then every call it makes in tail
+     * position, reusing that frame for the whole chain.
+     */
+    private Value call(CallSite site, Frame frame) {
+        var meter = globalFrame.meter();
+        meter.enter(site.definition().name());
+        try {
+            return call(site, frame, meter);
+        } finally {
+            meter.exit();
+        }
+    }
+
+    private Value call(CallSite site, Frame frame, Meter meter) {
+        var backup = variableEnvironment;
+        while(true) {
+            var compiled = site.compiled();
+            if(compiled != null && !meter.profiling() && intArguments(frame, site.definition().args().size())) {
+                var result = compiled.invoke(meter, frame);
+                if(result != null) {
+                    variableEnvironment = backup;
+                    return result;
+                }
+            }
+            variableEnvironment = frame;
+            var result = evaluateTail(site.definition().body());
+            if(frame.tailCallee() == null) {
+                variableEnvironment = backup;
+                return result;
+            }
+            site = (CallSite)frame.tailCallee();
+            meter.tailCall(site.definition().name());
+            var args = frame.tailArgs();
+            frame.clearTailCall();
+            if(frame.size() < site.definition().frameSize()) {
+                frame = new Frame(site.definition().frameSize(), globalFrame);
+            } else {
+                frame.clear();
+            }
+            for(int i = 0; i < args.length; i++) {
+                frame.set(i, args[i]);
+            }
+        }
+    }
+
+    private static boolean intArguments(Frame frame, int arity) {
+        for(int i = 0; i < arity; i++) {
+            if(!(frame.get(i) instanceof Int v) || (int)v.value() != v.value()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public Value callMain(Ast.Program program) {
-        var topLevels = program.definitions();
+        load(program);
+        initializeGlobals();
+        return callMain();
+    }
+
+    /**
+     * Resolves {@code program}, folds its constants, checks its types, inlines small functions and compiles it for
+     * the engine, defining its functions and preparing its global definitions, without running any of it.  Types
+     * are checked as the program is written, so that whether it loads does not depend on the inline limit; the
+     * signatures the engines use are inferred again after inlining.  A program that fails to load leaves the
+     * functions loaded before as they were.
+     */
+    void load(Ast.Program program) {
+        var written = new HashMap<>(writtenFunctions);
+        var checked = new HashMap<>(signatures);
+        try {
+            loadChecked(program);
+        } catch (LanguageException e) {
+            writtenFunctions.clear();
+            writtenFunctions.putAll(written);
+            signatures.clear();
+            signatures.putAll(checked);
+            throw e;
+        }
+    }
+
+    private void loadChecked(Ast.Program program) {
+        var foldedProgram = ConstantFolder.fold(resolver.resolve(program));
+        checkTypes(foldedProgram);
+        var resolvedProgram = inline(foldedProgram);
+        signatures.putAll(new TypeChecker(signatures).infer(resolvedProgram));
+        var topLevels = resolvedProgram.definitions();
+        globalFrame.ensureCapacity(resolver.globalCount());
+        if(engine == Engine.BYTECODE) {
+            compiledFunctions = compile(resolvedProgram);
+        } else if(engine == Engine.VM) {
+            for(var topLevel : topLevels) {
+                if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                    virtualMachine.module().declare(functionDefinition.name(), functionDefinition.args());
+                }
+            }
+        }
+        var initializers = new ArrayList<GlobalInitializer>();
         for(var topLevel : topLevels) {
             if(topLevel instanceof Ast.GlobalVariableDefinition globalVariableDefinition) {
-                variableEnvironment.bindings().put(
-                        globalVariableDefinition.name(),
-                        interpret(globalVariableDefinition.expression())
-                );
+                initializers.add(new GlobalInitializer(
+                        resolver.globalSlot(globalVariableDefinition.name()).get(),
+                        prepare(globalVariableDefinition.expression())
+                ));
             } else if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
-                functionEnvironment.put(functionDefinition.name(), functionDefinition);
+                define(functionDefinition);
             }
         }
-        var mainFunction = functionEnvironment.get("main");
-        if(mainFunction != null) {
-            return interpret(mainFunction.body());
-        } else {
+        globalInitializers = initializers;
+    }
+
+    /**
+     * Checks the types of {@code program} along with the functions loaded before that call a function whose result
+     * it changes, so that code loaded in parts is rejected just as it would be if it were loaded at once.
+     */
+    private void checkTypes(Ast.Program program) {
+        var definitions = new ArrayList<>(program.definitions());
+        var checked = new HashSet<String>();
+        for(var topLevel : definitions) {
+            if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                checked.add(functionDefinition.name());
+            }
+        }
+        while(true) {
+            var changed = new HashSet<String>();
+            new TypeChecker(signatures).check(new Ast.Program(definitions)).forEach((name, signature) -> {
+                var known = signatures.get(name);
+                if(known == null || !known.result().equals(signature.result())) {
+                    changed.add(name);
+                }
+            });
+            if(changed.isEmpty()) return;
+            var callers = new ArrayList<Ast.FunctionDefinition>();
+            for(var written : writtenFunctions.values()) {
+                if(!checked.contains(written.name()) && !Collections.disjoint(Inliner.callees(written.body()), changed)) {
+                    callers.add(written);
+                }
+            }
+            if(callers.isEmpty()) return;
+            for(var caller : callers) {
+                checked.add(caller.name());
+                definitions.add(caller);
+            }
+        }
+    }
+
+    /**
+     * Compiles the functions of {@code program} to bytecode, keeping the code compiled before for the functions it
+     * neither redefines nor makes the compiled code of call.
+     */
+    private Map<String, BytecodeCompiler.CompiledFunction> compile(Ast.Program program) {
+        var compiled = new HashMap<>(BytecodeCompiler.compile(program));
+        var redefined = new HashSet<String>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                redefined.add(functionDefinition.name());
+            }
+        }
+        compiledFunctions.forEach((name, function) -> {
+            if(!redefined.contains(name) && Collections.disjoint(function.reaches(), redefined)) {
+                compiled.putIfAbsent(name, function);
+            }
+        });
+        return compiled;
+    }
+
+    /**
+     * Inlines calls into the functions of {@code program}.  Functions loaded before that inlined a function it
+     * redefines are inlined again from how they were written, and defined again along with it.
+     */
+    private Ast.Program inline(Ast.Program program) {
+        var definitions = new ArrayList<Ast.TopLevel>();
+        var defined = new HashSet<String>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                writtenFunctions.put(functionDefinition.name(), functionDefinition);
+                defined.add(functionDefinition.name());
+            }
+        }
+        var inliner = new Inliner(writtenFunctions, inlineLimit);
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                definitions.add(ConstantFolder.fold(inliner.inline(functionDefinition)));
+            } else {
+                definitions.add(topLevel);
+            }
+        }
+        for(var written : writtenFunctions.values()) {
+            if(defined.contains(written.name())) continue;
+            var inlined = ConstantFolder.fold(inliner.inline(written));
+            if(!inlined.equals(functionEnvironment.get(written.name()))) {
+                definitions.add(inlined);
+            }
+        }
+        return new Ast.Program(definitions);
+    }
+
+    /**
+     * Runs main() of {@code program} with fresh globals, as {@link #reset} and {@link #callMain(Ast.Program)} would,
+     * but loads only the definitions that are not the very ones loaded by a previous call, and removes the
+     * functions that are gone.  A program that fails to load is not run, and the next call compares with what was
+     * loaded before it.  An {@link IncrementalParser} keeps the definitions of the text an edit leaves
+     * alone, so that only what the edit changed is resolved and compiled again.
+     */
+    public Value rerunMain(Ast.Program program) {
+        var changed = new ArrayList<Ast.TopLevel>();
+        var functions = new HashMap<String, Ast.FunctionDefinition>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                functions.put(functionDefinition.name(), functionDefinition);
+                if(rerunFunctions.get(functionDefinition.name()) != functionDefinition) {
+                    changed.add(functionDefinition);
+                }
+            } else if(!rerunGlobals.containsKey(topLevel)) {
+                changed.add(topLevel);
+            }
+        }
+        var defined = new HashSet<>(writtenFunctions.keySet());
+        defined.addAll(functionEnvironment.keySet());
+        for(var name : defined) {
+            if(!functions.containsKey(name)) {
+                undefine(name);
+                rerunFunctions.remove(name);
+            }
+        }
+        try {
+            load(new Ast.Program(changed));
+        } catch (LanguageException e) {
+            // Some of what changed may have been defined before the load failed, so all of it is loaded again.
+            for(var topLevel : changed) {
+                if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                    rerunFunctions.remove(functionDefinition.name());
+                }
+            }
+            throw e;
+        }
+        var loaded = globalInitializers.iterator();
+        var globals = new IdentityHashMap<Ast.TopLevel, GlobalInitializer>();
+        var initializers = new ArrayList<GlobalInitializer>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.GlobalVariableDefinition) {
+                var initializer = rerunGlobals.containsKey(topLevel) ? rerunGlobals.get(topLevel) : loaded.next();
+                globals.put(topLevel, initializer);
+                initializers.add(initializer);
+            }
+        }
+        rerunFunctions = functions;
+        rerunGlobals = globals;
+        globalInitializers = initializers;
+        globalFrame.clear();
+        initializeGlobals();
+        return callMain();
+    }
+
+    private void initializeGlobals() {
+        for(var initializer : globalInitializers) {
+            globalFrame.set(initializer.slot(), guardStack(() -> initializer.code().run(this)));
+        }
+    }
+
+    Value callMain() {
+        if(!functionEnvironment.containsKey("main")) {
             throw new LanguageException("This program doesn't have main() function");
         }
+        return call("main");
     }
 }
@@ -0,0 +1,217 @@
+package com.github.kmizu.toys;
+
+import java.util.Arrays;
+
+/**
+ * Splits Toys source into tokens in a single pass.  Tokens are kept in parallel int arrays,
+ * so lexing allocates nothing per token; identifier text is only materialized by the parser.
+ */
+public final class Lexer {
+    public static final int EOF = 0;
+    public static final int IDENT = 1;
+    public static final int INTEGER = 2;
+    public static final int IF = 3;
+    public static final int ELSE = 4;
+    public static final int WHILE = 5;
+    public static final int FOR = 6;
+    public static final int GLOBAL = 7;
+    public static final int DEFINE = 8;
+    public static final int PRINTLN = 9;
+    public static final int TRUE = 10;
+    public static final int FALSE = 11;
+    public static final int PLUS = 12;
+    public static final int MINUS = 13;
+    public static final int ASTER = 14;
+    public static final int SLASH = 15;
+    public static final int LT = 16;
+    public static final int LT_EQ = 17;
+    public static final int GT = 18;
+    public static final int GT_EQ = 19;
+    public static final int EQEQ = 20;
+    public static final int NOT_EQ = 21;
+    public static final int EQ = 22;
+    public static final int COMMA = 23;
+    public static final int SEMI_COLON = 24;
+    public static final int LPAREN = 25;
+    public static final int RPAREN = 26;
+    public static final int LBRACE = 27;
+    public static final int RBRACE = 28;
+    public static final int LBRACKET = 29;
+    public static final int RBRACKET = 30;
+    public static final int PERCENT_LBRACKET = 31;
+    public static final int COLON = 32;
+
+    private static final String[] DESCRIPTIONS = {
+            "end of input", "identifier", "integer", "if", "else", "while", "for", "global", "define", "println",
+            "true", "false", "+", "-", "*", "/", "<", "<=", ">", ">=", "==", "!=", "=", ",", ";",
+            "(", ")", "{", "}", "[", "]", "%[", ":"
+    };
+
+    private final String source;
+    private final int from;
+    private final int to;
+    private int[] kinds = new int[64];
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int count;
+
+    private Lexer(String source, int from, int to) {
+        this.source = source;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static Lexer tokenize(String source) {
+        return tokenize(source, 0, source.length());
+    }
+
+    /**
+     * Splits the part of {@code source} from {@code from} inclusive to {@code to} exclusive into tokens, whose
+     * offsets and positions stay those in the whole of {@code source}.
+     */
+    public static Lexer tokenize(String source, int from, int to) {
+        var lexer = new Lexer(source, from, to);
+        lexer.run();
+        return lexer;
+    }
+
+    public static String describe(int kind) {
+        return DESCRIPTIONS[kind];
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int kind(int index) {
+        return kinds[index];
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int end(int index) {
+        return ends[index];
+    }
+
+    public String text(int index) {
+        return source.substring(starts[index], ends[index]);
+    }
+
+    public boolean textEquals(int index, String text) {
+        return ends[index] - starts[index] == text.length() && source.startsWith(text, starts[index]);
+    }
+
+    public String position(int offset) {
+        int line = 1;
+        int column = 1;
+        for(int i = 0; i < offset && i < source.length(); i++) {
+            if(source.charAt(i) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+        return line + ":" + column;
+    }
+
+    private void add(int kind, int start, int end) {
+        if(count == kinds.length) {
+            kinds = Arrays.copyOf(kinds, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private void run() {
+        int length = to;
+        int i = from;
+        while(true) {
+            while(i < length) {
+                char c = source.charAt(i);
+                if(Character.isWhitespace(c)) {
+                    i++;
+                } else if(c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                    while(i < length && source.charAt(i) != '\n') i++;
+                } else {
+                    break;
+                }
+            }
+            if(i >= length) {
+                add(EOF, i, i);
+                return;
+            }
+            int start = i;
+            char c = source.charAt(i);
+            if(isIdentifierStart(c)) {
+                while(i < length && isIdentifierPart(source.charAt(i))) i++;
+                add(keyword(start, i), start, i);
+            } else if('0' <= c && c <= '9') {
+                while(i < length && '0' <= source.charAt(i) && source.charAt(i) <= '9') i++;
+                add(INTEGER, start, i);
+            } else {
+                boolean twoChars = i + 1 < length && source.charAt(i + 1) == (c == '%' ? '[' : '=');
+                int kind = switch(c) {
+                    case '+' -> PLUS;
+                    case '-' -> MINUS;
+                    case '*' -> ASTER;
+                    case '/' -> SLASH;
+                    case '<' -> twoChars ? LT_EQ : LT;
+                    case '>' -> twoChars ? GT_EQ : GT;
+                    case '=' -> twoChars ? EQEQ : EQ;
+                    case '!' -> twoChars ? NOT_EQ : -1;
+                    case ',' -> COMMA;
+                    case ';' -> SEMI_COLON;
+                    case '(' -> LPAREN;
+                    case ')' -> RPAREN;
+                    case '{' -> LBRACE;
+                    case '}' -> RBRACE;
+                    case '[' -> LBRACKET;
+                    case ']' -> RBRACKET;
+                    case '%' -> twoChars ? PERCENT_LBRACKET : -1;
+                    case ':' -> COLON;
+                    default -> -1;
+                };
+                if(kind < 0) {
+                    throw new LanguageException(position(start) + ": unexpected character '" + c + "'");
+                }
+                i += (kind == LT_EQ || kind == GT_EQ || kind == EQEQ || kind == NOT_EQ || kind == PERCENT_LBRACKET) ? 2 : 1;
+                add(kind, start, i);
+            }
+        }
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || ('0' <= c && c <= '9');
+    }
+
+    private int keyword(int start, int end) {
+        return switch(end - start) {
+            case 2 -> matches(start, "if") ? IF : IDENT;
+            case 3 -> matches(start, "for") ? FOR : IDENT;
+            case 4 -> matches(start, "else") ? ELSE : matches(start, "true") ? TRUE : IDENT;
+            case 5 -> matches(start, "while") ? WHILE : matches(start, "false") ? FALSE : IDENT;
+            case 6 -> matches(start, "global") ? GLOBAL : matches(start, "define") ? DEFINE : IDENT;
+            case 7 -> matches(start, "println") ? PRINTLN : IDENT;
+            default -> IDENT;
+        };
+    }
+
+    private boolean matches(int start, String keyword) {
+        return source.startsWith(keyword, start);
+    }
+}
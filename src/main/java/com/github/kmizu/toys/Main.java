@@ -1,22 +1,97 @@
 package com.github.kmizu.toys;
 
-import org.javafp.parsecj.input.Input;
-
-import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 
 public class Main {
     public static void main(String[] args) throws Exception {
-        if(args.length < 1) {
+        var engine = Interpreter.Engine.TREE;
+        var disassemble = false;
+        Path cacheDirectory = AstCache.defaultDirectory();
+        String fileName = null;
+        Integer port = null;
+        var maxConcurrency = 64;
+        Duration timeout = null;
+        var budget = Budget.UNLIMITED;
+        Path profile = null;
+        Path outputFile = null;
+        Integer inlineLimit = null;
+        for(var arg : args) {
+            if(arg.equals("--compile")) {
+                engine = Interpreter.Engine.BYTECODE;
+            } else if(arg.equals("--disassemble")) {
+                engine = Interpreter.Engine.VM;
+                disassemble = true;
+            } else if(arg.equals("--no-cache")) {
+                cacheDirectory = null;
+            } else if(arg.startsWith("--cache-dir=")) {
+                cacheDirectory = Paths.get(arg.substring("--cache-dir=".length()));
+            } else if(arg.startsWith("--serve=")) {
+                port = Integer.parseInt(arg.substring("--serve=".length()));
+            } else if(arg.startsWith("--max-concurrency=")) {
+                maxConcurrency = Integer.parseInt(arg.substring("--max-concurrency=".length()));
+            } else if(arg.startsWith("--timeout-ms=")) {
+                timeout = Duration.ofMillis(Long.parseLong(arg.substring("--timeout-ms=".length())));
+            } else if(arg.startsWith("--max-steps=")) {
+                budget = budget.withMaxSteps(Long.parseLong(arg.substring("--max-steps=".length())));
+            } else if(arg.startsWith("--max-call-depth=")) {
+                budget = budget.withMaxCallDepth(Integer.parseInt(arg.substring("--max-call-depth=".length())));
+            } else if(arg.startsWith("--max-allocations=")) {
+                budget = budget.withMaxAllocations(Long.parseLong(arg.substring("--max-allocations=".length())));
+            } else if(arg.startsWith("--output=")) {
+                outputFile = Paths.get(arg.substring("--output=".length()));
+            } else if(arg.startsWith("--inline-limit=")) {
+                inlineLimit = Integer.parseInt(arg.substring("--inline-limit=".length()));
+            } else if(arg.startsWith("--profile=")) {
+                profile = Paths.get(arg.substring("--profile=".length()));
+            } else if(arg.startsWith("--engine=")) {
+                engine = Interpreter.Engine.valueOf(arg.substring("--engine=".length()).toUpperCase());
+            } else {
+                fileName = arg;
+            }
+        }
+        if(fileName == null) {
             System.out.println("""
-                    Usage: java -jar toys.jar <fileName>.toys
+                    Usage: java -jar toys.jar [--engine=tree|closure|bytecode|vm] [--compile] [--disassemble] [--no-cache] [--cache-dir=<dir>]
+                           [--timeout-ms=<ms>] [--max-steps=<n>] [--max-call-depth=<n>] [--max-allocations=<n>] [--profile=<file>]
+                           [--inline-limit=<nodes>] [--output=<file>] [--serve=<port> [--max-concurrency=<n>]] <fileName>.toys
                     """);
+            return;
         }
-        var fileName = args[0];
         var content = Files.readString(Paths.get(fileName));
-        var program = Parsers.program().parse(Input.of(content)).getResult();
-        var interpreter = new Interpreter();
-        System.out.println(interpreter.callMain(program));
+        var program = cacheDirectory == null ? ToysParser.parse(content) : new AstCache(cacheDirectory).load(content);
+        if(port != null) {
+            var compiled = CompiledProgram.load(program, engine, inlineLimit == null ? Inliner.DEFAULT_LIMIT : inlineLimit);
+            var server = ScriptServer.start(compiled, new InetSocketAddress("localhost", port),
+                    maxConcurrency, budget, timeout == null ? Duration.ofSeconds(5) : timeout);
+            System.out.println("Serving " + fileName + " on http://localhost:" + server.port() + "/run");
+            return;
+        }
+        var interpreter = new Interpreter(engine);
+        // Inlined calls would be missing from the profile, so profiling turns inlining off unless asked for.
+        interpreter.setInlineLimit(inlineLimit != null ? inlineLimit : profile != null ? 0 : Inliner.DEFAULT_LIMIT);
+        interpreter.setBudget(timeout == null ? budget : budget.withTimeout(timeout));
+        var profiler = profile == null ? null : new Profiler();
+        interpreter.setProfiler(profiler);
+        Values.Value result;
+        try(var output = outputFile == null ? OutputSink.standardOutput() : OutputSink.toFile(outputFile)) {
+            interpreter.setOutput(output);
+            result = interpreter.callMain(program);
+        }
+        System.out.println(result);
+        if(profiler != null) {
+            profiler.writeCollapsedStacks(profile);
+            System.err.print(profiler.report());
+        }
+        if(disassemble) {
+            for(var topLevel : program.definitions()) {
+                if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                    System.out.println(interpreter.disassemble(functionDefinition.name()));
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,152 @@
+package com.github.kmizu.toys;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Charges the work of one thread of an execution against its {@link Budget}.  Engines call {@link #step} at loop
+ * back-edges and {@link #enter}/{@link #exit} around calls.  Steps are drawn from the pool shared with the
+ * {@link #fork}s of the meter in batches of {@link #BATCH}, so a step is usually a decrement of a field of this
+ * thread, and the clock is read only when a batch runs out.
+ *
+ * With a {@link Profiler} attached, the hooks also report to it, and those taking a name are the ones that can;
+ * compiled bytecode calls the plain ones, so it doesn't run while profiling.  Without a profiler a hook costs a null
+ * check.
+ */
+public final class Meter {
+    static final int BATCH = 1024;
+
+    private final Budget budget;
+    private final long deadline;
+    private final AtomicLong steps;
+    private final AtomicLong allocations;
+    private long allowance;
+    private int depth;
+    private Profiler.Recorder recorder;
+
+    public Meter(Budget budget) {
+        this(budget, budget.timeout().map(timeout -> System.nanoTime() + timeout.toNanos()).orElse(0L),
+                new AtomicLong(budget.maxSteps()), new AtomicLong(budget.maxAllocations()), 0);
+    }
+
+    private Meter(Budget budget, long deadline, AtomicLong steps, AtomicLong allocations, int depth) {
+        this.budget = budget;
+        this.deadline = deadline;
+        this.steps = steps;
+        this.allocations = allocations;
+        this.depth = depth;
+    }
+
+    /**
+     * A meter for another thread of the same execution, sharing the budget left and starting at the current depth.
+     */
+    public Meter fork() {
+        var fork = new Meter(budget, deadline, steps, allocations, depth);
+        if(recorder != null) {
+            fork.recorder = recorder.fork();
+        }
+        return fork;
+    }
+
+    /**
+     * Reports what runs from now on to {@code profiler}, or to nothing when it is null.
+     */
+    public void profile(Profiler profiler) {
+        recorder = profiler == null ? null : profiler.recorder();
+    }
+
+    public Profiler profiler() {
+        return recorder == null ? null : recorder.profiler();
+    }
+
+    public boolean profiling() {
+        return recorder != null;
+    }
+
+    public void step() {
+        if(--allowance < 0) {
+            refill();
+        }
+    }
+
+    private void refill() {
+        if(budget.timeout().isPresent() && System.nanoTime() - deadline > 0) {
+            throw new Budget.DeadlineExceeded(budget.timeout().get());
+        }
+        long left;
+        long batch;
+        do {
+            left = steps.get();
+            if(left <= 0) {
+                throw new Budget.StepsExceeded(budget.maxSteps());
+            }
+            batch = Math.min(BATCH, left);
+        } while(!steps.compareAndSet(left, left - batch));
+        allowance = batch - 1;
+    }
+
+    public void enter() {
+        step();
+        if(++depth > budget.maxCallDepth()) {
+            depth--;
+            throw new Budget.CallDepthExceeded(budget.maxCallDepth());
+        }
+    }
+
+    public void enter(String function) {
+        enter();
+        if(recorder != null) {
+            recorder.enter(function);
+        }
+    }
+
+    public void exit() {
+        depth--;
+        if(recorder != null) {
+            recorder.exit();
+        }
+    }
+
+    /**
+     * Replaces the function being run with {@code function}, which it calls in tail position.
+     */
+    public void tailCall(String function) {
+        step();
+        if(recorder != null) {
+            recorder.exit();
+            recorder.enter(function);
+        }
+    }
+
+    /**
+     * Steps at the back-edge of the loop labelled {@code label}.
+     */
+    public void loop(String label) {
+        step();
+        if(recorder != null) {
+            recorder.loop(label);
+        }
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns to {@code depth} after calls were left by an exception.
+     */
+    public void unwind(int depth) {
+        this.depth = depth;
+        if(recorder != null) {
+            recorder.unwind(depth);
+        }
+    }
+
+    public void allocate(long elements) {
+        if(recorder != null) {
+            recorder.allocate(elements);
+        }
+        if(budget.maxAllocations() != Long.MAX_VALUE && allocations.addAndGet(-elements) < 0) {
+            throw new Budget.AllocationsExceeded(budget.maxAllocations());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.kmizu.toys;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * Where {@code println} writes.  A sink is handed the values themselves, so one that only keeps them, for an
+ * embedder or a test, never formats them.  The threads of an execution share its sink.
+ */
+@FunctionalInterface
+public interface OutputSink extends AutoCloseable {
+    void println(Value value);
+
+    /**
+     * Writes out whatever is buffered.
+     */
+    default void flush() {}
+
+    @Override
+    default void close() {
+        flush();
+    }
+
+    /**
+     * Standard output, written in batches and flushed when the JVM exits.  Closing it only flushes it.
+     */
+    static OutputSink standardOutput() {
+        return Buffered.STANDARD_OUTPUT;
+    }
+
+    static OutputSink buffered(OutputStream out) {
+        return new Buffered(new OutputStreamWriter(out, StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * A sink writing to {@code path}, replacing it, which closes the file when it is closed.
+     */
+    static OutputSink toFile(Path path) throws IOException {
+        return new Buffered(Files.newBufferedWriter(path), true);
+    }
+
+    /**
+     * Formats lines into a batch and hands it to the writer once it holds {@link #CAPACITY} characters, so a
+     * program printing many short lines costs one write per batch rather than per line.
+     */
+    final class Buffered implements OutputSink {
+        static final int CAPACITY = 1 << 16;
+        private static final Buffered STANDARD_OUTPUT = new Buffered(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), false);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(STANDARD_OUTPUT::flush));
+        }
+
+        private final Writer writer;
+        private final boolean closesWriter;
+        private final StringBuilder batch = new StringBuilder(CAPACITY + 256);
+
+        private Buffered(Writer writer, boolean closesWriter) {
+            this.writer = writer;
+            this.closesWriter = closesWriter;
+        }
+
+        @Override
+        public synchronized void println(Value value) {
+            show(value, batch);
+            batch.append('\n');
+            if(batch.length() >= CAPACITY) {
+                flush();
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            try {
+                writer.append(batch);
+                writer.flush();
+                batch.setLength(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            flush();
+            if(closesWriter) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
@@ -4,13 +4,85 @@ import org.javafp.data.IList;
 import org.javafp.data.Unit;
 import org.javafp.parsecj.*;
 
+import org.javafp.parsecj.input.Input;
+
 import java.util.List;
 import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
 
 import static org.javafp.parsecj.Text.*;
 import static com.github.kmizu.toys.Ast.*;
 
 public class Parsers {
+    /**
+     * Rules whose results are memoized by position during {@link #parsePackrat(Parser, String)}.
+     */
+    private enum Rule {
+        IDENT, LINE, EXPRESSION, ADDITIVE, MULTITIVE, PRIMARY, FUNCTION_CALL, LABELLED_CALL
+    }
+
+    /**
+     * The packrat memo table of the current parse: one row per {@link Rule}, one entry per input position.
+     */
+    private static final class MemoTable {
+        private final ConsumedT<?, ?>[][] entries;
+        private final int length;
+
+        MemoTable(int length) {
+            this.entries = new ConsumedT<?, ?>[Rule.values().length][];
+            this.length = length;
+        }
+
+        @SuppressWarnings("unchecked")
+        <A> ConsumedT<Character, A> get(Rule rule, int position) {
+            var row = entries[rule.ordinal()];
+            return row == null ? null : (ConsumedT<Character, A>) row[position];
+        }
+
+        void put(Rule rule, int position, ConsumedT<Character, ?> result) {
+            var row = entries[rule.ordinal()];
+            if(row == null) {
+                row = entries[rule.ordinal()] = new ConsumedT<?, ?>[length + 1];
+            }
+            row[position] = result;
+        }
+    }
+
+    private static final ThreadLocal<MemoTable> MEMO = new ThreadLocal<>();
+
+    /**
+     * Runs {@code parser} over {@code source} with every memoized rule remembering its result per position,
+     * so backtracking through {@code attempt()} never parses the same rule at the same position twice
+     * and the parse takes time linear in the input.
+     */
+    public static <A> Reply<Character, A> parsePackrat(Parser<Character, A> parser, String source) {
+        var previous = MEMO.get();
+        MEMO.set(new MemoTable(source.length()));
+        try {
+            return parser.parse(Input.of(source));
+        } finally {
+            MEMO.set(previous);
+        }
+    }
+
+    private static <A> Parser<Character, A> memo(Rule rule, Supplier<Parser<Character, A>> body) {
+        return input -> {
+            var table = MEMO.get();
+            if(table == null) {
+                return body.get().apply(input);
+            }
+            int position = input.position();
+            ConsumedT<Character, A> cached = table.get(rule, position);
+            if(cached == null) {
+                var result = body.get().apply(input);
+                var reply = result.getReply();
+                cached = ConsumedT.of(result.isConsumed(), () -> reply);
+                table.put(rule, position, cached);
+            }
+            return cached;
+        };
+    }
+
     public static final Parser<Character, Unit> SPACING = wspace.map(__1 -> Unit.unit).or(regex("(?m)//.*$").map(__1 -> Unit.unit));
     public static final Parser<Character, Unit> SPACINGS = SPACING.many().map(__1 -> Unit.unit);
     public static final Parser<Character, Unit> IF = string("if").then(SPACINGS);
@@ -40,14 +112,17 @@ public class Parsers {
     public static final Parser<Character, Unit> RBRACE = string("}").then(SPACINGS);
     public static final Parser<Character, Unit> LBRACKET = string("[").then(SPACINGS);
     public static final Parser<Character, Unit> RBRACKET = string("]").then(SPACINGS);
+    public static final Parser<Character, Unit> PERCENT_LBRACKET = string("%[").then(SPACINGS);
+    public static final Parser<Character, Unit> COLON = string(":").then(SPACINGS);
     public static final Parser<Character, Unit> SEMI_COLON = string(";").then(SPACINGS);
-    public static final Parser<Character, String> IDENT = regex("[a-zA-Z_][a-zA-Z0-9_]*").bind(name -> SPACINGS.map(__ -> name));
+    private static final Parser<Character, String> NAME = regex("[a-zA-Z_][a-zA-Z0-9_]*").bind(name -> SPACINGS.map(__ -> name));
+    public static final Parser<Character, String> IDENT = memo(Rule.IDENT, () -> NAME);
 
     public static final Parser<Character, Unit> FOR = string("for").then(SPACINGS);
     public static final Parser<Character, Unit> IN = string("in").then(SPACINGS);
     public static final Parser<Character, Unit> TO = string("to").then(SPACINGS);
 
-    public static Parser<Character, Ast.IntegerLiteral> integer = intr.map(Ast::integer).bind(v -> SPACINGS.map(__ -> v));
+    public static Parser<Character, Ast.IntegerLiteral> integer = lng.map(Ast::integer).bind(v -> SPACINGS.map(__ -> v));
 
     public static Parser<Character, Ast.Program> program () {
         return SPACINGS.bind(_1 ->
@@ -81,7 +156,8 @@ public class Parsers {
     }
 
     public static Parser<Character, Ast.Expression> line() {
-        return println().or(whileExpression()).or(ifExpression()).or(forInExpression()).or(assignment()).or(expressionLine()).or(blockExpression());
+        return memo(Rule.LINE, () ->
+                println().or(whileExpression()).or(ifExpression()).or(forInExpression()).or(assignment()).or(indexAssignment()).or(expressionLine()).or(blockExpression()));
     }
 
     public static Parser<Character, Ast.Expression> println() {
@@ -137,12 +213,19 @@ public class Parsers {
         ).attempt();
     }
 
+    public static Parser<Character, Ast.Expression> indexAssignment() {
+        return primary().bind(target -> target instanceof Index index
+                ? EQ.then(expression().bind(e -> SEMI_COLON.map(__ -> (Ast.Expression)new IndexAssignment(index.array(), index.index(), e))))
+                : Combinators.<Character, Ast.Expression>fail()
+        ).attempt();
+    }
+
     public static Parser<Character, Ast.Expression> expressionLine() {
         return expression().bind(e -> SEMI_COLON.map(__ -> e)).attempt();
     }
 
     public static Parser<Character, Ast.Expression> expression() {
-        return comparative();
+        return memo(Rule.EXPRESSION, Parsers::comparative);
     };
 
     public static Parser<Character, Ast.Expression> comparative() {
@@ -151,39 +234,54 @@ public class Parsers {
         Parser<Character, BinaryOperator<Expression>> lte = LT_EQ.attempt().map(op -> Ast::lessOrEqual);
         Parser<Character, BinaryOperator<Expression>> gte = GT_EQ.attempt().map(op -> Ast::greaterOrEqual);
         Parser<Character, BinaryOperator<Expression>> eq = EQEQ.attempt().map(op -> Ast::equalEqual);
-        Parser<Character, BinaryOperator<Expression>> neq = NOT_EQ.attempt().map(op -> Ast::equalEqual);
+        Parser<Character, BinaryOperator<Expression>> neq = NOT_EQ.attempt().map(op -> Ast::notEqual);
         return additive().chainl1(lte.or(gte).or(neq).or(lt).or(gt).or(eq));
     }
 
     public static Parser<Character, Ast.Expression> additive() {
         Parser<Character, BinaryOperator<Expression>> add = PLUS.map(op -> Ast::add);
         Parser<Character, BinaryOperator<Expression>> sub = MINUS.map(op -> Ast::subtract);
-        return multitive().chainl1(add.or(sub));
+        return memo(Rule.ADDITIVE, () -> multitive().chainl1(add.or(sub)));
     };
 
     public static Parser<Character, Ast.Expression> multitive() {
         Parser<Character, BinaryOperator<Expression>> mul = ASTER.map(op -> Ast::multiply);
         Parser<Character, BinaryOperator<Expression>> div = SLASH.map(op -> Ast::divide);
-        return primary().chainl1(mul.or(div));
+        return memo(Rule.MULTITIVE, () -> primary().chainl1(mul.or(div)));
     };
 
     public static Parser<Character, Ast.Expression> primary() {
+        return memo(Rule.PRIMARY, () -> atom().bind(target ->
+                subscript().many().map(indices -> {
+                    var expression = target;
+                    for(var index : indices) {
+                        expression = new Index(expression, index);
+                    }
+                    return expression;
+                })));
+    };
+
+    public static Parser<Character, Ast.Expression> atom() {
         return LPAREN.bind(_1 ->
                 expression().bind(v ->
-                        RPAREN.map(_2 -> v))).or(integer).or(functionCall()).or(labelledCall()).or(arrayLiteral()).or(boolLiteral()).or(identifier());
-    };
+                        RPAREN.map(_2 -> v))).or(integer).or(functionCall()).or(labelledCall()).or(arrayLiteral()).or(dictionaryLiteral()).or(boolLiteral()).or(identifier());
+    }
+
+    public static Parser<Character, Ast.Expression> subscript() {
+        return LBRACKET.then(expression()).bind(index -> RBRACKET.map(__ -> index));
+    }
 
     public static Parser<Character, Ast.FunctionCall> functionCall() {
-        return IDENT.bind(name ->
+        return memo(Rule.FUNCTION_CALL, () -> IDENT.bind(name ->
                 expression().sepBy(COMMA).between(LPAREN, RPAREN).map(params -> new Ast.FunctionCall(name, params.toList()))
-        ).attempt();
+        ).attempt());
     }
 
     public static Parser<Character, Ast.LabelledCall> labelledCall() {
-        return IDENT.bind(name ->
+        return memo(Rule.LABELLED_CALL, () -> IDENT.bind(name ->
                 IDENT.bind(label -> EQ.then(expression()).map(param -> new LabelledParameter(label, param)))
                      .sepBy(COMMA).between(LBRACKET, RBRACKET).map(params -> new Ast.LabelledCall(name, params.toList()))
-        ).attempt();
+        ).attempt());
     }
 
     public static Parser<Character, Identifier> identifier() {
@@ -198,7 +296,16 @@ public class Parsers {
         );
     }
 
+    public static Parser<Character, Ast.DictionaryLiteral> dictionaryLiteral() {
+        var entry = expression().bind(key -> COLON.then(expression()).map(value -> new DictionaryEntry(key, value)));
+        return PERCENT_LBRACKET.bind(__1 ->
+                entry.sepBy(COMMA).bind(entries ->
+                        RBRACKET.map(__2 -> new DictionaryLiteral(entries.toList()))
+                )
+        );
+    }
+
     public static Parser<Character, Ast.BoolLiteral> boolLiteral() {
-        return TRUE.map(__ -> new BoolLiteral(true)).or(FALSE.map(__ -> new BoolLiteral(false)));
+        return TRUE.attempt().map(__ -> new BoolLiteral(true)).or(FALSE.attempt().map(__ -> new BoolLiteral(false)));
     }
 }
@@ -0,0 +1,286 @@
+package com.github.kmizu.toys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records where a program spends its time: calls, inclusive and exclusive time and allocated elements of each
+ * function, iterations of each loop, and exclusive time per call stack in the collapsed format that flame graph
+ * tools read.  It is fed by the {@link Meter} hooks every engine already calls on function entry and exit, at loop
+ * back-edges and on allocation, so a run without a profiler pays one null check per hook.  Compiled bytecode has no
+ * such hooks with names, so the bytecode engine interprets every function while profiling.
+ *
+ * Each thread records into a {@link Recorder} of its own; the results merge them, and are read once the run is over.
+ */
+public final class Profiler {
+    static final String TOP_LEVEL = "<toplevel>";
+
+    public final static record FunctionProfile(String name, long calls, long inclusiveNanos, long exclusiveNanos, long allocations) {}
+
+    private final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Labels the loops of a function body {@code function:while#n}, numbering them from 1 in source order.
+     */
+    static Map<Ast.WhileExpression, String> loopLabels(String function, Ast.Expression body) {
+        var loops = new ArrayList<Ast.WhileExpression>();
+        collectLoops(body, loops);
+        var labels = new IdentityHashMap<Ast.WhileExpression, String>();
+        for(int i = 0; i < loops.size(); i++) {
+            labels.put(loops.get(i), function + ":while#" + (i + 1));
+        }
+        return labels;
+    }
+
+    private static void collectLoops(Ast.Expression expression, List<Ast.WhileExpression> loops) {
+        if(expression instanceof Ast.WhileExpression whileExpression) {
+            loops.add(whileExpression);
+            collectLoops(whileExpression.condition(), loops);
+            collectLoops(whileExpression.body(), loops);
+        } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            collectLoops(binaryExpression.lhs(), loops);
+            collectLoops(binaryExpression.rhs(), loops);
+        } else if(expression instanceof Ast.BlockExpression block) {
+            block.elements().forEach(element -> collectLoops(element, loops));
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            collectLoops(ifExpression.condition(), loops);
+            collectLoops(ifExpression.thenClause(), loops);
+            ifExpression.elseClause().ifPresent(elseClause -> collectLoops(elseClause, loops));
+        } else if(expression instanceof Ast.Assignment assignment) {
+            collectLoops(assignment.expression(), loops);
+        } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+            collectLoops(assignment.expression(), loops);
+        } else if(expression instanceof Ast.Println println) {
+            collectLoops(println.arg(), loops);
+        } else if(expression instanceof Ast.FunctionCall call) {
+            call.args().forEach(arg -> collectLoops(arg, loops));
+        } else if(expression instanceof Ast.ResolvedCall call) {
+            call.args().forEach(arg -> collectLoops(arg, loops));
+        } else if(expression instanceof Ast.LabelledCall call) {
+            call.args().forEach(arg -> collectLoops(arg.parameter(), loops));
+        } else if(expression instanceof Ast.BuiltinCall call) {
+            call.args().forEach(arg -> collectLoops(arg, loops));
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            arrayLiteral.items().forEach(item -> collectLoops(item, loops));
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            for(var entry : dictionaryLiteral.entries()) {
+                collectLoops(entry.key(), loops);
+                collectLoops(entry.value(), loops);
+            }
+        } else if(expression instanceof Ast.Index index) {
+            collectLoops(index.array(), loops);
+            collectLoops(index.index(), loops);
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            collectLoops(assignment.array(), loops);
+            collectLoops(assignment.index(), loops);
+            collectLoops(assignment.expression(), loops);
+        }
+    }
+
+    Recorder recorder() {
+        var recorder = new Recorder(new Node(null, null), 0);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * The functions that were called, the ones taking the most time of their own first.  The inclusive time of a
+     * recursive function counts only its outermost calls.
+     */
+    public List<FunctionProfile> functions() {
+        var totals = new HashMap<String, Totals>();
+        for(var recorder : recorders) {
+            recorder.functions.forEach((name, t) -> totals.computeIfAbsent(name, key -> new Totals()).add(t));
+        }
+        var profiles = new ArrayList<FunctionProfile>();
+        totals.forEach((name, t) -> profiles.add(new FunctionProfile(name, t.calls, t.inclusive, t.exclusive, t.allocations)));
+        profiles.sort(Comparator.comparingLong(FunctionProfile::exclusiveNanos).reversed().thenComparing(FunctionProfile::name));
+        return profiles;
+    }
+
+    public Map<String, Long> loopIterations() {
+        var loops = new TreeMap<String, Long>();
+        for(var recorder : recorders) {
+            recorder.loops.forEach((label, count) -> loops.merge(label, count[0], Long::sum));
+        }
+        return loops;
+    }
+
+    /**
+     * The exclusive time in nanoseconds of each call stack, with its functions joined by {@code ;} from the outermost.
+     */
+    public Map<String, Long> collapsedStacks() {
+        var stacks = new TreeMap<String, Long>();
+        for(var recorder : recorders) {
+            recorder.root.collect(stacks);
+        }
+        return stacks;
+    }
+
+    public void writeCollapsedStacks(Path path) throws IOException {
+        var builder = new StringBuilder();
+        collapsedStacks().forEach((stack, nanos) -> builder.append(stack).append(' ').append(nanos).append('\n'));
+        Files.writeString(path, builder);
+    }
+
+    public String report() {
+        var builder = new StringBuilder();
+        builder.append(String.format("%-24s %10s %14s %14s %12s%n", "function", "calls", "inclusive(us)", "exclusive(us)", "allocations"));
+        for(var profile : functions()) {
+            builder.append(String.format("%-24s %10d %14d %14d %12d%n", profile.name(), profile.calls(),
+                    profile.inclusiveNanos() / 1000, profile.exclusiveNanos() / 1000, profile.allocations()));
+        }
+        var loops = loopIterations();
+        if(!loops.isEmpty()) {
+            builder.append(String.format("%n%-24s %10s%n", "loop", "iterations"));
+            loops.forEach((label, count) -> builder.append(String.format("%-24s %10d%n", label, count)));
+        }
+        return builder.toString();
+    }
+
+    private static final class Totals {
+        private long calls;
+        private long inclusive;
+        private long exclusive;
+        private long allocations;
+        private int active;
+
+        private void add(Totals other) {
+            calls += other.calls;
+            inclusive += other.inclusive;
+            exclusive += other.exclusive;
+            allocations += other.allocations;
+        }
+    }
+
+    /**
+     * A call stack, as a path from the root of the tree of stacks seen by one recorder.
+     */
+    private static final class Node {
+        private final String function;
+        private final Node parent;
+        private final Map<String, Node> children = new HashMap<>();
+        private long exclusive;
+
+        private Node(String function, Node parent) {
+            this.function = function;
+            this.parent = parent;
+        }
+
+        private Node child(String function) {
+            return children.computeIfAbsent(function, name -> new Node(name, this));
+        }
+
+        private String stack() {
+            return parent.function == null ? function : parent.stack() + ";" + function;
+        }
+
+        private void collect(Map<String, Long> stacks) {
+            if(exclusive > 0) {
+                stacks.merge(stack(), exclusive, Long::sum);
+            }
+            children.values().forEach(child -> child.collect(stacks));
+        }
+    }
+
+    /**
+     * The records of one thread.  Its stack follows the call depth of the {@link Meter} that owns it.
+     */
+    final class Recorder {
+        private final Node root;
+        private final Map<String, Totals> functions = new HashMap<>();
+        private final Map<String, long[]> loops = new HashMap<>();
+        private Node[] nodes = new Node[64];
+        private long[] starts = new long[64];
+        private long[] childTimes = new long[64];
+        private int depth;
+
+        private Recorder(Node root, int depth) {
+            this.root = root;
+            this.depth = depth;
+        }
+
+        Profiler profiler() {
+            return Profiler.this;
+        }
+
+        /**
+         * A recorder for another thread, whose stacks continue the current one.  The frames it inherits are never
+         * left on that thread, so no time is recorded for them.
+         */
+        Recorder fork() {
+            var fork = new Recorder(new Node(null, null), depth);
+            fork.grow(depth);
+            var node = fork.root;
+            for(int i = 0; i < depth; i++) {
+                node = node.child(nodes[i].function);
+                fork.nodes[i] = node;
+            }
+            recorders.add(fork);
+            return fork;
+        }
+
+        private void grow(int size) {
+            if(size >= nodes.length) {
+                int length = Math.max(size + 1, nodes.length * 2);
+                nodes = Arrays.copyOf(nodes, length);
+                starts = Arrays.copyOf(starts, length);
+                childTimes = Arrays.copyOf(childTimes, length);
+            }
+        }
+
+        private Totals totals(String function) {
+            return functions.computeIfAbsent(function, name -> new Totals());
+        }
+
+        void enter(String function) {
+            grow(depth);
+            nodes[depth] = (depth == 0 ? root : nodes[depth - 1]).child(function);
+            childTimes[depth] = 0;
+            var totals = totals(function);
+            totals.calls++;
+            totals.active++;
+            starts[depth++] = System.nanoTime();
+        }
+
+        void exit() {
+            long inclusive = System.nanoTime() - starts[--depth];
+            var node = nodes[depth];
+            long exclusive = inclusive - childTimes[depth];
+            node.exclusive += exclusive;
+            var totals = totals(node.function);
+            totals.exclusive += exclusive;
+            if(--totals.active == 0) {
+                totals.inclusive += inclusive;
+            }
+            if(depth > 0) {
+                childTimes[depth - 1] += inclusive;
+            }
+        }
+
+        void unwind(int depth) {
+            while(this.depth > depth) {
+                exit();
+            }
+        }
+
+        void loop(String label) {
+            loops.computeIfAbsent(label, key -> new long[1])[0]++;
+        }
+
+        void allocate(long elements) {
+            totals(depth == 0 ? TOP_LEVEL : nodes[depth - 1].function).allocations += elements;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Rewrites every variable reference into a (depth, slot) coordinate, and every call into a
+ * {@link Ast.ResolvedCall} with its own {@link CallSite}, or into an {@link Ast.BuiltinCall} when it names a
+ * {@link Builtin} that the program does not define itself.  An identifier that is not a variable but names a
+ * function of the program becomes an {@link Ast.FunctionReference}.
+ * Depth 0 is the innermost frame; inside a function body, depth 1 is the global frame.
+ * Variables assigned in main() and global definitions live in the global frame,
+ * other assigned variables are local to the enclosing function.
+ */
+public class Resolver {
+    private final Scope globals = new Scope();
+    private final Set<String> functions = new HashSet<>();
+
+    public void reset() {
+        globals.slots.clear();
+        globals.size = 0;
+        functions.clear();
+    }
+
+    public int globalCount() {
+        return globals.size;
+    }
+
+    public Optional<Integer> globalSlot(String name) {
+        return Optional.ofNullable(globals.slots.get(name));
+    }
+
+    public Ast.Program resolve(Ast.Program program) {
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.GlobalVariableDefinition globalVariableDefinition) {
+                globals.declare(globalVariableDefinition.name());
+            } else if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                functions.add(functionDefinition.name());
+                if(functionDefinition.name().equals("main")) {
+                    collectAssignedNames(functionDefinition.body(), globals);
+                }
+            }
+        }
+        var definitions = new ArrayList<Ast.TopLevel>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.GlobalVariableDefinition globalVariableDefinition) {
+                definitions.add(new Ast.GlobalVariableDefinition(
+                        globalVariableDefinition.name(), resolveTopLevel(globalVariableDefinition.expression())
+                ));
+            } else if(topLevel instanceof Ast.FunctionDefinition functionDefinition) {
+                definitions.add(resolveFunction(functionDefinition));
+            }
+        }
+        return new Ast.Program(definitions);
+    }
+
+    public Ast.Expression resolveTopLevel(Ast.Expression expression) {
+        return resolve(expression, null);
+    }
+
+    public Ast.FunctionDefinition resolveFunction(Ast.FunctionDefinition definition) {
+        var locals = new Scope();
+        for(var arg : definition.args()) {
+            locals.slots.put(arg, locals.size++);
+        }
+        var body = resolve(definition.body(), locals);
+        return new Ast.FunctionDefinition(definition.name(), definition.args(), body, locals.size);
+    }
+
+    private static void collectAssignedNames(Ast.Expression expression, Scope scope) {
+        if(expression instanceof Ast.Assignment assignment) {
+            scope.declare(assignment.name());
+            collectAssignedNames(assignment.expression(), scope);
+        } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            collectAssignedNames(binaryExpression.lhs(), scope);
+            collectAssignedNames(binaryExpression.rhs(), scope);
+        } else if(expression instanceof Ast.FunctionCall functionCall) {
+            functionCall.args().forEach(arg -> collectAssignedNames(arg, scope));
+        } else if(expression instanceof Ast.LabelledCall labelledCall) {
+            labelledCall.args().forEach(arg -> collectAssignedNames(arg.parameter(), scope));
+        } else if(expression instanceof Ast.BlockExpression block) {
+            block.elements().forEach(e -> collectAssignedNames(e, scope));
+        } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            collectAssignedNames(whileExpression.condition(), scope);
+            collectAssignedNames(whileExpression.body(), scope);
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            collectAssignedNames(ifExpression.condition(), scope);
+            collectAssignedNames(ifExpression.thenClause(), scope);
+            ifExpression.elseClause().ifPresent(e -> collectAssignedNames(e, scope));
+        } else if(expression instanceof Ast.Println println) {
+            collectAssignedNames(println.arg(), scope);
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            arrayLiteral.items().forEach(e -> collectAssignedNames(e, scope));
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            dictionaryLiteral.entries().forEach(entry -> {
+                collectAssignedNames(entry.key(), scope);
+                collectAssignedNames(entry.value(), scope);
+            });
+        } else if(expression instanceof Ast.Index index) {
+            collectAssignedNames(index.array(), scope);
+            collectAssignedNames(index.index(), scope);
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            collectAssignedNames(assignment.array(), scope);
+            collectAssignedNames(assignment.index(), scope);
+            collectAssignedNames(assignment.expression(), scope);
+        }
+    }
+
+    private Ast.Expression resolve(Ast.Expression expression, Scope locals) {
+        if(expression instanceof Ast.Identifier identifier) {
+            var name = identifier.name();
+            if(locals != null && locals.slots.containsKey(name)) {
+                return new Ast.ResolvedIdentifier(name, 0, locals.slots.get(name));
+            }
+            if(!globals.slots.containsKey(name) && functions.contains(name)) {
+                return new Ast.FunctionReference(name);
+            }
+            return new Ast.ResolvedIdentifier(name, globalDepth(locals), globals.declare(name));
+        } else if(expression instanceof Ast.Assignment assignment) {
+            var name = assignment.name();
+            var value = resolve(assignment.expression(), locals);
+            if(locals == null) {
+                return new Ast.ResolvedAssignment(name, 0, globals.declare(name), value);
+            } else if(locals.slots.containsKey(name)) {
+                return new Ast.ResolvedAssignment(name, 0, locals.slots.get(name), value);
+            } else if(globals.slots.containsKey(name)) {
+                return new Ast.ResolvedAssignment(name, 1, globals.slots.get(name), value);
+            } else {
+                return new Ast.ResolvedAssignment(name, 0, locals.declare(name), value);
+            }
+        } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            return new Ast.BinaryExpression(
+                    binaryExpression.operator(),
+                    resolve(binaryExpression.lhs(), locals),
+                    resolve(binaryExpression.rhs(), locals)
+            );
+        } else if(expression instanceof Ast.FunctionCall functionCall) {
+            var builtin = functions.contains(functionCall.name()) ? Optional.<Builtin>empty() : Builtin.find(functionCall.name());
+            if(builtin.isPresent()) {
+                return new Ast.BuiltinCall(builtin.get(), resolveAll(functionCall.args(), locals));
+            }
+            return new Ast.ResolvedCall(new CallSite(functionCall.name(), null), resolveAll(functionCall.args(), locals));
+        } else if(expression instanceof Ast.LabelledCall labelledCall) {
+            var labels = new ArrayList<String>();
+            var args = new ArrayList<Ast.Expression>();
+            for(var arg : labelledCall.args()) {
+                labels.add(arg.name());
+                args.add(resolve(arg.parameter(), locals));
+            }
+            return new Ast.ResolvedCall(new CallSite(labelledCall.name(), labels), args);
+        } else if(expression instanceof Ast.BlockExpression block) {
+            return new Ast.BlockExpression(resolveAll(block.elements(), locals));
+        } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            return new Ast.WhileExpression(
+                    resolve(whileExpression.condition(), locals),
+                    resolve(whileExpression.body(), locals)
+            );
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            return new Ast.IfExpression(
+                    resolve(ifExpression.condition(), locals),
+                    resolve(ifExpression.thenClause(), locals),
+                    ifExpression.elseClause().map(e -> resolve(e, locals))
+            );
+        } else if(expression instanceof Ast.Println println) {
+            return new Ast.Println(resolve(println.arg(), locals));
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            return new Ast.ArrayLiteral(resolveAll(arrayLiteral.items(), locals));
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            var entries = new ArrayList<Ast.DictionaryEntry>();
+            for(var entry : dictionaryLiteral.entries()) {
+                entries.add(new Ast.DictionaryEntry(resolve(entry.key(), locals), resolve(entry.value(), locals)));
+            }
+            return new Ast.DictionaryLiteral(entries);
+        } else if(expression instanceof Ast.Index index) {
+            return new Ast.Index(resolve(index.array(), locals), resolve(index.index(), locals));
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            return new Ast.IndexAssignment(
+                    resolve(assignment.array(), locals),
+                    resolve(assignment.index(), locals),
+                    resolve(assignment.expression(), locals)
+            );
+        } else {
+            return expression;
+        }
+    }
+
+    private List<Ast.Expression> resolveAll(List<Ast.Expression> expressions, Scope locals) {
+        var resolved = new ArrayList<Ast.Expression>(expressions.size());
+        for(var e : expressions) {
+            resolved.add(resolve(e, locals));
+        }
+        return resolved;
+    }
+
+    private static int globalDepth(Scope locals) {
+        return locals == null ? 0 : 1;
+    }
+
+    private static final class Scope {
+        private final Map<String, Integer> slots = new HashMap<>();
+        private int size;
+
+        private int declare(String name) {
+            var slot = slots.get(name);
+            if(slot == null) {
+                slot = size++;
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+    }
+}
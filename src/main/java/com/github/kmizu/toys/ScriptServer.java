@@ -0,0 +1,291 @@
+package com.github.kmizu.toys;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * Serves a {@link CompiledProgram} over HTTP on the JDK's built-in server.  {@code /run} calls {@code main()} and
+ * {@code /run/<function>} calls that function, each in a fresh execution, with the parameters of the query string
+ * and of a form-encoded body as its arguments, in order.  {@code /stats} reports the counters.
+ *
+ * At most {@code maxConcurrency} runs are in progress at once; requests beyond that are turned away with 503
+ * rather than queued.  Each run has the {@link Budget} of the server with the timeout as its deadline, and a run
+ * that takes longer than that is answered with 504 and stops at its next step.  What runs print goes to the
+ * server's {@link OutputSink}, flushed as each run ends.
+ */
+public final class ScriptServer implements AutoCloseable {
+    private final CompiledProgram program;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final Budget budget;
+    private final Duration timeout;
+    private final OutputSink output;
+    private final Stats stats = new Stats();
+
+    private ScriptServer(CompiledProgram program, HttpServer server, int maxConcurrency, Budget budget, Duration timeout, OutputSink output) {
+        this.program = program;
+        this.server = server;
+        this.executor = newExecutor();
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        this.budget = budget.withTimeout(timeout);
+        this.timeout = timeout;
+        this.output = output;
+        server.setExecutor(executor);
+        server.createContext("/run", this::run);
+        server.createContext("/stats", exchange -> respond(exchange, 200, stats.toString()));
+    }
+
+    public static ScriptServer start(CompiledProgram program, InetSocketAddress address, int maxConcurrency, Budget budget, Duration timeout) throws IOException {
+        return start(program, address, maxConcurrency, budget, timeout, OutputSink.standardOutput());
+    }
+
+    public static ScriptServer start(CompiledProgram program, InetSocketAddress address, int maxConcurrency, Budget budget, Duration timeout, OutputSink output) throws IOException {
+        var server = new ScriptServer(program, HttpServer.create(address, 0), maxConcurrency, budget, timeout, output);
+        server.server.start();
+        return server;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public Stats stats() {
+        return stats;
+    }
+
+    /**
+     * The number of runs in progress, including those that timed out but have not reached their next step yet.
+     */
+    public int inFlight() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * A thread per task, virtual where the runtime has them.  Concurrency is bounded by the permits, not here.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                var thread = new Thread(task, "toys-script");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void run(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        stats.requests.increment();
+        String function;
+        Value[] args;
+        try {
+            function = function(exchange.getRequestURI().getPath());
+            args = arguments(exchange);
+        } catch (LanguageException e) {
+            stats.failed.increment();
+            respond(exchange, 400, e.getMessage());
+            return;
+        }
+        if(!permits.tryAcquire()) {
+            stats.rejected.increment();
+            respond(exchange, 503, "Too many requests in progress");
+            return;
+        }
+        // The engines don't observe interruption, so a run that times out keeps its permit until its deadline stops it.
+        var result = executor.submit(() -> {
+            try {
+                var execution = program.newExecution(budget, output);
+                return function == null ? execution.callMain() : execution.call(function, args);
+            } finally {
+                permits.release();
+                output.flush();
+            }
+        });
+        try {
+            var value = result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            stats.record(System.nanoTime() - start);
+            respond(exchange, 200, show(value));
+        } catch (TimeoutException e) {
+            stats.timedOut.increment();
+            respond(exchange, 504, "Timed out after " + timeout.toMillis() + "ms");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Budget.DeadlineExceeded cause) {
+                stats.timedOut.increment();
+                respond(exchange, 504, cause.getMessage());
+            } else if(e.getCause() instanceof LanguageException cause) {
+                stats.failed.increment();
+                respond(exchange, 400, cause.getMessage());
+            } else {
+                stats.failed.increment();
+                respond(exchange, 500, String.valueOf(e.getCause()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.failed.increment();
+            respond(exchange, 500, "Interrupted");
+        }
+    }
+
+    private static String function(String path) {
+        var name = path.replaceFirst("^/run/?", "");
+        if(name.isEmpty()) return null;
+        if(!name.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new LanguageException("Function name " + name + " is invalid");
+        }
+        return name;
+    }
+
+    private static Value[] arguments(HttpExchange exchange) throws IOException {
+        var args = new ArrayList<Value>();
+        addArguments(exchange.getRequestURI().getRawQuery(), args);
+        try(var body = exchange.getRequestBody()) {
+            addArguments(new String(body.readAllBytes(), StandardCharsets.UTF_8), args);
+        }
+        return args.toArray(new Value[0]);
+    }
+
+    private static void addArguments(String form, List<Value> args) {
+        if(form == null || form.isBlank()) return;
+        for(var parameter : form.trim().split("&")) {
+            var value = URLDecoder.decode(parameter.substring(parameter.indexOf('=') + 1), StandardCharsets.UTF_8);
+            args.add(argument(value));
+        }
+    }
+
+    private static Value argument(String value) {
+        if(value.equals("true")) return Bool.TRUE;
+        if(value.equals("false")) return Bool.FALSE;
+        try {
+            return integer(new BigInteger(value));
+        } catch (NumberFormatException e) {
+            throw new LanguageException("Argument " + value + " is neither an integer nor a boolean");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        var bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(var out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Request counters and a latency histogram of successful runs, with power-of-two microsecond buckets.
+     */
+    public static final class Stats {
+        private final long startedAt = System.nanoTime();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private final LongAdder totalLatency = new LongAdder();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[64];
+
+        private Stats() {
+            for(int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long latencyNanos) {
+            completed.increment();
+            totalLatency.add(latencyNanos);
+            maxLatency.accumulateAndGet(latencyNanos, Math::max);
+            buckets[64 - Long.numberOfLeadingZeros(latencyNanos / 1000)].increment();
+        }
+
+        public long requests() {
+            return requests.sum();
+        }
+
+        public long completed() {
+            return completed.sum();
+        }
+
+        public long failed() {
+            return failed.sum();
+        }
+
+        public long rejected() {
+            return rejected.sum();
+        }
+
+        public long timedOut() {
+            return timedOut.sum();
+        }
+
+        public double throughput() {
+            return completed() * 1e9 / Math.max(1, System.nanoTime() - startedAt);
+        }
+
+        public Duration meanLatency() {
+            long count = completed();
+            return Duration.ofNanos(count == 0 ? 0 : totalLatency.sum() / count);
+        }
+
+        public Duration maxLatency() {
+            return Duration.ofNanos(maxLatency.get());
+        }
+
+        /**
+         * The upper bound of the bucket holding the given quantile of latencies, so within a factor of two.
+         */
+        public Duration latencyPercentile(double quantile) {
+            long count = 0;
+            for(var bucket : buckets) count += bucket.sum();
+            long rank = (long)Math.ceil(quantile * count);
+            long seen = 0;
+            for(int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if(seen >= rank && seen > 0) {
+                    return Duration.ofNanos(1000L << i);
+                }
+            }
+            return Duration.ZERO;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "requests %d%ncompleted %d%nfailed %d%nrejected %d%ntimed_out %d%nthroughput_per_second %.1f%n" +
+                    "latency_mean_us %d%nlatency_p50_us %d%nlatency_p99_us %d%nlatency_max_us %d",
+                    requests(), completed(), failed(), rejected(), timedOut(), throughput(),
+                    meanLatency().toNanos() / 1000, latencyPercentile(0.5).toNanos() / 1000,
+                    latencyPercentile(0.99).toNanos() / 1000, maxLatency().toNanos() / 1000);
+        }
+    }
+}
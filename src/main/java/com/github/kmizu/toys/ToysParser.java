@@ -0,0 +1,354 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.github.kmizu.toys.Ast.*;
+import static com.github.kmizu.toys.Lexer.*;
+
+/**
+ * A recursive-descent parser over {@link Lexer} tokens, using precedence climbing for binary operators.
+ * It accepts the same language as {@link Parsers} and builds the same trees in time linear in the input.
+ */
+public final class ToysParser {
+    private static final int NO_PRECEDENCE = -1;
+
+    private final Lexer lexer;
+    private int index;
+
+    private ToysParser(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    private ToysParser(String source) {
+        this(Lexer.tokenize(source));
+    }
+
+    public static Program parse(String source) {
+        return parse(source, 0, source.length());
+    }
+
+    /**
+     * Parses the definitions in the part of {@code source} from {@code from} inclusive to {@code to} exclusive,
+     * reporting errors at their positions in the whole of {@code source}.
+     */
+    public static Program parse(String source, int from, int to) {
+        var parser = new ToysParser(Lexer.tokenize(source, from, to));
+        var program = parser.program();
+        parser.expect(EOF);
+        return program;
+    }
+
+    public static Expression parseExpression(String source) {
+        var parser = new ToysParser(source);
+        var expression = parser.expression();
+        parser.expect(EOF);
+        return expression;
+    }
+
+    public static List<Expression> parseLines(String source) {
+        var parser = new ToysParser(source);
+        var lines = new ArrayList<Expression>();
+        do {
+            lines.add(parser.line());
+        } while(parser.peek() != EOF);
+        return lines;
+    }
+
+    private int peek() {
+        return lexer.kind(index);
+    }
+
+    private int peek(int offset) {
+        return lexer.kind(Math.min(index + offset, lexer.count() - 1));
+    }
+
+    private boolean accept(int kind) {
+        if(peek() == kind) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private int expect(int kind) {
+        if(peek() != kind) {
+            throw error(Lexer.describe(kind));
+        }
+        return index++;
+    }
+
+    private LanguageException error(String expected) {
+        var found = peek() == EOF ? Lexer.describe(EOF) : "'" + lexer.text(index) + "'";
+        return new LanguageException(lexer.position(lexer.start(index)) + ": expected " + expected + " but found " + found);
+    }
+
+    private String identifier() {
+        return lexer.text(expect(IDENT));
+    }
+
+    private void expectContextual(String keyword) {
+        if(peek() != IDENT || !lexer.textEquals(index, keyword)) {
+            throw error(keyword);
+        }
+        index++;
+    }
+
+    private Program program() {
+        var definitions = new ArrayList<TopLevel>();
+        while(peek() != EOF) {
+            definitions.add(topLevelDefinition());
+        }
+        return new Program(definitions);
+    }
+
+    private TopLevel topLevelDefinition() {
+        if(accept(GLOBAL)) {
+            var name = identifier();
+            expect(EQ);
+            var expression = expression();
+            expect(SEMI_COLON);
+            return new GlobalVariableDefinition(name, expression);
+        }
+        if(accept(DEFINE)) {
+            var name = identifier();
+            expect(LPAREN);
+            var args = new ArrayList<String>();
+            if(peek() != RPAREN) {
+                do {
+                    args.add(identifier());
+                } while(accept(COMMA));
+            }
+            expect(RPAREN);
+            return new FunctionDefinition(name, args, blockExpression());
+        }
+        throw error("global or define");
+    }
+
+    private BlockExpression blockExpression() {
+        expect(LBRACE);
+        var elements = new ArrayList<Expression>();
+        while(!accept(RBRACE)) {
+            elements.add(line());
+        }
+        return new BlockExpression(elements);
+    }
+
+    private Expression line() {
+        switch(peek()) {
+            case PRINTLN -> {
+                index++;
+                expect(LPAREN);
+                var arg = expression();
+                expect(RPAREN);
+                expect(SEMI_COLON);
+                return new Println(arg);
+            }
+            case WHILE -> {
+                index++;
+                var condition = parenthesized();
+                return new WhileExpression(condition, line());
+            }
+            case IF -> {
+                index++;
+                var condition = parenthesized();
+                var thenClause = line();
+                Optional<Expression> elseClause = accept(ELSE) ? Optional.of(line()) : Optional.empty();
+                return new IfExpression(condition, thenClause, elseClause);
+            }
+            case FOR -> {
+                return forInExpression();
+            }
+            case LBRACE -> {
+                return blockExpression();
+            }
+            default -> {
+                if(peek() == IDENT && peek(1) == EQ) {
+                    var name = identifier();
+                    index++;
+                    var expression = expression();
+                    expect(SEMI_COLON);
+                    return new Assignment(name, expression);
+                }
+                var expression = expression();
+                if(expression instanceof Index target && accept(EQ)) {
+                    expression = new IndexAssignment(target.array(), target.index(), expression());
+                }
+                expect(SEMI_COLON);
+                return expression;
+            }
+        }
+    }
+
+    private Expression parenthesized() {
+        expect(LPAREN);
+        var expression = expression();
+        expect(RPAREN);
+        return expression;
+    }
+
+    private Expression forInExpression() {
+        expect(FOR);
+        expect(LPAREN);
+        var name = identifier();
+        expectContextual("in");
+        var from = expression();
+        expectContextual("to");
+        var to = expression();
+        expect(RPAREN);
+        var body = line();
+        return Block(
+                Assignment(name, from),
+                While(
+                        lessThan(symbol(name), to),
+                        Block(
+                                body,
+                                Assignment(name, add(symbol(name), integer(1)))
+                        )
+                )
+        );
+    }
+
+    private Expression expression() {
+        return binary(0);
+    }
+
+    private static int precedence(int kind) {
+        return switch(kind) {
+            case LT, LT_EQ, GT, GT_EQ, EQEQ, NOT_EQ -> 0;
+            case PLUS, MINUS -> 1;
+            case ASTER, SLASH -> 2;
+            default -> NO_PRECEDENCE;
+        };
+    }
+
+    private static Operator operator(int kind) {
+        return switch(kind) {
+            case PLUS -> Operator.ADD;
+            case MINUS -> Operator.SUBTRACT;
+            case ASTER -> Operator.MULTIPLY;
+            case SLASH -> Operator.DIVIDE;
+            case LT -> Operator.LESS_THAN;
+            case LT_EQ -> Operator.LESS_OR_EQUAL;
+            case GT -> Operator.GREATER_THAN;
+            case GT_EQ -> Operator.GREATER_OR_EQUAL;
+            case EQEQ -> Operator.EQUAL_EQUAL;
+            case NOT_EQ -> Operator.NOT_EQUAL;
+            default -> throw new IllegalArgumentException(Lexer.describe(kind));
+        };
+    }
+
+    private Expression binary(int minimumPrecedence) {
+        var lhs = postfix();
+        while(true) {
+            int kind = peek();
+            int precedence = precedence(kind);
+            if(precedence < minimumPrecedence) {
+                return lhs;
+            }
+            index++;
+            var rhs = binary(precedence + 1);
+            lhs = new BinaryExpression(operator(kind), lhs, rhs);
+        }
+    }
+
+    private Expression postfix() {
+        var expression = primary();
+        while(accept(LBRACKET)) {
+            var index = expression();
+            expect(RBRACKET);
+            expression = new Index(expression, index);
+        }
+        return expression;
+    }
+
+    private Expression primary() {
+        switch(peek()) {
+            case LPAREN -> {
+                return parenthesized();
+            }
+            case INTEGER -> {
+                return integerLiteral(false);
+            }
+            case MINUS -> {
+                if(peek(1) == INTEGER && lexer.end(index) == lexer.start(index + 1)) {
+                    index++;
+                    return integerLiteral(true);
+                }
+                throw error("expression");
+            }
+            case TRUE -> {
+                index++;
+                return new BoolLiteral(true);
+            }
+            case FALSE -> {
+                index++;
+                return new BoolLiteral(false);
+            }
+            case LBRACKET -> {
+                index++;
+                return new ArrayLiteral(expressionsUntil(RBRACKET));
+            }
+            case PERCENT_LBRACKET -> {
+                index++;
+                var entries = new ArrayList<DictionaryEntry>();
+                if(!accept(RBRACKET)) {
+                    do {
+                        var key = expression();
+                        expect(COLON);
+                        entries.add(new DictionaryEntry(key, expression()));
+                    } while(accept(COMMA));
+                    expect(RBRACKET);
+                }
+                return new DictionaryLiteral(entries);
+            }
+            case IDENT -> {
+                var name = identifier();
+                if(accept(LPAREN)) {
+                    return new FunctionCall(name, expressionsUntil(RPAREN));
+                }
+                if(peek() == LBRACKET && (peek(1) == RBRACKET || (peek(1) == IDENT && peek(2) == EQ))) {
+                    index++;
+                    return new LabelledCall(name, labelledParameters());
+                }
+                return new Identifier(name);
+            }
+            default -> throw error("expression");
+        }
+    }
+
+    private Expression integerLiteral(boolean negative) {
+        int at = expect(INTEGER);
+        try {
+            var text = lexer.text(at);
+            return new IntegerLiteral(Long.parseLong(negative ? "-" + text : text));
+        } catch (NumberFormatException e) {
+            throw new LanguageException(lexer.position(lexer.start(at)) + ": integer literal is out of range");
+        }
+    }
+
+    private List<Expression> expressionsUntil(int close) {
+        var expressions = new ArrayList<Expression>();
+        if(!accept(close)) {
+            do {
+                expressions.add(expression());
+            } while(accept(COMMA));
+            expect(close);
+        }
+        return expressions;
+    }
+
+    private List<LabelledParameter> labelledParameters() {
+        var parameters = new ArrayList<LabelledParameter>();
+        if(!accept(RBRACKET)) {
+            do {
+                var label = identifier();
+                expect(EQ);
+                parameters.add(new LabelledParameter(label, expression()));
+            } while(accept(COMMA));
+            expect(RBRACKET);
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,268 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Infers, for resolved code, which kinds of value every expression, every local variable and every function may
+ * produce, and rejects code with an operation that fails whatever value reaches it, such as {@code 1 + true}, before
+ * any of it runs.
+ *
+ * The inference is flow-insensitive: a local variable has the type of everything assigned to it anywhere in its
+ * function, and a function the type of everything its body may evaluate to, computed for all the functions of a
+ * program together until nothing changes.  Parameters and globals may hold anything, as may the results of functions
+ * that are not loaded yet, since callers outside the program and code loaded later are not seen.  Integers of any
+ * size are {@link Type#INT}, so an integer that overflows a long is still an integer.
+ */
+public final class TypeChecker {
+    /**
+     * A set of kinds of value.  {@link #NOTHING} is the type of code that never produces a value, or that is not
+     * inferred yet.
+     */
+    public record Type(int kinds) {
+        public static final Type NOTHING = new Type(0);
+        public static final Type INT = new Type(1);
+        public static final Type BOOL = new Type(1 << 1);
+        public static final Type ARRAY = new Type(1 << 2);
+        public static final Type DICTIONARY = new Type(1 << 3);
+        public static final Type FUNCTION = new Type(1 << 4);
+        public static final Type NIL = new Type(1 << 5);
+        public static final Type ANY = new Type((1 << 6) - 1);
+        private static final String[] NAMES = {"Int", "Bool", "Array", "Dictionary", "Function", "Nil"};
+
+        public Type join(Type other) {
+            return new Type(kinds | other.kinds);
+        }
+
+        /**
+         * Whether a value of this type may also be of {@code other}.
+         */
+        public boolean overlaps(Type other) {
+            return (kinds & other.kinds) != 0;
+        }
+
+        @Override
+        public String toString() {
+            if(equals(ANY)) return "Any";
+            if(equals(NOTHING)) return "Nothing";
+            var names = new ArrayList<String>();
+            for(int i = 0; i < NAMES.length; i++) {
+                if((kinds & 1 << i) != 0) names.add(NAMES[i]);
+            }
+            return String.join(" | ", names);
+        }
+    }
+
+    /**
+     * What a function evaluates to, and what its body assigns to each slot of its frame.  A parameter is bound to
+     * whatever its caller passes before the body runs, which its slot does not include.
+     */
+    public record Signature(Type result, List<Type> slots) {}
+
+    private final Map<String, Signature> known;
+    private Map<String, Type> results = Map.of();
+
+    /**
+     * @param known the signatures of the functions loaded before, for calls of them
+     */
+    public TypeChecker(Map<String, Signature> known) {
+        this.known = known;
+    }
+
+    /**
+     * Infers the signatures of the functions of {@code program}, and checks them and its global definitions.
+     *
+     * @throws LanguageException for the first type error found
+     */
+    public Map<String, Signature> check(Ast.Program program) {
+        return check(program, true);
+    }
+
+    /**
+     * Infers the signatures of the functions of {@code program} without checking them, for code an optimization
+     * derived from code checked before.  Inlining a call on a path that never runs may well bring together what
+     * fails, such as {@code true + 1}, without the program being any less correct.
+     */
+    public Map<String, Signature> infer(Ast.Program program) {
+        return check(program, false);
+    }
+
+    private Map<String, Signature> check(Ast.Program program, boolean report) {
+        var functions = new LinkedHashMap<String, Ast.FunctionDefinition>();
+        var slots = new HashMap<String, Type[]>();
+        results = new HashMap<>();
+        for(var topLevel : program.definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition definition) {
+                functions.put(definition.name(), definition);
+                var types = new Type[definition.frameSize()];
+                Arrays.fill(types, Type.NOTHING);
+                slots.put(definition.name(), types);
+                results.put(definition.name(), Type.NOTHING);
+            }
+        }
+        // Types only grow, so an operation is known to fail only once they have stopped growing.
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(var definition : functions.values()) {
+                var scope = new Scope(definition.name(), definition.args().size(), slots.get(definition.name()), false);
+                var result = results.get(definition.name());
+                var joined = result.join(scope.check(definition.body()));
+                if(!joined.equals(result)) {
+                    results.put(definition.name(), joined);
+                    changed = true;
+                }
+                changed |= scope.changed;
+            }
+        }
+        var signatures = new HashMap<String, Signature>();
+        for(var definition : functions.values()) {
+            if(report) {
+                new Scope(definition.name(), definition.args().size(), slots.get(definition.name()), true).check(definition.body());
+            }
+            signatures.put(definition.name(), new Signature(results.get(definition.name()), List.of(slots.get(definition.name()))));
+        }
+        for(var topLevel : program.definitions()) {
+            if(report && topLevel instanceof Ast.GlobalVariableDefinition definition) {
+                new Scope(Profiler.TOP_LEVEL, 0, null, true).check(definition.expression());
+            }
+        }
+        results = Map.of();
+        return signatures;
+    }
+
+    /**
+     * Infers the type of top-level code, whose variables are all globals.
+     *
+     * @throws LanguageException for the first type error found
+     */
+    public Type check(Ast.Expression expression) {
+        return new Scope(Profiler.TOP_LEVEL, 0, null, true).check(expression);
+    }
+
+    private Type result(String function) {
+        var result = results.get(function);
+        if(result != null) return result;
+        var signature = known.get(function);
+        return signature == null ? Type.ANY : signature.result();
+    }
+
+    private static Type result(Ast.BuiltinCall call) {
+        return switch(call.builtin()) {
+            case LENGTH -> Type.INT;
+            case PUSH, SLICE, FILL, COPY, PARALLEL_MAP -> Type.ARRAY;
+            case CONTAINS, REMOVE, PARALLEL_FOR -> Type.BOOL;
+            case PARALLEL_REDUCE -> Type.ANY;
+        };
+    }
+
+    /**
+     * The code of one function, or top-level code when it has no slots of its own.
+     */
+    private final class Scope {
+        private final String name;
+        private final int arity;
+        private final Type[] slots;
+        private final boolean report;
+        private boolean changed;
+
+        private Scope(String name, int arity, Type[] slots, boolean report) {
+            this.name = name;
+            this.arity = arity;
+            this.slots = slots;
+            this.report = report;
+        }
+
+        private Type expect(Ast.Expression expression, Type expected, String operation) {
+            var type = check(expression);
+            if(report && !type.equals(Type.NOTHING) && !type.overlaps(expected)) {
+                throw new LanguageException("Type error in " + name + ": " + operation + " expects " + expected + ", not " + type);
+            }
+            return type;
+        }
+
+        private Type check(Ast.Expression expression) {
+            if(expression instanceof Ast.IntegerLiteral) {
+                return Type.INT;
+            } else if(expression instanceof Ast.BoolLiteral) {
+                return Type.BOOL;
+            } else if(expression instanceof Ast.FunctionReference) {
+                return Type.FUNCTION;
+            } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+                var operator = binaryExpression.operator().getName();
+                expect(binaryExpression.lhs(), Type.INT, operator);
+                expect(binaryExpression.rhs(), Type.INT, operator);
+                return switch(binaryExpression.operator()) {
+                    case ADD, SUBTRACT, MULTIPLY, DIVIDE -> Type.INT;
+                    default -> Type.BOOL;
+                };
+            } else if(expression instanceof Ast.ResolvedIdentifier identifier) {
+                if(slots == null || identifier.depth() != 0 || identifier.slot() < arity) {
+                    return Type.ANY;
+                }
+                return slots[identifier.slot()];
+            } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+                var type = check(assignment.expression());
+                if(slots != null && assignment.depth() == 0) {
+                    var joined = slots[assignment.slot()].join(type);
+                    if(!joined.equals(slots[assignment.slot()])) {
+                        slots[assignment.slot()] = joined;
+                        changed = true;
+                    }
+                }
+                return type;
+            } else if(expression instanceof Ast.ResolvedCall call) {
+                call.args().forEach(this::check);
+                return result(call.site().name());
+            } else if(expression instanceof Ast.BuiltinCall call) {
+                call.args().forEach(this::check);
+                return result(call);
+            } else if(expression instanceof Ast.BlockExpression block) {
+                var type = Type.NIL;
+                for(var element : block.elements()) {
+                    type = check(element);
+                }
+                return type;
+            } else if(expression instanceof Ast.Println println) {
+                return check(println.arg());
+            } else if(expression instanceof Ast.IfExpression ifExpression) {
+                expect(ifExpression.condition(), Type.BOOL, "if");
+                var type = check(ifExpression.thenClause());
+                return type.join(ifExpression.elseClause().map(this::check).orElse(Type.NIL));
+            } else if(expression instanceof Ast.WhileExpression whileExpression) {
+                expect(whileExpression.condition(), Type.BOOL, "while");
+                check(whileExpression.body());
+                return Type.BOOL;
+            } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+                arrayLiteral.items().forEach(this::check);
+                return Type.ARRAY;
+            } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+                for(var entry : dictionaryLiteral.entries()) {
+                    check(entry.key());
+                    check(entry.value());
+                }
+                return Type.DICTIONARY;
+            } else if(expression instanceof Ast.Index index) {
+                checkIndex(index.array(), index.index());
+                return Type.ANY;
+            } else if(expression instanceof Ast.IndexAssignment assignment) {
+                checkIndex(assignment.array(), assignment.index());
+                return check(assignment.expression());
+            }
+            return Type.ANY;
+        }
+
+        private void checkIndex(Ast.Expression target, Ast.Expression key) {
+            var type = expect(target, Type.ARRAY.join(Type.DICTIONARY), "[]");
+            if(type.equals(Type.ARRAY)) {
+                expect(key, Type.INT, "[]");
+            } else {
+                check(key);
+            }
+        }
+    }
+}
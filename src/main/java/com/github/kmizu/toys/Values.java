@@ -1,10 +1,18 @@
 package com.github.kmizu.toys;
 
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public class Values {
-    public sealed interface Value permits Int, Bool, Array, Dictionary {
+    public sealed interface Value permits Int, BigInt, Bool, Array, Dictionary, FunctionReference {
         default Int asInt() {
             return (Int)this;
         }
@@ -18,15 +26,843 @@ public class Values {
             return (Bool)this;
         }
     }
-    public final static record Int(int value) implements Value {}
-    public final static record Array(List<? extends Value> values) implements Value {}
-    public final static record Dictionary(Map<? extends Value, ? super Value> entries) implements Value {}
-    public final static record Bool(boolean value) implements Value {}
+    /**
+     * An integer in the range of a long.  Integers outside that range are {@link BigInt}s.
+     */
+    public final static record Int(long value) implements Value {
+        private static final int CACHE_LOW = -128;
+        private static final int CACHE_HIGH = 1024;
+        private static final Int[] CACHE = new Int[CACHE_HIGH - CACHE_LOW];
+        static {
+            for(int i = 0; i < CACHE.length; i++) {
+                CACHE[i] = new Int(i + CACHE_LOW);
+            }
+        }
+        public static Int of(long value) {
+            if(CACHE_LOW <= value && value < CACHE_HIGH) return CACHE[(int)value - CACHE_LOW];
+            return new Int(value);
+        }
+
+        /**
+         * The value as an index or a count.
+         */
+        public int intValue() {
+            return Values.intValue(value);
+        }
+    }
+
+    /**
+     * An integer that does not fit in a long.  Arithmetic produces one only on overflow, and turns results that
+     * fit in a long back into {@link Int}s, so every integer has exactly one representation.
+     */
+    public final static record BigInt(BigInteger value) implements Value {}
+
+    /**
+     * Thrown by the overflow-checked long arithmetic below when a result does not fit in a long, and by engines
+     * evaluating an expression as a long when its value is not an {@link Int}.  It carries the actual value, so
+     * the caller continues with generic arithmetic without evaluating anything twice.
+     */
+    public static final class Promoted extends RuntimeException {
+        public final Value value;
+
+        public Promoted(Value value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+    /**
+     * An array value.  Its elements are stored unboxed in an {@link IntArray} or a {@link BoolArray} while they are
+     * all of one primitive kind, and in a {@link GenericArray} otherwise.  Two arrays are equal when they hold
+     * equal elements, whatever their storage.
+     */
+    public final static class Array implements Value {
+        private Elements elements;
+
+        public Array(List<? extends Value> values) {
+            this.elements = Elements.of(values);
+        }
+
+        public Array(int[] values) {
+            this.elements = new IntArray(values, values.length);
+        }
+
+        public Array(long[] values) {
+            var ints = new int[values.length];
+            for(int i = 0; i < values.length; i++) {
+                ints[i] = (int)values[i];
+                if(ints[i] != values[i]) {
+                    this.elements = Elements.of(Arrays.stream(values).mapToObj(Int::of).toList());
+                    return;
+                }
+            }
+            this.elements = new IntArray(ints, ints.length);
+        }
+
+        private Array(Elements elements) {
+            this.elements = elements;
+        }
+
+        public Elements elements() {
+            return elements;
+        }
+
+        public int length() {
+            return elements.length();
+        }
+
+        public Value get(int index) {
+            return elements.get(checkIndex(index));
+        }
+
+        /**
+         * The element at {@code index} as a long, or {@link Promoted} if it is not an {@link Int}.
+         */
+        public long getLong(int index) {
+            return elements instanceof IntArray ints ? ints.values[checkIndex(index)] : longValue(get(index));
+        }
+
+        public boolean getBool(int index) {
+            return elements instanceof BoolArray bools ? bools.bits.get(checkIndex(index)) : get(index).asBool().value();
+        }
+
+        /**
+         * Replaces the element at {@code index}, first moving the elements to a {@link GenericArray}
+         * if the current storage cannot hold {@code value}.
+         */
+        public void set(int index, Value value) {
+            checkIndex(index);
+            if(!elements.set(index, value)) {
+                elements = new GenericArray(new ArrayList<>(values()));
+                elements.set(index, value);
+            }
+        }
+
+        /**
+         * Appends {@code value}, growing the storage in place.  An empty array takes the storage of its first element.
+         */
+        public void push(Value value) {
+            if(elements.length() == 0 && !(elements instanceof IntArray || elements instanceof BoolArray)) {
+                elements = Elements.of(Collections.singletonList(value));
+            } else if(!elements.add(value)) {
+                elements = new GenericArray(new ArrayList<>(values()));
+                elements.add(value);
+            }
+        }
+
+        /**
+         * Sets every element to {@code value}, changing the storage to the one that holds it best.
+         */
+        public void fill(Value value) {
+            if(!elements.fill(value)) {
+                elements = Elements.filled(elements.length(), value);
+            }
+        }
+
+        /**
+         * A new array holding the elements from {@code from} inclusive to {@code to} exclusive, in the same storage.
+         */
+        public Array slice(int from, int to) {
+            if(from < 0 || to > elements.length() || from > to) {
+                throw new LanguageException("Range " + from + " to " + to + " is out of bounds for length " + elements.length());
+            }
+            return new Array(elements.slice(from, to));
+        }
+
+        public Array copy() {
+            return new Array(elements.slice(0, elements.length()));
+        }
+
+        /**
+         * A live view of the elements.  Elements of primitive storage are boxed as they are read.
+         */
+        public List<Value> values() {
+            return new AbstractList<>() {
+                @Override
+                public Value get(int index) {
+                    return elements.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return elements.length();
+                }
+            };
+        }
+
+        private int checkIndex(int index) {
+            if(index < 0 || index >= elements.length()) {
+                throw new LanguageException("Index " + index + " is out of bounds for length " + elements.length());
+            }
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Array array && values().equals(array.values());
+        }
+
+        @Override
+        public int hashCode() {
+            return values().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Array[values=" + values() + "]";
+        }
+    }
+
+    public sealed interface Elements permits IntArray, BoolArray, GenericArray {
+        int length();
+
+        Value get(int index);
+
+        /**
+         * Stores {@code value} at {@code index} and returns true, or returns false if this storage cannot hold it.
+         */
+        boolean set(int index, Value value);
+
+        /**
+         * Appends {@code value} and returns true, or returns false if this storage cannot hold it.
+         */
+        boolean add(Value value);
+
+        /**
+         * Sets every element to {@code value} and returns true, or returns false if this storage cannot hold it.
+         */
+        boolean fill(Value value);
+
+        Elements slice(int from, int to);
+
+        static Elements filled(int length, Value value) {
+            if(IntArray.holds(value)) {
+                var ints = new int[length];
+                Arrays.fill(ints, (int)value.asInt().value());
+                return new IntArray(ints, length);
+            } else if(value instanceof Bool v) {
+                var bits = new BitSet(length);
+                bits.set(0, length, v.value());
+                return new BoolArray(bits, length);
+            }
+            return new GenericArray(new ArrayList<>(Collections.nCopies(length, value)));
+        }
+
+        static Elements of(List<? extends Value> values) {
+            int length = values.size();
+            if(length > 0 && values.stream().allMatch(IntArray::holds)) {
+                var ints = new int[length];
+                for(int i = 0; i < length; i++) {
+                    ints[i] = (int)values.get(i).asInt().value();
+                }
+                return new IntArray(ints, length);
+            }
+            if(length > 0 && values.stream().allMatch(v -> v instanceof Bool)) {
+                var bits = new BitSet(length);
+                for(int i = 0; i < length; i++) {
+                    bits.set(i, values.get(i).asBool().value());
+                }
+                return new BoolArray(bits, length);
+            }
+            return new GenericArray(new ArrayList<>(values));
+        }
+    }
+
+    /**
+     * Storage for {@link Int}s that fit in an int.
+     */
+    public final static class IntArray implements Elements {
+        int[] values;
+        int length;
+
+        IntArray(int[] values, int length) {
+            this.values = values;
+            this.length = length;
+        }
+
+        static boolean holds(Value value) {
+            return value instanceof Int v && (int)v.value() == v.value();
+        }
+
+        public int[] values() {
+            return Arrays.copyOf(values, length);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public Value get(int index) {
+            return Int.of(values[index]);
+        }
+
+        @Override
+        public boolean set(int index, Value value) {
+            if(holds(value)) {
+                values[index] = (int)value.asInt().value();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean add(Value value) {
+            if(!holds(value)) {
+                return false;
+            }
+            if(length == values.length) {
+                values = Arrays.copyOf(values, Math.max(8, length * 2));
+            }
+            values[length++] = (int)value.asInt().value();
+            return true;
+        }
+
+        @Override
+        public boolean fill(Value value) {
+            if(holds(value)) {
+                Arrays.fill(values, 0, length, (int)value.asInt().value());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Elements slice(int from, int to) {
+            return new IntArray(Arrays.copyOfRange(values, from, to), to - from);
+        }
+    }
+
+    public final static class BoolArray implements Elements {
+        final BitSet bits;
+        int length;
+
+        BoolArray(BitSet bits, int length) {
+            this.bits = bits;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public Value get(int index) {
+            return Bool.of(bits.get(index));
+        }
+
+        @Override
+        public boolean set(int index, Value value) {
+            if(value instanceof Bool v) {
+                bits.set(index, v.value());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean add(Value value) {
+            if(value instanceof Bool v) {
+                bits.set(length++, v.value());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean fill(Value value) {
+            if(value instanceof Bool v) {
+                bits.set(0, length, v.value());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Elements slice(int from, int to) {
+            return new BoolArray(bits.get(from, to), to - from);
+        }
+    }
+
+    public final static class GenericArray implements Elements {
+        final ArrayList<Value> values;
+
+        GenericArray(ArrayList<Value> values) {
+            this.values = values;
+        }
+
+        @Override
+        public int length() {
+            return values.size();
+        }
+
+        @Override
+        public Value get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public boolean set(int index, Value value) {
+            values.set(index, value);
+            return true;
+        }
+
+        @Override
+        public boolean add(Value value) {
+            values.add(value);
+            return true;
+        }
+
+        @Override
+        public boolean fill(Value value) {
+            if(IntArray.holds(value) || value instanceof Bool) {
+                return false;
+            }
+            Collections.fill(values, value);
+            return true;
+        }
+
+        @Override
+        public Elements slice(int from, int to) {
+            return new GenericArray(new ArrayList<>(values.subList(from, to)));
+        }
+    }
+    /**
+     * A mutable dictionary held in two open-addressing tables with linear probing: one keyed by unboxed ints for
+     * {@link Int} keys, one for every other key.  Neither allocates per entry, and removal shifts later entries
+     * back instead of leaving tombstones.
+     */
+    public final static class Dictionary implements Value {
+        private final IntTable ints = new IntTable();
+        private final ValueTable others = new ValueTable();
+
+        public int size() {
+            return ints.size + others.size;
+        }
+
+        public Value get(Value key) {
+            return key instanceof Int k ? get(k.value()) : others.get(key);
+        }
+
+        public Value get(long key) {
+            return ints.get(key);
+        }
+
+        public void put(Value key, Value value) {
+            if(key instanceof Int k) {
+                ints.put(k.value(), value);
+            } else {
+                others.put(key, value);
+            }
+        }
+
+        public void put(long key, Value value) {
+            ints.put(key, value);
+        }
+
+        public boolean containsKey(Value key) {
+            return key instanceof Int k ? ints.find(k.value()) >= 0 : others.find(key) >= 0;
+        }
+
+        /**
+         * Removes the entry for {@code key} and returns whether there was one.
+         */
+        public boolean remove(Value key) {
+            return key instanceof Int k ? ints.remove(k.value()) : others.remove(key);
+        }
+
+        /**
+         * A snapshot of the entries.
+         */
+        public Map<Value, Value> entries() {
+            var entries = new HashMap<Value, Value>(size() * 2);
+            for(int i = 0; i < ints.keys.length; i++) {
+                if(ints.used[i]) entries.put(Int.of(ints.keys[i]), ints.values[i]);
+            }
+            for(int i = 0; i < others.keys.length; i++) {
+                if(others.used[i]) entries.put(others.keys[i], others.values[i]);
+            }
+            return entries;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Dictionary dictionary && entries().equals(dictionary.entries());
+        }
+
+        @Override
+        public int hashCode() {
+            return entries().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Dictionary[entries=" + entries() + "]";
+        }
+
+        private static int slot(int hash, int mask) {
+            int h = hash * 0x9E3779B9;
+            return (h ^ h >>> 16) & mask;
+        }
+
+        private static LanguageException notFound(Object key) {
+            return new LanguageException("Key " + key + " is not found");
+        }
+
+        /**
+         * Whether the entry at {@code from}, whose home slot is {@code home}, may move back to the hole at {@code hole}
+         * without becoming unreachable from its home.
+         */
+        private static boolean movable(int hole, int from, int home) {
+            return hole <= from ? (home <= hole || home > from) : (home <= hole && home > from);
+        }
+
+        private static final class IntTable {
+            private long[] keys = new long[8];
+            private Value[] values = new Value[8];
+            private boolean[] used = new boolean[8];
+            private int size;
+
+            int find(long key) {
+                int mask = keys.length - 1;
+                for(int i = slot(Long.hashCode(key), mask); used[i]; i = (i + 1) & mask) {
+                    if(keys[i] == key) return i;
+                }
+                return -1;
+            }
+
+            Value get(long key) {
+                int i = find(key);
+                if(i < 0) throw notFound(key);
+                return values[i];
+            }
+
+            void put(long key, Value value) {
+                int mask = keys.length - 1;
+                int i = slot(Long.hashCode(key), mask);
+                while(used[i]) {
+                    if(keys[i] == key) {
+                        values[i] = value;
+                        return;
+                    }
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = key;
+                values[i] = value;
+                if(++size * 2 > keys.length) {
+                    grow();
+                }
+            }
+
+            boolean remove(long key) {
+                int hole = find(key);
+                if(hole < 0) return false;
+                int mask = keys.length - 1;
+                for(int i = (hole + 1) & mask; used[i]; i = (i + 1) & mask) {
+                    if(movable(hole, i, slot(Long.hashCode(keys[i]), mask))) {
+                        keys[hole] = keys[i];
+                        values[hole] = values[i];
+                        hole = i;
+                    }
+                }
+                used[hole] = false;
+                values[hole] = null;
+                size--;
+                return true;
+            }
+
+            private void grow() {
+                var oldKeys = keys;
+                var oldValues = values;
+                var oldUsed = used;
+                keys = new long[oldKeys.length * 2];
+                values = new Value[oldKeys.length * 2];
+                used = new boolean[oldKeys.length * 2];
+                size = 0;
+                for(int i = 0; i < oldKeys.length; i++) {
+                    if(oldUsed[i]) put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static final class ValueTable {
+            private Value[] keys = new Value[8];
+            private Value[] values = new Value[8];
+            private boolean[] used = new boolean[8];
+            private int size;
+
+            int find(Value key) {
+                int mask = keys.length - 1;
+                for(int i = slot(Objects.hashCode(key), mask); used[i]; i = (i + 1) & mask) {
+                    if(Objects.equals(keys[i], key)) return i;
+                }
+                return -1;
+            }
+
+            Value get(Value key) {
+                int i = find(key);
+                if(i < 0) throw notFound(key);
+                return values[i];
+            }
+
+            void put(Value key, Value value) {
+                int mask = keys.length - 1;
+                int i = slot(Objects.hashCode(key), mask);
+                while(used[i]) {
+                    if(Objects.equals(keys[i], key)) {
+                        values[i] = value;
+                        return;
+                    }
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = key;
+                values[i] = value;
+                if(++size * 2 > keys.length) {
+                    grow();
+                }
+            }
+
+            boolean remove(Value key) {
+                int hole = find(key);
+                if(hole < 0) return false;
+                int mask = keys.length - 1;
+                for(int i = (hole + 1) & mask; used[i]; i = (i + 1) & mask) {
+                    if(movable(hole, i, slot(Objects.hashCode(keys[i]), mask))) {
+                        keys[hole] = keys[i];
+                        values[hole] = values[i];
+                        hole = i;
+                    }
+                }
+                used[hole] = false;
+                keys[hole] = null;
+                values[hole] = null;
+                size--;
+                return true;
+            }
+
+            private void grow() {
+                var oldKeys = keys;
+                var oldValues = values;
+                var oldUsed = used;
+                keys = new Value[oldKeys.length * 2];
+                values = new Value[oldKeys.length * 2];
+                used = new boolean[oldKeys.length * 2];
+                size = 0;
+                for(int i = 0; i < oldKeys.length; i++) {
+                    if(oldUsed[i]) put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+    public final static record Bool(boolean value) implements Value {
+        public static final Bool TRUE = new Bool(true);
+        public static final Bool FALSE = new Bool(false);
+        public static Bool of(boolean value) {
+            return value ? TRUE : FALSE;
+        }
+    }
+    /**
+     * A function of the program, named where a value is expected so that it can be passed to builtins.
+     */
+    public final static record FunctionReference(String name) implements Value {}
+
+    public static Value integer(BigInteger value) {
+        return value.bitLength() < 64 ? Int.of(value.longValue()) : new BigInt(value);
+    }
+
+    /**
+     * The value of an {@link Int}, or {@link Promoted} carrying any other value.
+     */
+    public static long longValue(Value value) {
+        if(value instanceof Int v) {
+            return v.value();
+        }
+        throw new Promoted(value);
+    }
+
+    public static int intValue(long value) {
+        if((int)value != value) {
+            throw new LanguageException(value + " is out of int range");
+        }
+        return (int)value;
+    }
+
+    /**
+     * The value as an index or a count.
+     */
+    public static int intValue(Value value) {
+        if(value instanceof BigInt big) {
+            throw new LanguageException(big.value() + " is out of int range");
+        }
+        return value.asInt().intValue();
+    }
+
+    private static BigInteger big(Value value) {
+        return value instanceof BigInt big ? big.value() : BigInteger.valueOf(value.asInt().value());
+    }
+
+    public static long addExact(long lhs, long rhs) {
+        long result = lhs + rhs;
+        if(((lhs ^ result) & (rhs ^ result)) < 0) {
+            throw new Promoted(new BigInt(BigInteger.valueOf(lhs).add(BigInteger.valueOf(rhs))));
+        }
+        return result;
+    }
+
+    public static long subtractExact(long lhs, long rhs) {
+        long result = lhs - rhs;
+        if(((lhs ^ rhs) & (lhs ^ result)) < 0) {
+            throw new Promoted(new BigInt(BigInteger.valueOf(lhs).subtract(BigInteger.valueOf(rhs))));
+        }
+        return result;
+    }
+
+    public static long multiplyExact(long lhs, long rhs) {
+        long high = Math.multiplyHigh(lhs, rhs);
+        long result = lhs * rhs;
+        if(high != result >> 63) {
+            throw new Promoted(new BigInt(BigInteger.valueOf(lhs).multiply(BigInteger.valueOf(rhs))));
+        }
+        return result;
+    }
+
+    public static long divideExact(long lhs, long rhs) {
+        if(lhs == Long.MIN_VALUE && rhs == -1) {
+            throw new Promoted(new BigInt(BigInteger.valueOf(lhs).negate()));
+        }
+        return lhs / rhs;
+    }
+
+    /**
+     * Applies an arithmetic operator to two longs, throwing {@link Promoted} if the result does not fit.
+     */
+    public static long arithmetic(Operator operator, long lhs, long rhs) {
+        return switch(operator) {
+            case ADD -> addExact(lhs, rhs);
+            case SUBTRACT -> subtractExact(lhs, rhs);
+            case MULTIPLY -> multiplyExact(lhs, rhs);
+            case DIVIDE -> divideExact(lhs, rhs);
+            default -> throw new LanguageException(operator + " is not arithmetic");
+        };
+    }
+
+    public static Value arithmetic(Operator operator, Value lhs, Value rhs) {
+        if(lhs instanceof Int l && rhs instanceof Int r) {
+            try {
+                return Int.of(arithmetic(operator, l.value(), r.value()));
+            } catch (Promoted e) {
+                return e.value;
+            }
+        }
+        var l = big(lhs);
+        var r = big(rhs);
+        return integer(switch(operator) {
+            case ADD -> l.add(r);
+            case SUBTRACT -> l.subtract(r);
+            case MULTIPLY -> l.multiply(r);
+            case DIVIDE -> l.divide(r);
+            default -> throw new LanguageException(operator + " is not arithmetic");
+        });
+    }
+
+    public static boolean compare(Operator operator, long lhs, long rhs) {
+        return switch(operator) {
+            case LESS_THAN -> lhs < rhs;
+            case LESS_OR_EQUAL -> lhs <= rhs;
+            case GREATER_THAN -> lhs > rhs;
+            case GREATER_OR_EQUAL -> lhs >= rhs;
+            case EQUAL_EQUAL -> lhs == rhs;
+            case NOT_EQUAL -> lhs != rhs;
+            default -> throw new LanguageException(operator + " is not a comparison");
+        };
+    }
+
+    public static boolean compare(Operator operator, Value lhs, Value rhs) {
+        if(lhs instanceof Int l && rhs instanceof Int r) {
+            return compare(operator, l.value(), r.value());
+        }
+        return compare(operator, big(lhs).compareTo(big(rhs)), 0);
+    }
+
+    /**
+     * Reads {@code target[key]} of an array or a dictionary.
+     */
+    public static Value index(Value target, Value key) {
+        if(target instanceof Dictionary dictionary) {
+            return dictionary.get(key);
+        }
+        return target.asArray().get(intValue(key));
+    }
+
+    /**
+     * Performs {@code target[key] = value} on an array or a dictionary, and returns whether it added an entry.
+     */
+    public static boolean store(Value target, Value key, Value value) {
+        if(target instanceof Dictionary dictionary) {
+            int size = dictionary.size();
+            dictionary.put(key, value);
+            return dictionary.size() > size;
+        }
+        target.asArray().set(intValue(key), value);
+        return false;
+    }
+
+    /**
+     * Appends {@code value} to {@code out} as {@code println} shows it, with {@code nil} for no value.
+     */
+    public static void show(Value value, StringBuilder out) {
+        if(value instanceof Int v) {
+            out.append(v.value());
+        } else if(value instanceof BigInt v) {
+            out.append(v.value());
+        } else if(value instanceof Bool v) {
+            out.append(v.value());
+        } else if(value instanceof Array v) {
+            out.append('[');
+            for(int i = 0; i < v.length(); i++) {
+                if(i > 0) out.append(", ");
+                show(v.get(i), out);
+            }
+            out.append(']');
+        } else if(value instanceof Dictionary v) {
+            out.append("%[");
+            boolean first = true;
+            for(var entry : v.entries().entrySet()) {
+                if(!first) out.append(", ");
+                first = false;
+                show(entry.getKey(), out);
+                out.append(": ");
+                show(entry.getValue(), out);
+            }
+            out.append(']');
+        } else if(value instanceof FunctionReference v) {
+            out.append(v.name());
+        } else {
+            out.append("nil");
+        }
+    }
+
+    public static String show(Value value) {
+        var out = new StringBuilder();
+        show(value, out);
+        return out.toString();
+    }
+
     public static Value wrap(Object javaValue) {
-        if(javaValue instanceof Integer v) return new Int(v);
-        if(javaValue instanceof Boolean v) return new Bool(v);
+        if(javaValue instanceof Integer v) return Int.of(v);
+        if(javaValue instanceof Long v) return Int.of(v);
+        if(javaValue instanceof BigInteger v) return integer(v);
+        if(javaValue instanceof Boolean v) return Bool.of(v);
         if(javaValue instanceof List<?> v) return new Array((List<Value>)v);
-        if(javaValue instanceof Map<?, ?> v) return new Dictionary((Map<Value, Value>)v);
+        if(javaValue instanceof int[] v) return new Array(v);
+        if(javaValue instanceof Map<?, ?> v) {
+            var dictionary = new Dictionary();
+            v.forEach((key, value) -> dictionary.put((Value)key, (Value)value));
+            return dictionary;
+        }
         throw new LanguageException("must not reach here");
     }
 }
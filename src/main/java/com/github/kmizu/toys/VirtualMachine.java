@@ -0,0 +1,284 @@
+package com.github.kmizu.toys;
+
+import java.util.Arrays;
+
+import static com.github.kmizu.toys.Values.*;
+import static com.github.kmizu.toys.VmCode.*;
+
+/**
+ * Executes {@link VmCode} with a single switch-dispatched loop.  Locals live on the operand stack
+ * below the temporaries of each call, and calls push onto an explicit call stack instead of
+ * recursing in Java.  Tail calls overwrite the caller's locals and push nothing.
+ */
+public class VirtualMachine {
+    private final VmCode.Module module;
+    private final Frame globalFrame;
+    private Value[] stack = new Value[256];
+    private VmCode.Function[] callFunctions = new VmCode.Function[64];
+    private int[] callPcs = new int[64];
+    private int[] callFps = new int[64];
+
+    public VirtualMachine(VmCode.Module module, Frame globalFrame) {
+        this.module = module;
+        this.globalFrame = globalFrame;
+    }
+
+    public VmCode.Module module() {
+        return module;
+    }
+
+    private void ensureStack(int size) {
+        if(size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        }
+    }
+
+    private void ensureCallStack(int depth) {
+        if(depth >= callPcs.length) {
+            callFunctions = Arrays.copyOf(callFunctions, callFunctions.length * 2);
+            callPcs = Arrays.copyOf(callPcs, callPcs.length * 2);
+            callFps = Arrays.copyOf(callFps, callFps.length * 2);
+        }
+    }
+
+    public Value call(VmCode.Function function, Value... args) {
+        if(args.length < function.arity()) {
+            throw new LanguageException("Function " + function.name() + " takes " + function.arity() + " arguments");
+        }
+        ensureStack(function.frameSize() + function.maxStack());
+        System.arraycopy(args, 0, stack, 0, function.arity());
+        Arrays.fill(stack, function.arity(), function.frameSize(), null);
+        var meter = globalFrame.meter();
+        int depth = meter.depth();
+        try {
+            meter.enter(function.name());
+            return run(function, 0, meter);
+        } finally {
+            meter.unwind(depth);
+        }
+    }
+
+    public Value call(String name, Value... args) {
+        var function = module.function(name);
+        if(function == null) {
+            throw new LanguageException("Function " + name + " is not found");
+        }
+        if(args.length != function.arity()) {
+            throw new LanguageException("Function " + name + " takes " + function.arity() + " arguments");
+        }
+        return call(function, args);
+    }
+
+    /**
+     * A machine sharing the module and the globals of this one but with stacks and a meter of its own, for
+     * builtins that call functions, possibly on other threads.
+     */
+    private Builtin.Caller worker() {
+        return new VirtualMachine(module, globalFrame.fork())::call;
+    }
+
+    /**
+     * Calls made inside the loop are charged to {@code meter} as they are entered and returned from; the caller
+     * unwinds the depth of those left by an exception.
+     */
+    private Value run(VmCode.Function entry, int entryFp, Meter meter) {
+        var function = entry;
+        var code = function.code();
+        var constants = function.constants();
+        var stack = this.stack;
+        int fp = entryFp;
+        int sp = fp + function.frameSize();
+        int pc = 0;
+        int depth = 0;
+        while(true) {
+            switch(code[pc++]) {
+                case CONST -> stack[sp++] = constants[code[pc++]];
+                case NIL -> stack[sp++] = null;
+                case LOAD_LOCAL -> {
+                    int slot = code[pc++];
+                    var value = stack[fp + slot];
+                    if(value == null) {
+                        throw new LanguageException("Variable " + function.localNames()[slot] + " is not defined");
+                    }
+                    stack[sp++] = value;
+                }
+                case STORE_LOCAL -> stack[fp + code[pc++]] = stack[--sp];
+                case LOAD_GLOBAL -> {
+                    int slot = code[pc++];
+                    var value = slot < globalFrame.size() ? globalFrame.get(slot) : null;
+                    if(value == null) {
+                        throw new LanguageException("Variable " + module.globalName(slot) + " is not defined");
+                    }
+                    stack[sp++] = value;
+                }
+                case STORE_GLOBAL -> globalFrame.set(code[pc++], stack[--sp]);
+                case ADD -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = arithmetic(Operator.ADD, stack[sp - 1], rhs);
+                }
+                case SUB -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = arithmetic(Operator.SUBTRACT, stack[sp - 1], rhs);
+                }
+                case MUL -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = arithmetic(Operator.MULTIPLY, stack[sp - 1], rhs);
+                }
+                case DIV -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = arithmetic(Operator.DIVIDE, stack[sp - 1], rhs);
+                }
+                case LT -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = Bool.of(compare(Operator.LESS_THAN, stack[sp - 1], rhs));
+                }
+                case LE -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = Bool.of(compare(Operator.LESS_OR_EQUAL, stack[sp - 1], rhs));
+                }
+                case GT -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = Bool.of(compare(Operator.GREATER_THAN, stack[sp - 1], rhs));
+                }
+                case GE -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = Bool.of(compare(Operator.GREATER_OR_EQUAL, stack[sp - 1], rhs));
+                }
+                case EQ -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = Bool.of(compare(Operator.EQUAL_EQUAL, stack[sp - 1], rhs));
+                }
+                case NE -> {
+                    var rhs = stack[--sp];
+                    stack[sp - 1] = Bool.of(compare(Operator.NOT_EQUAL, stack[sp - 1], rhs));
+                }
+                case JUMP -> pc = code[pc];
+                case LOOP -> {
+                    meter.loop(function.loops()[code[pc + 1]]);
+                    pc = code[pc];
+                }
+                case JUMP_IF_FALSE -> {
+                    if(stack[--sp].asBool().value()) {
+                        pc++;
+                    } else {
+                        pc = code[pc];
+                    }
+                }
+                case POP -> sp--;
+                case DUP -> {
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                }
+                case CALL -> {
+                    int id = code[pc++];
+                    int argc = code[pc++];
+                    var callee = module.function(id);
+                    if(callee == null) {
+                        throw new LanguageException("Function " + module.functionName(id) + " is not found");
+                    }
+                    if(argc != callee.arity()) {
+                        throw new LanguageException("Function " + callee.name() + " takes " + callee.arity() + " arguments");
+                    }
+                    meter.enter(callee.name());
+                    ensureCallStack(depth);
+                    callFunctions[depth] = function;
+                    callPcs[depth] = pc;
+                    callFps[depth] = fp;
+                    depth++;
+                    fp = sp - callee.arity();
+                    int top = fp + callee.frameSize() + callee.maxStack();
+                    if(top > stack.length) {
+                        ensureStack(top);
+                        stack = this.stack;
+                    }
+                    for(int i = sp; i < fp + callee.frameSize(); i++) {
+                        stack[i] = null;
+                    }
+                    sp = fp + callee.frameSize();
+                    function = callee;
+                    code = callee.code();
+                    constants = callee.constants();
+                    pc = 0;
+                }
+                case TAIL_CALL -> {
+                    int id = code[pc++];
+                    int argc = code[pc++];
+                    var callee = module.function(id);
+                    if(callee == null) {
+                        throw new LanguageException("Function " + module.functionName(id) + " is not found");
+                    }
+                    if(argc != callee.arity()) {
+                        throw new LanguageException("Function " + callee.name() + " takes " + callee.arity() + " arguments");
+                    }
+                    meter.tailCall(callee.name());
+                    System.arraycopy(stack, sp - argc, stack, fp, callee.arity());
+                    int top = fp + callee.frameSize() + callee.maxStack();
+                    if(top > stack.length) {
+                        ensureStack(top);
+                        stack = this.stack;
+                    }
+                    Arrays.fill(stack, fp + callee.arity(), fp + callee.frameSize(), null);
+                    sp = fp + callee.frameSize();
+                    function = callee;
+                    code = callee.code();
+                    constants = callee.constants();
+                    pc = 0;
+                }
+                case RETURN -> {
+                    var result = stack[sp - 1];
+                    if(depth == 0) {
+                        return result;
+                    }
+                    meter.exit();
+                    sp = fp;
+                    depth--;
+                    function = callFunctions[depth];
+                    pc = callPcs[depth];
+                    fp = callFps[depth];
+                    code = function.code();
+                    constants = function.constants();
+                    stack[sp++] = result;
+                }
+                case ARRAY -> {
+                    int count = code[pc++];
+                    meter.allocate(count);
+                    var array = new Array(Arrays.asList(stack).subList(sp - count, sp));
+                    sp -= count;
+                    stack[sp++] = array;
+                }
+                case INDEX -> {
+                    var key = stack[--sp];
+                    stack[sp - 1] = index(stack[sp - 1], key);
+                }
+                case STORE_INDEX -> {
+                    var value = stack[--sp];
+                    var key = stack[--sp];
+                    if(store(stack[sp - 1], key, value)) {
+                        meter.allocate(1);
+                    }
+                    stack[sp - 1] = value;
+                }
+                case DICTIONARY -> {
+                    int count = code[pc++];
+                    meter.allocate(count);
+                    var dictionary = new Dictionary();
+                    for(int i = sp - 2 * count; i < sp; i += 2) {
+                        dictionary.put(stack[i], stack[i + 1]);
+                    }
+                    sp -= 2 * count;
+                    stack[sp++] = dictionary;
+                }
+                case BUILTIN -> {
+                    var builtin = Builtin.of(code[pc++]);
+                    int argc = code[pc++];
+                    var result = builtin.call(meter, this::worker, Arrays.copyOfRange(stack, sp - argc, sp));
+                    sp -= argc;
+                    stack[sp++] = result;
+                }
+                case PRINTLN -> globalFrame.output().println(stack[sp - 1]);
+                case UNDEFINED_FUNCTION -> throw new LanguageException("Function " + module.functionName(code[pc]) + " is not found");
+                default -> throw new LanguageException("Unknown opcode " + code[pc - 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.kmizu.toys.Values.*;
+
+/**
+ * The instruction set of the stack VM.  Code is a flat int[] of opcodes, each followed by its operands.
+ */
+public final class VmCode {
+    public static final int CONST = 0;
+    public static final int NIL = 1;
+    public static final int LOAD_LOCAL = 2;
+    public static final int STORE_LOCAL = 3;
+    public static final int LOAD_GLOBAL = 4;
+    public static final int STORE_GLOBAL = 5;
+    public static final int ADD = 6;
+    public static final int SUB = 7;
+    public static final int MUL = 8;
+    public static final int DIV = 9;
+    public static final int LT = 10;
+    public static final int LE = 11;
+    public static final int GT = 12;
+    public static final int GE = 13;
+    public static final int EQ = 14;
+    public static final int NE = 15;
+    public static final int JUMP = 16;
+    public static final int JUMP_IF_FALSE = 17;
+    public static final int POP = 18;
+    public static final int DUP = 19;
+    public static final int CALL = 20;
+    public static final int RETURN = 21;
+    public static final int ARRAY = 22;
+    public static final int UNDEFINED_FUNCTION = 23;
+    public static final int TAIL_CALL = 24;
+    public static final int INDEX = 25;
+    public static final int STORE_INDEX = 26;
+    public static final int BUILTIN = 27;
+    public static final int DICTIONARY = 28;
+    /** Jumps back to the start of a loop, with the index of its label in {@link Function#loops} as second operand. */
+    public static final int LOOP = 29;
+    public static final int PRINTLN = 30;
+
+    private static final String[] NAMES = {
+            "CONST", "NIL", "LOAD_LOCAL", "STORE_LOCAL", "LOAD_GLOBAL", "STORE_GLOBAL",
+            "ADD", "SUB", "MUL", "DIV", "LT", "LE", "GT", "GE", "EQ", "NE",
+            "JUMP", "JUMP_IF_FALSE", "POP", "DUP", "CALL", "RETURN", "ARRAY", "UNDEFINED_FUNCTION", "TAIL_CALL",
+            "INDEX", "STORE_INDEX", "BUILTIN", "DICTIONARY", "LOOP", "PRINTLN"
+    };
+    private static final int[] OPERANDS = {
+            1, 0, 1, 1, 1, 1,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 0, 0, 2, 0, 1, 1, 2,
+            0, 0, 2, 1, 2, 0
+    };
+
+    private VmCode() {}
+
+    public static String name(int opcode) {
+        return NAMES[opcode];
+    }
+
+    public static int operands(int opcode) {
+        return OPERANDS[opcode];
+    }
+
+    public final static record Function(
+            String name, int arity, int frameSize, int maxStack, int[] code, Value[] constants, String[] localNames,
+            String[] loops
+    ) {}
+
+    /**
+     * Functions and globals known to compiled code.  Call sites refer to functions by id,
+     * so a function may be defined after the code calling it was compiled.
+     */
+    public final static class Module {
+        private final Map<String, Integer> functionIds = new HashMap<>();
+        private final List<String> functionNames = new ArrayList<>();
+        private final Map<String, List<String>> parameters = new HashMap<>();
+        private Function[] functions = new Function[16];
+        private String[] globalNames = new String[16];
+
+        public int functionId(String name) {
+            var id = functionIds.get(name);
+            if(id == null) {
+                id = functionNames.size();
+                functionIds.put(name, id);
+                functionNames.add(name);
+                if(id >= functions.length) {
+                    functions = Arrays.copyOf(functions, functions.length * 2);
+                }
+            }
+            return id;
+        }
+
+        public void declare(String name, List<String> params) {
+            functionId(name);
+            parameters.put(name, params);
+        }
+
+        public List<String> parameters(String name) {
+            return parameters.get(name);
+        }
+
+        public String functionName(int id) {
+            return functionNames.get(id);
+        }
+
+        public Function function(int id) {
+            return functions[id];
+        }
+
+        public Function function(String name) {
+            var id = functionIds.get(name);
+            return id == null ? null : functions[id];
+        }
+
+        public void define(Function function) {
+            functions[functionId(function.name())] = function;
+            parameters.put(function.name(), Arrays.asList(function.localNames()).subList(0, function.arity()));
+        }
+
+        /**
+         * Removes the code of a function, so that calling it fails as if it had never been defined.
+         */
+        public void undefine(String name) {
+            var id = functionIds.get(name);
+            if(id != null) {
+                functions[id] = null;
+            }
+            parameters.remove(name);
+        }
+
+        public void nameGlobal(int slot, String name) {
+            if(slot >= globalNames.length) {
+                globalNames = Arrays.copyOf(globalNames, Math.max(slot + 1, globalNames.length * 2));
+            }
+            globalNames[slot] = name;
+        }
+
+        public String globalName(int slot) {
+            return slot < globalNames.length ? globalNames[slot] : null;
+        }
+    }
+
+    public static String disassemble(Module module, Function function) {
+        var builder = new StringBuilder();
+        builder.append("function ").append(function.name())
+                .append(" arity=").append(function.arity())
+                .append(" frame=").append(function.frameSize())
+                .append(" stack=").append(function.maxStack())
+                .append('\n');
+        var code = function.code();
+        for(int pc = 0; pc < code.length; ) {
+            int opcode = code[pc];
+            builder.append(String.format("%04d %s", pc, name(opcode)));
+            for(int i = 1; i <= operands(opcode); i++) {
+                builder.append(' ').append(code[pc + i]);
+            }
+            var comment = switch(opcode) {
+                case CONST -> String.valueOf(function.constants()[code[pc + 1]]);
+                case LOAD_LOCAL, STORE_LOCAL -> function.localNames()[code[pc + 1]];
+                case LOAD_GLOBAL, STORE_GLOBAL -> module.globalName(code[pc + 1]);
+                case CALL, TAIL_CALL, UNDEFINED_FUNCTION -> module.functionName(code[pc + 1]);
+                case BUILTIN -> Builtin.of(code[pc + 1]).functionName();
+                case LOOP -> function.loops()[code[pc + 2]];
+                default -> null;
+            };
+            if(comment != null) {
+                builder.append("    ; ").append(comment);
+            }
+            builder.append('\n');
+            pc += 1 + operands(opcode);
+        }
+        return builder.toString();
+    }
+}
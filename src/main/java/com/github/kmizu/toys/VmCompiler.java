@@ -0,0 +1,247 @@
+package com.github.kmizu.toys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.kmizu.toys.Values.*;
+import static com.github.kmizu.toys.VmCode.*;
+
+/**
+ * Compiles resolved expressions into {@link VmCode} for the {@link VirtualMachine}.
+ * Calls in tail position of a function body become {@link VmCode#TAIL_CALL}, which reuses the caller's frame.
+ */
+public class VmCompiler {
+    private final VmCode.Module module;
+    private final boolean topLevel;
+    private final String[] localNames;
+    private final List<Value> constants = new ArrayList<>();
+    private final Map<Value, Integer> constantIndexes = new HashMap<>();
+    private final List<String> loops = new ArrayList<>();
+    private Map<Ast.WhileExpression, String> loopLabels = Map.of();
+    private int[] code = new int[64];
+    private int size;
+    private int stack;
+    private int maxStack;
+
+    private VmCompiler(VmCode.Module module, boolean topLevel, int frameSize) {
+        this.module = module;
+        this.topLevel = topLevel;
+        this.localNames = new String[frameSize];
+    }
+
+    public static VmCode.Function compile(VmCode.Module module, Ast.FunctionDefinition definition) {
+        var compiler = new VmCompiler(module, false, definition.frameSize());
+        for(int i = 0; i < definition.args().size(); i++) {
+            compiler.localNames[i] = definition.args().get(i);
+        }
+        return compiler.finish(definition.name(), definition.args().size(), definition.body());
+    }
+
+    public static VmCode.Function compileTopLevel(VmCode.Module module, Ast.Expression expression) {
+        return new VmCompiler(module, true, 0).finish(Profiler.TOP_LEVEL, 0, expression);
+    }
+
+    private VmCode.Function finish(String name, int arity, Ast.Expression body) {
+        loopLabels = Profiler.loopLabels(name, body);
+        compile(body, true, !topLevel);
+        emit(RETURN, -1);
+        return new VmCode.Function(
+                name, arity, localNames.length, maxStack,
+                Arrays.copyOf(code, size), constants.toArray(new Value[0]), localNames,
+                loops.toArray(new String[0])
+        );
+    }
+
+    private void emit(int opcode, int stackEffect, int... operands) {
+        if(size + 1 + operands.length > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[size++] = opcode;
+        for(var operand : operands) {
+            code[size++] = operand;
+        }
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private int jump(int opcode, int stackEffect) {
+        emit(opcode, stackEffect, -1);
+        return size - 1;
+    }
+
+    private void patch(int operandAt) {
+        code[operandAt] = size;
+    }
+
+    private void constant(Value value) {
+        var index = constantIndexes.get(value);
+        if(index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        emit(CONST, 1, index);
+    }
+
+    private boolean isGlobal(int depth) {
+        return topLevel ? depth == 0 : depth == 1;
+    }
+
+    private void compile(Ast.Expression expression, boolean keep) {
+        compile(expression, keep, false);
+    }
+
+    private void compile(Ast.Expression expression, boolean keep, boolean tail) {
+        if(expression instanceof Ast.IntegerLiteral integerLiteral) {
+            if(keep) constant(Int.of(integerLiteral.value()));
+        } else if(expression instanceof Ast.BoolLiteral boolLiteral) {
+            if(keep) constant(Bool.of(boolLiteral.value()));
+        } else if(expression instanceof Ast.FunctionReference reference) {
+            if(keep) constant(new FunctionReference(reference.name()));
+        } else if(expression instanceof Ast.ResolvedIdentifier identifier) {
+            if(isGlobal(identifier.depth())) {
+                module.nameGlobal(identifier.slot(), identifier.name());
+                emit(LOAD_GLOBAL, 1, identifier.slot());
+            } else {
+                localNames[identifier.slot()] = identifier.name();
+                emit(LOAD_LOCAL, 1, identifier.slot());
+            }
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.ResolvedAssignment assignment) {
+            compile(assignment.expression(), true);
+            if(keep) emit(DUP, 1);
+            if(isGlobal(assignment.depth())) {
+                module.nameGlobal(assignment.slot(), assignment.name());
+                emit(STORE_GLOBAL, -1, assignment.slot());
+            } else {
+                localNames[assignment.slot()] = assignment.name();
+                emit(STORE_LOCAL, -1, assignment.slot());
+            }
+        } else if(expression instanceof Ast.BinaryExpression binaryExpression) {
+            compile(binaryExpression.lhs(), true);
+            compile(binaryExpression.rhs(), true);
+            emit(switch(binaryExpression.operator()) {
+                case ADD -> ADD;
+                case SUBTRACT -> SUB;
+                case MULTIPLY -> MUL;
+                case DIVIDE -> DIV;
+                case LESS_THAN -> LT;
+                case LESS_OR_EQUAL -> LE;
+                case GREATER_THAN -> GT;
+                case GREATER_OR_EQUAL -> GE;
+                case EQUAL_EQUAL -> EQ;
+                case NOT_EQUAL -> NE;
+            }, -1);
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.ResolvedCall resolvedCall) {
+            if(resolvedCall.site().labels() == null) {
+                compileCall(resolvedCall.site().name(), resolvedCall.args(), keep, tail);
+            } else {
+                compileLabelledCall(resolvedCall, keep, tail);
+            }
+        } else if(expression instanceof Ast.BlockExpression block) {
+            var elements = block.elements();
+            if(elements.isEmpty()) {
+                if(keep) emit(NIL, 1);
+                return;
+            }
+            for(int i = 0; i < elements.size(); i++) {
+                boolean last = i == elements.size() - 1;
+                compile(elements.get(i), keep && last, tail && last);
+            }
+        } else if(expression instanceof Ast.Println println) {
+            compile(println.arg(), true);
+            emit(PRINTLN, 0);
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.IfExpression ifExpression) {
+            compile(ifExpression.condition(), true);
+            int toElse = jump(JUMP_IF_FALSE, -1);
+            compile(ifExpression.thenClause(), keep, tail);
+            if(!keep && ifExpression.elseClause().isEmpty()) {
+                patch(toElse);
+                return;
+            }
+            int toEnd = jump(JUMP, 0);
+            if(keep) stack--;
+            patch(toElse);
+            if(ifExpression.elseClause().isPresent()) {
+                compile(ifExpression.elseClause().get(), keep, tail);
+            } else {
+                emit(NIL, 1);
+            }
+            patch(toEnd);
+        } else if(expression instanceof Ast.WhileExpression whileExpression) {
+            int loop = size;
+            compile(whileExpression.condition(), true);
+            int toExit = jump(JUMP_IF_FALSE, -1);
+            compile(whileExpression.body(), false);
+            emit(LOOP, 0, loop, loops.size());
+            loops.add(loopLabels.get(whileExpression));
+            patch(toExit);
+            if(keep) constant(Bool.TRUE);
+        } else if(expression instanceof Ast.ArrayLiteral arrayLiteral) {
+            for(var item : arrayLiteral.items()) {
+                compile(item, true);
+            }
+            emit(ARRAY, 1 - arrayLiteral.items().size(), arrayLiteral.items().size());
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.DictionaryLiteral dictionaryLiteral) {
+            for(var entry : dictionaryLiteral.entries()) {
+                compile(entry.key(), true);
+                compile(entry.value(), true);
+            }
+            int count = dictionaryLiteral.entries().size();
+            emit(DICTIONARY, 1 - 2 * count, count);
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.Index index) {
+            compile(index.array(), true);
+            compile(index.index(), true);
+            emit(INDEX, -1);
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.IndexAssignment assignment) {
+            compile(assignment.array(), true);
+            compile(assignment.index(), true);
+            compile(assignment.expression(), true);
+            emit(STORE_INDEX, -2);
+            if(!keep) emit(POP, -1);
+        } else if(expression instanceof Ast.BuiltinCall builtinCall) {
+            for(var arg : builtinCall.args()) {
+                compile(arg, true);
+            }
+            emit(BUILTIN, 1 - builtinCall.args().size(), builtinCall.builtin().ordinal(), builtinCall.args().size());
+            if(!keep) emit(POP, -1);
+        } else {
+            throw new LanguageException("Unresolved expression " + expression);
+        }
+    }
+
+    private void compileCall(String name, List<Ast.Expression> args, boolean keep, boolean tail) {
+        for(var arg : args) {
+            compile(arg, true);
+        }
+        emit(tail ? TAIL_CALL : CALL, 1 - args.size(), module.functionId(name), args.size());
+        if(!keep) emit(POP, -1);
+    }
+
+    private void compileLabelledCall(Ast.ResolvedCall resolvedCall, boolean keep, boolean tail) {
+        var name = resolvedCall.site().name();
+        var params = module.parameters(name);
+        if(params == null) {
+            emit(UNDEFINED_FUNCTION, keep ? 1 : 0, module.functionId(name));
+            return;
+        }
+        var labels = resolvedCall.site().labels();
+        var ordered = new ArrayList<Ast.Expression>();
+        for(var param : params) {
+            int index = labels.indexOf(param);
+            if(index < 0) {
+                throw new LanguageException("Argument " + param + " of " + name + " is missing");
+            }
+            ordered.add(resolvedCall.args().get(index));
+        }
+        compileCall(name, ordered, keep, tail);
+    }
+}
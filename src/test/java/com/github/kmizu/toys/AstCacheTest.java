@@ -0,0 +1,74 @@
+package com.github.kmizu.toys;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class AstCacheTest {
+    private static final String SOURCE = """
+            global limit = -10;
+            define power(n, m) {
+              n * m;
+            }
+            define main() {
+              for(i in 1 to 3) println(i);
+              a = [1, true, false, []];
+              a[length(a) - 1] = a[0];
+              d = %[1: a, true: %[]];
+              parallelReduce([1, 2], 0, power);
+              if(a != limit) power[m = 2, n = 3]; else { power(1, 2) / 3 >= 4; }
+              while(limit < 0) limit = limit + 1;
+            }""";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() {
+        var program = ToysParser.parse(SOURCE);
+        assertEquals(program, AstCache.decode(ByteBuffer.wrap(AstCache.encode(program))));
+        var resolved = new Resolver().resolve(program);
+        assertEquals(resolved, AstCache.decode(ByteBuffer.wrap(AstCache.encode(resolved))));
+    }
+
+    @Test
+    public void testLoadStoresAndReusesEntry() throws Exception {
+        var cache = new AstCache(folder.getRoot().toPath());
+        var program = cache.load(SOURCE);
+        var entry = folder.getRoot().toPath().resolve(HexFormat.of().formatHex(AstCache.hash(SOURCE)) + ".ast");
+        assertTrue(Files.exists(entry));
+        long modified = Files.getLastModifiedTime(entry).toMillis();
+        assertEquals(program, cache.load(SOURCE));
+        assertEquals(modified, Files.getLastModifiedTime(entry).toMillis());
+    }
+
+    @Test
+    public void testChangedSourceMisses() {
+        var cache = new AstCache(folder.getRoot().toPath());
+        cache.load(SOURCE);
+        var changed = SOURCE.replace("-10", "-20");
+        assertEquals(ToysParser.parse(changed), cache.load(changed));
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testCorruptEntryIsReplaced() throws Exception {
+        var cache = new AstCache(folder.getRoot().toPath());
+        var program = cache.load(SOURCE);
+        var entry = folder.getRoot().toPath().resolve(HexFormat.of().formatHex(AstCache.hash(SOURCE)) + ".ast");
+        var bytes = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+        assertEquals(program, cache.load(SOURCE));
+        assertArrayEquals(bytes, Files.readAllBytes(entry));
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.kmizu.toys;
+
+import org.javafp.parsecj.input.Input;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+import static com.github.kmizu.toys.Values.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class BytecodeCompilerTest {
+    private static Ast.Program resolve(String source) throws Exception {
+        return new Resolver().resolve(Parsers.program().parse(Input.of(source)).getResult());
+    }
+
+    @Test
+    public void testCompileRecursiveFunction() throws Exception {
+        var compiled = BytecodeCompiler.compile(resolve("""
+                define factorial(n) {
+                  if(n < 2) {
+                    1;
+                  } else {
+                    n * factorial(n - 1);
+                  }
+                }
+                define main() {
+                  factorial(5);
+                }"""));
+        assertTrue(compiled.containsKey("factorial"));
+        assertEquals(wrap(3628800), compiled.get("factorial").invoke(List.of(wrap(10))));
+    }
+
+    @Test
+    public void testCompileLoopAndBool() throws Exception {
+        var compiled = BytecodeCompiler.compile(resolve("""
+                define even(n) {
+                  n / 2 * 2 == n;
+                }
+                define sum(n) {
+                  i = 0;
+                  s = 0;
+                  while(i < n) {
+                    i = i + 1;
+                    if(even(i)) {
+                      s = s + i;
+                    }
+                  }
+                  s;
+                }
+                define main() {
+                  sum(10);
+                }"""));
+        assertEquals(wrap(true), compiled.get("even").invoke(List.of(wrap(4))));
+        assertEquals(wrap(30), compiled.get("sum").invoke(List.of(wrap(10))));
+    }
+
+    @Test
+    public void testFallbackForGlobals() throws Exception {
+        var compiled = BytecodeCompiler.compile(resolve("""
+                global g = 1;
+                define addG(n) {
+                  n + g;
+                }
+                define twice(n) {
+                  addG(n) + addG(n);
+                }
+                define main() {
+                  twice(1);
+                }"""));
+        assertFalse(compiled.containsKey("addG"));
+        assertFalse(compiled.containsKey("twice"));
+    }
+
+    @Test
+    public void testSelfTailCallBecomesLoop() throws Exception {
+        var compiled = BytecodeCompiler.compile(resolve("""
+                define sum(n, acc) {
+                  if(n == 0) acc; else sum[acc = acc + n, n = n - 1];
+                }
+                define isEven(n) {
+                  if(n == 0) true; else isOdd(n - 1);
+                }
+                define isOdd(n) {
+                  if(n == 0) false; else isEven(n - 1);
+                }
+                define main() {
+                  sum(10, 0);
+                }"""));
+        assertEquals(wrap(1800030000), compiled.get("sum").invoke(List.of(wrap(60000), wrap(0))));
+        // the int result overflows, so the call is left to the interpreter
+        assertNull(compiled.get("sum").invoke(List.of(wrap(1000000), wrap(0))));
+        assertFalse(compiled.containsKey("isEven"));
+        assertFalse(compiled.containsKey("isOdd"));
+    }
+
+    @Test
+    public void testFallbackForPossiblyUnassignedLocals() throws Exception {
+        var compiled = BytecodeCompiler.compile(resolve("""
+                define f(n) {
+                  if(n > 0) {
+                    x = 5;
+                  } else {
+                    n;
+                  }
+                  x;
+                }
+                define g(n) {
+                  while(n > 0) {
+                    y = n;
+                    n = n - 1;
+                  }
+                  y;
+                }
+                define h(n) {
+                  if(n > 0) z = 1; else z = 2;
+                  z;
+                }
+                define main() {
+                  f(0);
+                }"""));
+        assertFalse(compiled.containsKey("f"));
+        assertFalse(compiled.containsKey("g"));
+        assertEquals(wrap(2), compiled.get("h").invoke(List.of(wrap(0))));
+
+        var interpreter = new Interpreter(Interpreter.Engine.BYTECODE);
+        try {
+            interpreter.callMain(Parsers.program().parse(Input.of("""
+                    define f(n) {
+                      if(n > 0) {
+                        x = 5;
+                      } else {
+                        n;
+                      }
+                      x;
+                    }
+                    define main() {
+                      f(0);
+                    }""")).getResult());
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Variable x is not defined", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.github.kmizu.toys.Values.*;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class CompiledProgramTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.stream(Interpreter.Engine.values()).map(engine -> new Object[]{engine}).toList();
+    }
+
+    private static final String SOURCE = """
+            global calls = 0;
+            global seen = [];
+            define fib(n) {
+              if(n < 2) n; else fib(n - 1) + fib(n - 2);
+            }
+            define record(n) {
+              calls = calls + 1;
+              push(seen, n);
+              fib(n);
+            }
+            define main() {
+              record(10) + record(5);
+            }""";
+
+    private final CompiledProgram program;
+
+    public CompiledProgramTest(Interpreter.Engine engine) {
+        this.program = CompiledProgram.load(ToysParser.parse(SOURCE), engine);
+    }
+
+    @Test
+    public void testExecutionsHaveTheirOwnGlobals() {
+        var first = program.newExecution();
+        assertEquals(wrap(60), first.callMain());
+        assertEquals(wrap(13), first.call("record", wrap(7)));
+        assertEquals(wrap(3), first.getValue("calls"));
+        var second = program.newExecution();
+        assertEquals(wrap(0), second.getValue("calls"));
+        assertEquals(wrap(55), program.call("fib", wrap(10)));
+    }
+
+    @Test
+    public void testConcurrentExecutions() throws Exception {
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var results = new ArrayList<Future<Value>>();
+            for(int i = 0; i < 200; i++) {
+                int n = i % 20;
+                results.add(pool.submit((Callable<Value>)() -> {
+                    var execution = program.newExecution();
+                    execution.call("record", wrap(n));
+                    execution.callMain();
+                    return wrap(List.of(execution.getValue("calls"), execution.getValue("seen"), execution.call("fib", wrap(n))));
+                }));
+            }
+            for(int i = 0; i < results.size(); i++) {
+                int n = i % 20;
+                var expected = wrap(List.of(wrap(3), wrap(List.of(wrap(n), wrap(10), wrap(5))), wrap(fib(n))));
+                assertEquals(expected, results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMissingFunction() {
+        try {
+            program.call("missing");
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Function missing is not found", e.getMessage());
+        }
+    }
+
+    private static int fib(int n) {
+        return n < 2 ? n : fib(n - 1) + fib(n - 2);
+    }
+}
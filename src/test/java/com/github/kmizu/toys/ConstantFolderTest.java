@@ -0,0 +1,48 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.github.kmizu.toys.Ast.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ConstantFolderTest {
+    private static final Expression N = new ResolvedIdentifier("n", 0, 0);
+
+    @Test
+    public void testArithmetic() {
+        assertEquals(multiply(integer(86400), N), ConstantFolder.fold(multiply(multiply(multiply(integer(60), integer(60)), integer(24)), N)));
+        assertEquals(new BoolLiteral(true), ConstantFolder.fold(lessThan(add(integer(1), integer(2)), integer(4))));
+        assertEquals(multiply(N, integer(6)), ConstantFolder.fold(multiply(multiply(N, integer(2)), integer(3))));
+        assertEquals(multiply(N, integer(2)), ConstantFolder.fold(add(multiply(N, integer(2)), integer(0))));
+    }
+
+    @Test
+    public void testWhatMightFailIsKept() {
+        assertEquals(divide(integer(1), integer(0)), ConstantFolder.fold(divide(integer(1), integer(0))));
+        assertEquals(add(integer(Long.MAX_VALUE), integer(1)), ConstantFolder.fold(add(integer(Long.MAX_VALUE), integer(1))));
+        // n might be an array, which + rejects.
+        assertEquals(add(N, integer(0)), ConstantFolder.fold(add(N, integer(0))));
+    }
+
+    @Test
+    public void testDeadCode() {
+        assertEquals(N, ConstantFolder.fold(If(new BoolLiteral(true), N, Optional.of(integer(1)))));
+        assertEquals(integer(1), ConstantFolder.fold(If(greaterThan(integer(1), integer(2)), N, Optional.of(integer(1)))));
+        assertEquals(Block(), ConstantFolder.fold(If(new BoolLiteral(false), N, Optional.empty())));
+        assertEquals(new BoolLiteral(true), ConstantFolder.fold(While(new BoolLiteral(false), N)));
+    }
+
+    @Test
+    public void testBlocks() {
+        var println = new Println(N);
+        assertEquals(Block(println, println, N), ConstantFolder.fold(Block(Block(println, integer(1)), integer(2), Block(println, N))));
+        assertEquals(println, ConstantFolder.fold(Block(Block(println))));
+        assertEquals(new BlockExpression(List.of(println, Block())), ConstantFolder.fold(Block(println, Block())));
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class IncrementalParserTest {
+    private static final String PROGRAM = """
+            // squares
+            global base = 10;
+            define square(n) {
+              n * n;
+            }
+            define offset() {
+              base;
+            }
+            define main() {
+              square(3) + offset();
+            }
+            """;
+
+    private static Ast.Program update(IncrementalParser parser, String source) {
+        var program = parser.update(source);
+        assertEquals(ToysParser.parse(source), program);
+        return program;
+    }
+
+    @Test
+    public void testReusesUnchangedDefinitions() {
+        var parser = new IncrementalParser();
+        var before = update(parser, PROGRAM).definitions();
+        assertEquals(4, parser.reparsed());
+
+        var after = update(parser, PROGRAM.replace("n * n", "n * n * n")).definitions();
+        assertEquals(1, parser.reparsed());
+        assertSame(before.get(0), after.get(0));
+        assertNotSame(before.get(1), after.get(1));
+        assertSame(before.get(2), after.get(2));
+        assertSame(before.get(3), after.get(3));
+
+        // Text typed after a definition belongs to it, and comments are no definitions at all.
+        var source = PROGRAM.replace("n * n", "n * n * n").replace("  base;\n}\n", "  base;\n}\n// offset\n");
+        update(parser, source);
+        assertEquals(1, parser.reparsed());
+        update(parser, source.replace("// squares", "// cubes"));
+        assertEquals(0, parser.reparsed());
+    }
+
+    @Test
+    public void testDefinitionsComeAndGo() {
+        var parser = new IncrementalParser();
+        update(parser, PROGRAM);
+        var withCube = update(parser, PROGRAM.replace("define offset", "define cube(n) {\n  n * square(n);\n}\ndefine offset"));
+        assertEquals(5, withCube.definitions().size());
+        var withoutOffset = update(parser, PROGRAM.replace("define offset() {\n  base;\n}\n", ""));
+        assertEquals(List.of("square", "main"), withoutOffset.definitions().stream()
+                .filter(topLevel -> topLevel instanceof Ast.FunctionDefinition)
+                .map(topLevel -> ((Ast.FunctionDefinition)topLevel).name())
+                .toList());
+        update(parser, "");
+        update(parser, PROGRAM);
+    }
+
+    @Test
+    public void testErrors() {
+        var parser = new IncrementalParser();
+        update(parser, PROGRAM);
+        var broken = PROGRAM.replace("  square(3) + offset();", "  square(3) + ;");
+        try {
+            parser.update(broken);
+            fail();
+        } catch (LanguageException e) {
+            try {
+                ToysParser.parse(broken);
+                fail();
+            } catch (LanguageException expected) {
+                assertEquals(expected.getMessage(), e.getMessage());
+            }
+        }
+        // A brace left open only breaks the definition it is in.
+        try {
+            parser.update(PROGRAM.replace("n * n;\n}", "n * n;\n"));
+            fail();
+        } catch (LanguageException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("6:1:"));
+        }
+        assertEquals(ToysParser.parse(PROGRAM), parser.program());
+        update(parser, PROGRAM.replace("offset();", "offset() + 1;"));
+    }
+
+    @Test
+    public void testTyping() {
+        // Types PROGRAM one character at a time, in random places, checking every version that parses.
+        var random = new Random(42);
+        var parser = new IncrementalParser();
+        var source = new StringBuilder();
+        var typed = new StringBuilder(PROGRAM);
+        while(!typed.isEmpty()) {
+            int at = random.nextInt(typed.length());
+            int offset = Math.min(at, source.length());
+            source.insert(offset, typed.charAt(at));
+            typed.deleteCharAt(at);
+            Ast.Program expected;
+            try {
+                expected = ToysParser.parse(source.toString());
+            } catch (LanguageException e) {
+                continue;
+            }
+            assertEquals(expected, parser.update(source.toString()));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class InlinerTest {
+    private static Map<String, Ast.FunctionDefinition> resolve(String source) {
+        var functions = new HashMap<String, Ast.FunctionDefinition>();
+        for(var topLevel : new Resolver().resolve(ToysParser.parse(source)).definitions()) {
+            if(topLevel instanceof Ast.FunctionDefinition definition) {
+                functions.put(definition.name(), definition);
+            }
+        }
+        return functions;
+    }
+
+    private static boolean calls(Ast.Expression expression, String name) {
+        return Inliner.callees(expression).contains(name);
+    }
+
+    @Test
+    public void testInlining() {
+        var functions = resolve("""
+                define square(n) {
+                  n * n;
+                }
+                define sumOfSquares(a, b) {
+                  square(a) + square(b);
+                }
+                define main() {
+                  sumOfSquares(1, 2);
+                }""");
+        var main = new Inliner(functions, Inliner.DEFAULT_LIMIT).inline(functions.get("main"));
+        assertFalse(calls(main.body(), "sumOfSquares"));
+        assertFalse(calls(main.body(), "square"));
+        // The parameters of sumOfSquares and of both calls of square, each in slots of their own.
+        assertEquals(4, main.frameSize());
+    }
+
+    @Test
+    public void testWhatIsNotInlined() {
+        var functions = resolve("""
+                define fib(n) {
+                  if(n < 2) n; else fib(n - 1) + fib(n - 2);
+                }
+                define even(n) {
+                  if(n == 0) true; else odd(n - 1);
+                }
+                define odd(n) {
+                  if(n == 0) false; else even(n - 1);
+                }
+                define clamp(n) {
+                  m = n;
+                  if(m > 10) 10; else m;
+                }
+                define square(n) {
+                  n * n;
+                }
+                define main() {
+                  fib(10) + clamp(11) + square[n = 3];
+                  even(4);
+                }""");
+        var main = new Inliner(functions, Inliner.DEFAULT_LIMIT).inline(functions.get("main"));
+        assertTrue(calls(main.body(), "fib"));
+        assertTrue(calls(main.body(), "even"));
+        assertTrue(calls(main.body(), "clamp"));
+        assertTrue(calls(main.body(), "square"));
+        assertEquals(functions.get("main"), main);
+    }
+
+    @Test
+    public void testLimit() {
+        var functions = resolve("""
+                define square(n) {
+                  n * n;
+                }
+                define main() {
+                  square(3);
+                }""");
+        assertEquals(functions.get("main"), new Inliner(functions, 0).inline(functions.get("main")));
+        // The body of square is a block of n * n, four nodes.
+        assertEquals(functions.get("main"), new Inliner(functions, 3).inline(functions.get("main")));
+        assertNotEquals(functions.get("main"), new Inliner(functions, 4).inline(functions.get("main")));
+    }
+}
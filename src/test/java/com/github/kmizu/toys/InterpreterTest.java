@@ -3,18 +3,33 @@ package com.github.kmizu.toys;
 import org.javafp.parsecj.input.Input;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
+import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static com.github.kmizu.toys.Ast.*;
 import static com.github.kmizu.toys.Values.*;
 import static org.junit.Assert.*;
 
-@RunWith(JUnit4.class)
+@RunWith(Parameterized.class)
 public class InterpreterTest {
-    private Interpreter interpreter = new Interpreter();
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.stream(Interpreter.Engine.values()).map(engine -> new Object[]{engine}).toList();
+    }
+
+    private final Interpreter.Engine engine;
+    private final Interpreter interpreter;
+
+    public InterpreterTest(Interpreter.Engine engine) {
+        this.engine = engine;
+        this.interpreter = new Interpreter(engine);
+    }
 
     @Test
     public void testWhile() {
@@ -184,6 +199,37 @@ public class InterpreterTest {
         assertEquals(25, result.asInt().value());
     }
 
+    @Test
+    public void testLabelledCallPermutation() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define minus(a, b) {
+                  a - b;
+                }
+                define main() {
+                  i = 0;
+                  total = 0;
+                  while(i < 3) {
+                    total = total + minus[b = i, a = 10] + minus(i, 1);
+                    i = i + 1;
+                  }
+                  total;
+                }""")).getResult();
+        assertEquals(27, interpreter.callMain(program).asInt().value());
+        try {
+            interpreter.reset();
+            interpreter.callMain(Parsers.program().parse(Input.of("""
+                    define minus(a, b) {
+                      a - b;
+                    }
+                    define main() {
+                      minus[a = 1];
+                    }""")).getResult());
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Argument b of minus is missing", e.getMessage());
+        }
+    }
+
     @Test
     public void testArrayLiteral() throws Exception {
         var expression = Parsers.expression().parse(Input.of("""
@@ -193,6 +239,409 @@ public class InterpreterTest {
         assertEquals(List.of(wrap(1), wrap(2), wrap(3), wrap(4), wrap(5)), result.asArray().values());
     }
 
+    @Test
+    public void testArrayStorageFollowsElements() throws Exception {
+        var ints = interpreter.interpret(Parsers.expression().parse(Input.of("[1, 2 * 3, 1000000]")).getResult()).asArray();
+        assertTrue(ints.elements() instanceof IntArray);
+        assertEquals(1000000, ints.getLong(2));
+        var bools = interpreter.interpret(Parsers.expression().parse(Input.of("[true, 1 < 2, false]")).getResult()).asArray();
+        assertTrue(bools.elements() instanceof BoolArray);
+        assertEquals(List.of(wrap(true), wrap(true), wrap(false)), bools.values());
+        var mixed = interpreter.interpret(Parsers.expression().parse(Input.of("[1, true, []]")).getResult()).asArray();
+        assertTrue(mixed.elements() instanceof GenericArray);
+        assertEquals(ints, wrap(List.of(wrap(1), wrap(6), wrap(1000000))));
+        ints.set(0, wrap(false));
+        assertTrue(ints.elements() instanceof GenericArray);
+        assertEquals(List.of(wrap(false), wrap(6), wrap(1000000)), ints.values());
+    }
+
+    @Test
+    public void testArrayIndexing() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define squares(n) {
+                  a = [];
+                  for(i in 0 to n) push(a, 0);
+                  for(i in 0 to n) a[i] = i * i;
+                  a;
+                }
+                define main() {
+                  a = squares(10);
+                  sum = 0;
+                  i = 0;
+                  while(i < length(a)) {
+                    sum = sum + a[i];
+                    i = i + 1;
+                  }
+                  grid = [[1, 2], [3, 4]];
+                  grid[1][0] = grid[0][1] + sum;
+                  [sum, grid[1][0], a[9]];
+                }""")).getResult();
+        var result = interpreter.callMain(program);
+        assertEquals(List.of(wrap(285), wrap(287), wrap(81)), result.asArray().values());
+    }
+
+    @Test
+    public void testArrayBuiltins() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define main() {
+                  a = [1, 2, 3, 4, 5];
+                  b = copy(a);
+                  fill(b, 7);
+                  s = slice(a, 1, 4);
+                  s[0] = 0;
+                  flags = fill([1, 2], true);
+                  [a, b, s, flags, length(slice(a, 2, 2))];
+                }""")).getResult();
+        var result = interpreter.callMain(program).asArray();
+        assertEquals(wrap(List.of(wrap(1), wrap(2), wrap(3), wrap(4), wrap(5))), result.get(0));
+        assertEquals(wrap(List.of(wrap(7), wrap(7), wrap(7), wrap(7), wrap(7))), result.get(1));
+        assertEquals(wrap(List.of(wrap(0), wrap(3), wrap(4))), result.get(2));
+        assertTrue(result.get(3).asArray().elements() instanceof BoolArray);
+        assertEquals(wrap(0), result.get(4));
+        try {
+            interpreter.callMain(Parsers.program().parse(Input.of("""
+                    define main() {
+                      [1, 2][2];
+                    }""")).getResult());
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Index 2 is out of bounds for length 2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDictionaries() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define count(a) {
+                  counts = %[];
+                  for(i in 0 to length(a)) {
+                    if(contains(counts, a[i])) counts[a[i]] = counts[a[i]] + 1; else counts[a[i]] = 1;
+                  }
+                  counts;
+                }
+                define main() {
+                  counts = count([3, 1, 3, 2, 3, 1]);
+                  keys = %[[1, 2]: true, false: 10];
+                  remove(counts, 2);
+                  [counts, length(counts), keys[[1, 2]], keys[false], contains(counts, 2), remove(counts, 2)];
+                }""")).getResult();
+        var result = interpreter.callMain(program).asArray();
+        var counts = new Dictionary();
+        counts.put(3, wrap(3));
+        counts.put(1, wrap(2));
+        assertEquals(counts, result.get(0));
+        assertEquals(List.of(wrap(2), wrap(true), wrap(10), wrap(false), wrap(false)), result.values().subList(1, 6));
+    }
+
+    @Test
+    public void testIntegerPromotion() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define factorial(n) {
+                  if(n < 2) 1; else n * factorial(n - 1);
+                }
+                define main() {
+                  big = factorial(30);
+                  [factorial(20), big, big / factorial(28), big - big + 1, 9223372036854775807 + 1 - 1, [4000000000, 1][0] < big];
+                }""")).getResult();
+        var result = interpreter.callMain(program).asArray();
+        assertEquals(wrap(2432902008176640000L), result.get(0));
+        assertEquals(new BigInt(new java.math.BigInteger("265252859812191058636308480000000")), result.get(1));
+        assertEquals(List.of(wrap(870), wrap(1), wrap(Long.MAX_VALUE), wrap(true)), result.values().subList(2, 6));
+    }
+
+    @Test
+    public void testParallelBuiltins() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define square(x) {
+                  x * x;
+                }
+                define add(a, b) {
+                  a + b;
+                }
+                define mark(i) {
+                  marks[i] = i * 2;
+                }
+                define main() {
+                  a = [];
+                  for(i in 0 to 5000) push(a, i);
+                  marks = fill(copy(a), 0);
+                  squares = parallelMap(a, square);
+                  parallelFor(0, 5000, mark);
+                  [squares[4999], parallelReduce(a, 0, add), parallelReduce(squares, 1, add), marks[4321], parallelReduce([], 7, add), length(squares)];
+                }""")).getResult();
+        var result = interpreter.callMain(program).asArray();
+        assertEquals(List.of(wrap(24990001), wrap(12497500), wrap(41654167501L), wrap(8642), wrap(7), wrap(5000)), result.values());
+    }
+
+    @Test
+    public void testParallelBuiltinFailure() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define at(i) {
+                  [1, 2, 3][i / 4000];
+                }
+                define main() {
+                  a = [];
+                  for(i in 0 to 5000) push(a, i * 3);
+                  parallelMap(a, at);
+                }""")).getResult();
+        try {
+            interpreter.callMain(program);
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Index 3 is out of bounds for length 3", e.getMessage());
+        }
+    }
+
+    private void assertExceeds(Class<? extends Budget.Exceeded> expected, Budget budget, String source) throws Exception {
+        var program = Parsers.program().parse(Input.of(source)).getResult();
+        interpreter.setBudget(budget);
+        try {
+            interpreter.callMain(program);
+            fail();
+        } catch (Budget.Exceeded e) {
+            assertEquals(expected, e.getClass());
+        }
+    }
+
+    @Test
+    public void testBudgets() throws Exception {
+        var spin = """
+                define main() {
+                  i = 0;
+                  while(true) i = i + 1;
+                }""";
+        assertExceeds(Budget.StepsExceeded.class, Budget.UNLIMITED.withMaxSteps(100000), spin);
+        assertExceeds(Budget.DeadlineExceeded.class, Budget.UNLIMITED.withTimeout(java.time.Duration.ofMillis(20)), spin);
+        assertExceeds(Budget.CallDepthExceeded.class, Budget.UNLIMITED.withMaxCallDepth(100), """
+                define down(n) {
+                  1 + down(n + 1);
+                }
+                define main() {
+                  down(0);
+                }""");
+        assertExceeds(Budget.StepsExceeded.class, Budget.UNLIMITED.withMaxSteps(100000), """
+                define loop(n) {
+                  loop(n + 1);
+                }
+                define main() {
+                  loop(0);
+                }""");
+        assertExceeds(Budget.AllocationsExceeded.class, Budget.UNLIMITED.withMaxAllocations(10000), """
+                define main() {
+                  d = %[];
+                  i = 0;
+                  while(true) {
+                    d[i] = [i, i];
+                    i = i + 1;
+                  }
+                }""");
+        assertExceeds(Budget.StepsExceeded.class, Budget.UNLIMITED.withMaxSteps(100000), """
+                define spin(i) {
+                  while(true) i = i + 1;
+                }
+                define main() {
+                  parallelFor(0, 64, spin);
+                }""");
+    }
+
+    @Test
+    public void testDeepRecursion() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define down(n) {
+                  if(n == 0) 0; else 1 + down(n - 1);
+                }
+                global depth = 1000000;
+                define main() {
+                  down(depth);
+                }""")).getResult();
+        interpreter.setBudget(Budget.UNLIMITED.withMaxCallDepth(2000000));
+        if(engine == Interpreter.Engine.VM) {
+            // The VM keeps its frames on the heap.
+            assertEquals(wrap(1000000), interpreter.callMain(program));
+            return;
+        }
+        try {
+            interpreter.callMain(program);
+            fail();
+        } catch (Budget.CallDepthExceeded e) {
+            assertEquals("Calls nested deeper than the stack allows", e.getMessage());
+        }
+        // The failed run left nothing behind.
+        assertEquals(wrap(10), interpreter.call("down", wrap(10)));
+    }
+
+    @Test
+    public void testArity() throws Exception {
+        var program = ToysParser.parse("""
+                define one(a) {
+                  a;
+                }
+                define two(a, b) {
+                  b;
+                }
+                define tooMany() {
+                  one(1, 2);
+                }
+                define tooFew() {
+                  two(1);
+                }
+                define tooManyInTail(n) {
+                  if(n > 0) n; else one(n, n);
+                }
+                define tooFewInTail(n) {
+                  if(n > 0) n; else two(n);
+                }
+                define main() {
+                  0;
+                }""");
+        interpreter.callMain(program);
+        assertArityError("Function one takes 1 arguments", "tooMany");
+        assertArityError("Function two takes 2 arguments", "tooFew");
+        assertArityError("Function one takes 1 arguments", "tooManyInTail", wrap(0));
+        assertArityError("Function two takes 2 arguments", "tooFewInTail", wrap(0));
+        assertArityError("Function one takes 1 arguments", "one");
+        assertArityError("Function two takes 2 arguments", "two", wrap(1), wrap(2), wrap(3));
+    }
+
+    private void assertArityError(String message, String function, Value... args) {
+        try {
+            interpreter.call(function, args);
+            fail();
+        } catch (LanguageException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBudgetAllowsWhatFitsInIt() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define fib(n) {
+                  if(n < 2) n; else fib(n - 1) + fib(n - 2);
+                }
+                define main() {
+                  a = [];
+                  for(i in 0 to 100) push(a, fib(10));
+                  length(a);
+                }""")).getResult();
+        interpreter.setBudget(Budget.UNLIMITED.withMaxSteps(100000).withMaxCallDepth(20).withMaxAllocations(200));
+        assertEquals(wrap(100), interpreter.callMain(program));
+    }
+
+    @Test
+    public void testProfiler() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define fib(n) {
+                  if(n < 2) n; else fib(n - 1) + fib(n - 2);
+                }
+                define count(n) {
+                  i = 0;
+                  while(i < n) {
+                    i = i + 1;
+                  }
+                  i;
+                }
+                define main() {
+                  a = [1, 2, 3];
+                  count(5) + fib(10);
+                }""")).getResult();
+        var profiler = new Profiler();
+        interpreter.setProfiler(profiler);
+        assertEquals(wrap(60), interpreter.callMain(program));
+        var functions = new java.util.HashMap<String, Profiler.FunctionProfile>();
+        profiler.functions().forEach(profile -> functions.put(profile.name(), profile));
+        assertEquals(1, functions.get("main").calls());
+        assertEquals(1, functions.get("count").calls());
+        assertEquals(177, functions.get("fib").calls());
+        assertEquals(3, functions.get("main").allocations());
+        assertTrue(functions.get("main").inclusiveNanos() >= functions.get("fib").inclusiveNanos());
+        assertEquals(Map.of("count:while#1", 5L), profiler.loopIterations());
+        assertTrue(profiler.collapsedStacks().containsKey("main;fib;fib;fib"));
+    }
+
+    @Test
+    public void testPrintln() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define next(n) {
+                  println(n);
+                  n + 1;
+                }
+                define main() {
+                  for(i in 0 to 3) println(next(i));
+                  println([1, 2]);
+                }""")).getResult();
+        var printed = new ArrayList<Value>();
+        interpreter.setOutput(printed::add);
+        interpreter.callMain(program);
+        assertEquals(List.of("0", "1", "1", "2", "2", "3", "[1, 2]"), printed.stream().map(Values::show).toList());
+    }
+
+    @Test
+    public void testFoldedConstants() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define seconds(days) {
+                  if(1 < 2) (60 * 60 * 24) * days; else 1 / 0;
+                }
+                define main() {
+                  while(1 > 2) println(1 / 0);
+                  seconds(2) + 0;
+                }""")).getResult();
+        assertEquals(wrap(172800), interpreter.callMain(program));
+        interpreter.reset();
+        var failing = Parsers.program().parse(Input.of("""
+                define main() {
+                  if(true) 1 / (2 - 2);
+                }""")).getResult();
+        assertThrows(ArithmeticException.class, () -> interpreter.callMain(failing));
+    }
+
+    @Test
+    public void testInlining() throws Exception {
+        var source = """
+                define square(n) {
+                  n * n;
+                }
+                define show(n) {
+                  println(n);
+                }
+                define difference(a, b) {
+                  a - b;
+                }
+                define main() {
+                  total = 0;
+                  for(i in 0 to 4) total = total + square(difference(show(i * 2), show(i)));
+                  total;
+                }""";
+        var printed = new ArrayList<Value>();
+        interpreter.setOutput(printed::add);
+        // Inlined calls don't nest, so main() is the only call.
+        var budget = Budget.UNLIMITED.withMaxCallDepth(1);
+        interpreter.setBudget(budget);
+        assertEquals(wrap(14), interpreter.callMain(Parsers.program().parse(Input.of(source)).getResult()));
+        assertEquals(List.of("0", "0", "2", "1", "4", "2", "6", "3"), printed.stream().map(Values::show).toList());
+
+        // Redefining square reaches main(), which inlined it.
+        assertEquals(wrap(6), interpreter.callMain(Parsers.program().parse(Input.of("""
+                define square(n) {
+                  n;
+                }""")).getResult()));
+
+        interpreter.reset();
+        interpreter.setInlineLimit(0);
+        assertExceeds(Budget.CallDepthExceeded.class, budget, source);
+    }
+
+    @Test
+    public void testDefinedFunctionShadowsBuiltin() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define length(a) {
+                  42;
+                }
+                define main() {
+                  length([1, 2]);
+                }""")).getResult();
+        assertEquals(wrap(42), interpreter.callMain(program));
+    }
+
     @Test
     public void testTrueLiteral() throws Exception {
         var expression = Parsers.expression().parse(Input.of("true")).getResult();
@@ -206,4 +655,336 @@ public class InterpreterTest {
         var result = interpreter.interpret(expression);
         assertFalse(result.asBool().value());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLocalVariables() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                global grand = 0;
+                define sum(n) {
+                  i = 0;
+                  acc = 0;
+                  while(i < n) {
+                    i = i + 1;
+                    acc = acc + i;
+                  }
+                  grand = grand + acc;
+                  acc;
+                }
+                define main() {
+                  sum(3);
+                  sum(4);
+                }""")).getResult();
+        var result = interpreter.callMain(program);
+        assertEquals(10, result.asInt().value());
+        assertEquals(16, interpreter.getValue("grand").asInt().value());
+        assertNull(interpreter.getValue("acc"));
+    }
+
+    @Test
+    public void testResolveGlobalAssignedInMain() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define bump() {
+                  counter = counter + 1;
+                }
+                define main() {
+                  counter = 0;
+                  bump();
+                  bump();
+                  counter;
+                }""")).getResult();
+        var result = interpreter.callMain(program);
+        assertEquals(2, result.asInt().value());
+    }
+
+    @Test
+    public void testDeepTailRecursion() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define loop(n, acc) {
+                  if(n == 0) {
+                    acc;
+                  } else {
+                    step = acc + 2;
+                    loop(n - 1, step - 1);
+                  }
+                }
+                define main() {
+                  loop(1000000, 0);
+                }""")).getResult();
+        var result = interpreter.callMain(program);
+        assertEquals(1000000, result.asInt().value());
+    }
+
+    @Test
+    public void testMutualTailRecursion() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define isEven(n) {
+                  if(n == 0) true; else isOdd[n = n - 1];
+                }
+                define isOdd(n) {
+                  if(n == 0) {
+                    false;
+                  } else {
+                    isEven(n - 1);
+                  }
+                }
+                define main() {
+                  isEven(1000001);
+                }""")).getResult();
+        var result = interpreter.callMain(program);
+        assertFalse(result.asBool().value());
+    }
+
+    @Test
+    public void testCountingLoopAllocation() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define main() {
+                  i = 0;
+                  s = 0;
+                  while(i < 100000) {
+                    s = s + i * 2 - i;
+                    i = i + 1;
+                  }
+                  s;
+                }""")).getResult();
+        var threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        var result = interpreter.callMain(program);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertEquals(4999950000L, result.asInt().value());
+        // only the Ints stored into s and i may be allocated on each iteration, plus the two intermediate
+        // results the VM boxes on its operand stack; an Int holding a long takes 24 bytes
+        assertTrue("allocated " + allocated + " bytes", allocated / 100000 < 4 * 24 + 8);
+    }
+
+    @Test
+    public void testTypeErrors() throws Exception {
+        var printed = new ArrayList<Value>();
+        interpreter.setOutput(printed::add);
+        try {
+            interpreter.callMain(Parsers.program().parse(Input.of("""
+                    define main() {
+                      println(1);
+                      1 + true;
+                    }""")).getResult());
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Type error in main: + expects Int, not Bool", e.getMessage());
+        }
+        assertEquals(List.of(), printed);
+        try {
+            interpreter.interpret(If(integer(1), integer(2)));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Type error in <toplevel>: if expects Bool, not Int", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTypesDoNotDependOnInlining() throws Exception {
+        // Inlined, f(true) would become true + 1 in main, on a path that never runs.
+        var accepted = ToysParser.parse("""
+                define f(a) {
+                  a + 1;
+                }
+                define main() {
+                  x = 0;
+                  if(x > 0) f(true); else 0;
+                }""");
+        var rejected = ToysParser.parse("""
+                define f(a) {
+                  a + 1;
+                }
+                define main() {
+                  f(2) + true;
+                }""");
+        for(int limit : new int[]{0, Inliner.DEFAULT_LIMIT}) {
+            interpreter.reset();
+            interpreter.setInlineLimit(limit);
+            assertEquals(wrap(0), interpreter.callMain(accepted));
+            interpreter.reset();
+            try {
+                interpreter.callMain(rejected);
+                fail();
+            } catch (LanguageException e) {
+                assertEquals("Type error in main: + expects Int, not Bool", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testIntegerLocals() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define sum(n) {
+                  i = 0;
+                  s = 0;
+                  while(i < n) {
+                    if(i / 2 * 2 == i) s = s + i * 2 - i;
+                    i = i + 1;
+                  }
+                  s;
+                }
+                define grow(n) {
+                  x = 9223372036854775806;
+                  while(n > 0) {
+                    x = x + 1;
+                    n = n - 1;
+                  }
+                  x;
+                }
+                define main() {
+                  sum(100000);
+                }""")).getResult();
+        var threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        var result = interpreter.callMain(program);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertEquals(2499950000L, result.asInt().value());
+        if(engine == Interpreter.Engine.CLOSURE) {
+            // i and s are stored unboxed, so the loop allocates nothing at all.
+            assertTrue("allocated " + allocated + " bytes", allocated < 100000);
+        }
+        // An integer local that overflows a long holds the BigInt instead.
+        assertEquals(new BigInt(new java.math.BigInteger("9223372036854775809")), interpreter.call("grow", wrap(3)));
+
+        interpreter.reset();
+        interpreter.setInlineLimit(0);
+        interpreter.callMain(Parsers.program().parse(Input.of("""
+                define one() {
+                  1;
+                }
+                define get() {
+                  x = one();
+                  x;
+                }
+                define main() {
+                  get();
+                }""")).getResult());
+        // get() was compiled when x could only be an integer.
+        assertEquals(wrap(List.of(wrap(1))), interpreter.callMain(Parsers.program().parse(Input.of("""
+                define one() {
+                  [1];
+                }""")).getResult()));
+    }
+
+    @Test
+    public void testRerunMain() throws Exception {
+        var parser = new IncrementalParser();
+        var source = """
+                global base = 10;
+                global runs = 0;
+                define square(n) {
+                  n * n;
+                }
+                define offset() {
+                  base + runs;
+                }
+                define main() {
+                  runs = runs + 1;
+                  square(3) + offset();
+                }""";
+        assertEquals(wrap(20), interpreter.rerunMain(parser.update(source)));
+        // Globals start again from their definitions on every run.
+        assertEquals(wrap(20), interpreter.rerunMain(parser.update(source)));
+        // square was inlined into main, which sees the new square all the same.
+        source = source.replace("n * n;", "n * n * n;");
+        assertEquals(wrap(38), interpreter.rerunMain(parser.update(source)));
+        source = source.replace("global base = 10;", "global base = 20;");
+        assertEquals(wrap(48), interpreter.rerunMain(parser.update(source)));
+
+        source = source.replace("define offset() {\n  base + runs;\n}\n", "").replace("square(3) + offset();", "square(3) + base;");
+        assertEquals(wrap(47), interpreter.rerunMain(parser.update(source)));
+        try {
+            interpreter.call("offset");
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Function offset is not found", e.getMessage());
+        }
+        source = source.replace("square(3) + base;", "square(3) + true;");
+        try {
+            interpreter.rerunMain(parser.update(source));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Type error in main: + expects Int, not Bool", e.getMessage());
+        }
+        source = source.replace("square(3) + true;", "square(2) + base;");
+        assertEquals(wrap(28), interpreter.rerunMain(parser.update(source)));
+    }
+
+    @Test
+    public void testRerunAfterRejectedEdit() throws Exception {
+        var parser = new IncrementalParser();
+        try {
+            interpreter.rerunMain(parser.update("define g(y) { y + 1; } define f(x) { x + true; } define main() { 0; }"));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Type error in f: + expects Int, not Bool", e.getMessage());
+        }
+        assertEquals(wrap(42), interpreter.rerunMain(parser.update("define main() { 42; }")));
+        assertFunctionNotFound("f");
+        assertFunctionNotFound("g");
+
+        var source = """
+                define g(y) {
+                  y + 1;
+                }
+                define main() {
+                  g(1);
+                }""";
+        assertEquals(wrap(2), interpreter.rerunMain(parser.update(source)));
+        // Removing g and breaking main in one edit fails, and undoing just the break still removes g.
+        try {
+            interpreter.rerunMain(parser.update("define main() {\n  1 + true;\n}"));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Type error in main: + expects Int, not Bool", e.getMessage());
+        }
+        assertEquals(wrap(3), interpreter.rerunMain(parser.update("define main() {\n  3;\n}")));
+        assertFunctionNotFound("g");
+        assertEquals(wrap(2), interpreter.rerunMain(parser.update(source)));
+
+        // The closure and VM engines reject the missing argument while loading, after defining k.
+        try {
+            interpreter.rerunMain(parser.update(source.replace("define main", "define k() {\n  5;\n}\ndefine main").replace("g(1)", "g[z = 1]")));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Argument y of g is missing", e.getMessage());
+        }
+        assertEquals(wrap(2), interpreter.rerunMain(parser.update(source)));
+        assertFunctionNotFound("k");
+    }
+
+    @Test
+    public void testRerunChecksUnchangedCallers() throws Exception {
+        var parser = new IncrementalParser();
+        var source = """
+                define f() {
+                  1;
+                }
+                define g() {
+                  f();
+                }
+                define main() {
+                  g() + 1;
+                }""";
+        assertEquals(wrap(2), interpreter.rerunMain(parser.update(source)));
+        // Only f changes, but main adds what g now returns.
+        try {
+            interpreter.rerunMain(parser.update(source.replace("  1;", "  true;")));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Type error in main: + expects Int, not Bool", e.getMessage());
+        }
+        assertEquals(wrap(3), interpreter.rerunMain(parser.update(source.replace("  1;", "  2;"))));
+    }
+
+    private void assertFunctionNotFound(String name) {
+        try {
+            interpreter.call(name, wrap(1));
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Function " + name + " is not found", e.getMessage());
+        }
+    }
+}
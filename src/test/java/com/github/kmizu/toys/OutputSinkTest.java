@@ -0,0 +1,47 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.kmizu.toys.Values.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class OutputSinkTest {
+    @Test
+    public void testBuffered() {
+        var out = new ByteArrayOutputStream();
+        var sink = OutputSink.buffered(out);
+        sink.println(Int.of(1));
+        sink.println(integer(BigInteger.TWO.pow(70)));
+        sink.println(Bool.TRUE);
+        sink.println(wrap(List.of(Int.of(1), wrap(Map.of(Int.of(2), Bool.FALSE)))));
+        sink.println(new FunctionReference("fib"));
+        sink.println(null);
+        assertEquals(0, out.size());
+        sink.flush();
+        assertEquals("1\n1180591620717411303424\ntrue\n[1, %[2: false]]\nfib\nnil\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBatches() {
+        var out = new ByteArrayOutputStream();
+        var sink = OutputSink.buffered(out);
+        // Each line is a digit and a newline, so these fill one batch.
+        for(int i = 0; i < OutputSink.Buffered.CAPACITY / 2; i++) {
+            sink.println(Int.of(i % 10));
+        }
+        assertEquals(OutputSink.Buffered.CAPACITY, out.size());
+        sink.println(Int.of(0));
+        assertEquals(OutputSink.Buffered.CAPACITY, out.size());
+        sink.close();
+        assertEquals(OutputSink.Buffered.CAPACITY + 2, out.size());
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.kmizu.toys;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ScriptServerTest {
+    private static final String SOURCE = """
+            define fib(n) {
+              if(n < 2) n; else fib(n - 1) + fib(n - 2);
+            }
+            define discount(total, member) {
+              if(member) total * 9 / 10; else total;
+            }
+            define greet(n) {
+              println(n);
+            }
+            define main() {
+              fib(10);
+            }""";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private ScriptServer server;
+
+    @After
+    public void tearDown() {
+        if(server != null) server.close();
+    }
+
+    private ScriptServer start(int maxConcurrency, Duration timeout) throws Exception {
+        return start(maxConcurrency, timeout, OutputSink.standardOutput());
+    }
+
+    private ScriptServer start(int maxConcurrency, Duration timeout, OutputSink output) throws Exception {
+        var program = CompiledProgram.load(ToysParser.parse(SOURCE), Interpreter.Engine.CLOSURE);
+        server = ScriptServer.start(program, new InetSocketAddress("localhost", 0), maxConcurrency, Budget.UNLIMITED, timeout, output);
+        return server;
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path)).build();
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(request(path), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testCalls() throws Exception {
+        start(4, Duration.ofSeconds(5));
+        assertEquals("55\n", get("/run").body());
+        assertEquals("90\n", get("/run/discount?total=100&member=true").body());
+        var post = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/run/discount"))
+                .POST(HttpRequest.BodyPublishers.ofString("total=100&member=false")).build();
+        assertEquals("100\n", client.send(post, HttpResponse.BodyHandlers.ofString()).body());
+        var missing = get("/run/missing");
+        assertEquals(400, missing.statusCode());
+        assertEquals("Function missing is not found\n", missing.body());
+        assertEquals(400, get("/run/fib?n=ten").statusCode());
+        assertEquals(3, server.stats().completed());
+        assertEquals(2, server.stats().failed());
+    }
+
+    @Test
+    public void testOutputIsFlushedPerRun() throws Exception {
+        var out = new ByteArrayOutputStream();
+        start(4, Duration.ofSeconds(5), OutputSink.buffered(out));
+        assertEquals("7\n", get("/run/greet?n=7").body());
+        assertEquals("7\n", out.toString(StandardCharsets.UTF_8));
+        get("/run/greet?n=8");
+        assertEquals("7\n8\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        start(64, Duration.ofSeconds(10));
+        var responses = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+        for(int i = 0; i < 1000; i++) {
+            responses.add(client.sendAsync(request("/run/fib?n=" + i % 16), HttpResponse.BodyHandlers.ofString()));
+        }
+        int ok = 0;
+        for(int i = 0; i < responses.size(); i++) {
+            var response = responses.get(i).get();
+            if(response.statusCode() == 200) {
+                assertEquals(fib(i % 16) + "\n", response.body());
+                ok++;
+            } else {
+                assertEquals(503, response.statusCode());
+            }
+        }
+        var stats = server.stats();
+        assertEquals(1000, stats.requests());
+        assertEquals(ok, stats.completed());
+        assertEquals(1000 - ok, stats.rejected());
+        assertTrue(ok > 0);
+        assertTrue(stats.latencyPercentile(0.5).compareTo(stats.latencyPercentile(0.99)) <= 0);
+        assertTrue(get("/stats").body().startsWith("requests 1000\ncompleted " + ok + "\n"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        start(1, Duration.ofMillis(1));
+        assertEquals(504, get("/run/fib?n=40").statusCode());
+        assertEquals(1, server.stats().timedOut());
+        // The deadline stops the run, which gives its permit back.
+        while(server.inFlight() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals("1\n", get("/run/fib?n=1").body());
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        start(1, Duration.ofSeconds(10));
+        var slow = client.sendAsync(request("/run/fib?n=30"), HttpResponse.BodyHandlers.ofString());
+        while(server.inFlight() == 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(503, get("/run/fib?n=1").statusCode());
+        assertEquals("832040\n", slow.get().body());
+        assertEquals(1, server.stats().rejected());
+    }
+
+    private static int fib(int n) {
+        return n < 2 ? n : fib(n - 1) + fib(n - 2);
+    }
+}
@@ -0,0 +1,262 @@
+package com.github.kmizu.toys;
+
+import org.javafp.parsecj.input.Input;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.kmizu.toys.Ast.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ToysParserTest {
+    private static Program reference(String source) throws Exception {
+        return Parsers.program().parse(Input.of(source)).getResult();
+    }
+
+    private static void assertSameProgram(String source) throws Exception {
+        assertEquals(source, reference(source), ToysParser.parse(source));
+    }
+
+    @Test
+    public void testSameTreesAsCombinatorParser() throws Exception {
+        assertSameProgram("""
+                //階乗を計算するプログラム
+                define factorial(n) {
+                  if(n < 2) {
+                    1;
+                  } else {
+                    n * factorial(n - 1);
+                  }
+                }
+                global n = 0;
+                define main() {
+                  n = factorial(5);
+                  println(n);
+                }""");
+        assertSameProgram("""
+                define power(n, m) {
+                  n * m;
+                }
+                define main() {
+                  for(i in 1 to 10) println(i);
+                  a = [1, -2, [true, false], []];
+                  power[m = 2, n = 3] != power[n = 3, m = 3] - -1;
+                  empty[];
+                  total = 1;
+                  if(a == b) if(c) d; else e;
+                }""");
+        assertSameProgram("""
+                define main() {
+                  a = [1, 2, 3];
+                  a[0] = a[1] * a[length(a) - 1];
+                  m[i][j + 1] = m[j][i] == 0;
+                  f(x)[0] = [[1]][0][0];
+                  push(a, slice(a, 0, 2)[1]);
+                  d = %[1: %[], [2]: true, x + 1: f(y)[0]];
+                  d[%[]] = %[a: b][c];
+                }""");
+        assertSameProgram(Files.readString(Path.of("example/factorial.toys")));
+    }
+
+    @Test
+    public void testRandomPrograms() throws Exception {
+        var random = new Random(42);
+        for(int i = 0; i < 200; i++) {
+            assertSameProgram(new ProgramGenerator(random).program());
+        }
+    }
+
+    @Test
+    public void testPackratSameTrees() throws Exception {
+        var random = new Random(7);
+        for(int i = 0; i < 100; i++) {
+            var source = new ProgramGenerator(random).program();
+            assertEquals(source, reference(source), Parsers.parsePackrat(Parsers.program(), source).getResult());
+        }
+        var nested = "define main() { x = " + "f(g[a = (".repeat(50) + "1" + ")])".repeat(50) + "; }";
+        assertEquals(reference(nested), Parsers.parsePackrat(Parsers.program(), nested).getResult());
+    }
+
+    @Test
+    public void testExpressionsAndLines() throws Exception {
+        assertEquals(
+                Parsers.expression().parse(Input.of("1 + 2 * 3 - 4 / 5 < 6")).getResult(),
+                ToysParser.parseExpression("1 + 2 * 3 - 4 / 5 < 6")
+        );
+        assertEquals(
+                Parsers.lines().parse(Input.of("i = 0; while(i < 10) { i = i + 1; }")).getResult(),
+                ToysParser.parseLines("i = 0; while(i < 10) { i = i + 1; }")
+        );
+    }
+
+    @Test
+    public void testDeeplyNestedExpression() {
+        var depth = 1000;
+        var source = "(".repeat(depth) + "1" + ")".repeat(depth);
+        assertEquals(integer(1), ToysParser.parseExpression(source));
+    }
+
+    @Test
+    public void testErrorPosition() {
+        try {
+            ToysParser.parse("define main() {\n  x = ;\n}");
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("2:7: expected expression but found ';'", e.getMessage());
+        }
+    }
+
+    private static final class ProgramGenerator {
+        private static final List<String> NAMES = List.of("a", "b", "x", "y", "n", "acc", "value", "total");
+        private static final List<String> OPERATORS = List.of("+", "-", "*", "/", "<", "<=", ">", ">=", "==", "!=");
+        private final Random random;
+        private final StringBuilder out = new StringBuilder();
+
+        ProgramGenerator(Random random) {
+            this.random = random;
+        }
+
+        private String name() {
+            return NAMES.get(random.nextInt(NAMES.size()));
+        }
+
+        String program() {
+            int count = 1 + random.nextInt(4);
+            for(int i = 0; i < count; i++) {
+                if(random.nextBoolean()) {
+                    out.append("global ").append(name()).append(" = ");
+                    expression(2);
+                    out.append(";\n");
+                } else {
+                    out.append("define f").append(i).append("(");
+                    int args = random.nextInt(3);
+                    for(int j = 0; j < args; j++) {
+                        out.append(j == 0 ? "" : ", ").append(name());
+                    }
+                    out.append(") {\n");
+                    int lines = random.nextInt(4);
+                    for(int j = 0; j < lines; j++) {
+                        line(3);
+                    }
+                    out.append("}\n");
+                }
+                if(random.nextInt(4) == 0) {
+                    out.append("// comment\n");
+                }
+            }
+            return out.toString();
+        }
+
+        private void line(int depth) {
+            switch(depth <= 0 ? random.nextInt(2) : random.nextInt(7)) {
+                case 0 -> {
+                    out.append(name());
+                    if(random.nextInt(4) == 0) {
+                        out.append('[');
+                        expression(depth - 1);
+                        out.append(']');
+                    }
+                    out.append(" = ");
+                    expression(depth);
+                    out.append(";\n");
+                }
+                case 1 -> {
+                    expression(depth);
+                    out.append(";\n");
+                }
+                case 2 -> {
+                    out.append("println(");
+                    expression(depth);
+                    out.append(");\n");
+                }
+                case 3 -> {
+                    out.append("while(");
+                    expression(depth - 1);
+                    out.append(") ");
+                    line(depth - 1);
+                }
+                case 4 -> {
+                    out.append("if (");
+                    expression(depth - 1);
+                    out.append(") ");
+                    line(depth - 1);
+                    if(random.nextBoolean()) {
+                        out.append("else ");
+                        line(depth - 1);
+                    }
+                }
+                case 5 -> {
+                    out.append("for(").append(name()).append(" in ");
+                    expression(depth - 1);
+                    out.append(" to ");
+                    expression(depth - 1);
+                    out.append(") ");
+                    line(depth - 1);
+                }
+                default -> {
+                    out.append("{\n");
+                    int lines = random.nextInt(3);
+                    for(int i = 0; i < lines; i++) {
+                        line(depth - 1);
+                    }
+                    out.append("}\n");
+                }
+            }
+        }
+
+        private void expression(int depth) {
+            primary(depth);
+            int operators = random.nextInt(depth <= 0 ? 1 : 3);
+            for(int i = 0; i < operators; i++) {
+                out.append(random.nextBoolean() ? " " : "").append(OPERATORS.get(random.nextInt(OPERATORS.size()))).append(' ');
+                primary(depth);
+            }
+        }
+
+        private void primary(int depth) {
+            switch(depth <= 0 ? random.nextInt(4) : random.nextInt(8)) {
+                case 0 -> out.append(random.nextInt(1000));
+                case 1 -> out.append(-random.nextInt(1000) - 1);
+                case 2 -> out.append(name());
+                case 3 -> out.append(random.nextBoolean() ? "true" : "false");
+                case 4 -> {
+                    out.append('(');
+                    expression(depth - 1);
+                    out.append(')');
+                }
+                case 5 -> arguments(depth, "f" + random.nextInt(4) + "(", ")");
+                case 6 -> arguments(depth, "[", "]");
+                default -> {
+                    out.append("g[");
+                    int count = random.nextInt(3);
+                    for(int i = 0; i < count; i++) {
+                        out.append(i == 0 ? "" : ", ").append(name()).append(" = ");
+                        expression(depth - 1);
+                    }
+                    out.append(']');
+                }
+            }
+            if(depth > 0 && random.nextInt(6) == 0) {
+                out.append('[');
+                expression(depth - 1);
+                out.append(']');
+            }
+        }
+
+        private void arguments(int depth, String open, String close) {
+            out.append(open);
+            int count = random.nextInt(3);
+            for(int i = 0; i < count; i++) {
+                out.append(i == 0 ? "" : ", ");
+                expression(depth - 1);
+            }
+            out.append(close);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.github.kmizu.toys.TypeChecker.Type.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class TypeCheckerTest {
+    private static Map<String, TypeChecker.Signature> check(String source) {
+        return new TypeChecker(Map.of()).check(new Resolver().resolve(ToysParser.parse(source)));
+    }
+
+    private static void assertTypeError(String message, String source) {
+        try {
+            check(source);
+            fail();
+        } catch (LanguageException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSignatures() {
+        var signatures = check("""
+                define square(n) {
+                  n * n;
+                }
+                define isSmall(n) {
+                  n < 10;
+                }
+                define fact(n) {
+                  if(n < 2) 1; else n * fact(n - 1);
+                }
+                define sum(n) {
+                  i = 0;
+                  s = 0;
+                  while(i < n) {
+                    s = s + square(i);
+                    i = i + 1;
+                  }
+                  s;
+                }
+                define maybe(c) {
+                  if(c) true;
+                }
+                define pick(c) {
+                  x = 1;
+                  if(c) x = [1];
+                  y = maybe(c);
+                  x;
+                }""");
+        assertEquals(new TypeChecker.Signature(INT, List.of(NOTHING)), signatures.get("square"));
+        assertEquals(BOOL, signatures.get("isSmall").result());
+        assertEquals(INT, signatures.get("fact").result());
+        assertEquals(new TypeChecker.Signature(INT, List.of(NOTHING, INT, INT)), signatures.get("sum"));
+        assertEquals(BOOL.join(NIL), signatures.get("maybe").result());
+        assertEquals(List.of(NOTHING, INT.join(ARRAY), BOOL.join(NIL)), signatures.get("pick").slots());
+        assertEquals("Int | Array", signatures.get("pick").result().toString());
+    }
+
+    @Test
+    public void testTypeErrors() {
+        assertTypeError("Type error in main: + expects Int, not Bool", """
+                define main() {
+                  1 + true;
+                }""");
+        assertTypeError("Type error in f: if expects Bool, not Int", """
+                define f(n) {
+                  if(n + 1) n;
+                }""");
+        assertTypeError("Type error in f: [] expects Array | Dictionary, not Bool", """
+                define isZero(n) {
+                  n == 0;
+                }
+                define f(n) {
+                  isZero(n)[0];
+                }""");
+        assertTypeError("Type error in f: [] expects Int, not Bool", """
+                define f() {
+                  a = [1, 2];
+                  a[true];
+                }""");
+        assertTypeError("Type error in <toplevel>: < expects Int, not Array", """
+                global g = length([1]) < [1];""");
+    }
+
+    @Test
+    public void testInfer() {
+        var program = new Resolver().resolve(ToysParser.parse("""
+                define f(n) {
+                  if(false) 1 + true; else n * 2;
+                }"""));
+        assertEquals(INT, new TypeChecker(Map.of()).infer(program).get("f").result());
+    }
+
+    @Test
+    public void testWhatIsNotATypeError() {
+        check("""
+                global g = 1;
+                define loop() {
+                  loop();
+                }
+                define maybe(c) {
+                  if(c) 1;
+                }
+                define f(a, b) {
+                  x = maybe(a);
+                  a + b + g + x + loop() + later();
+                }
+                define main() {
+                  d = %[1: true];
+                  if(d[1]) 1; else 2;
+                }""");
+    }
+}
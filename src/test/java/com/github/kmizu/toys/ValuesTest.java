@@ -0,0 +1,73 @@
+package com.github.kmizu.toys;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.kmizu.toys.Values.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ValuesTest {
+    @Test
+    public void testDictionaryAgreesWithHashMap() {
+        var random = new Random(42);
+        var dictionary = new Dictionary();
+        var expected = new HashMap<Value, Value>();
+        for(int i = 0; i < 100000; i++) {
+            Value key = switch(random.nextInt(3)) {
+                case 0 -> wrap(random.nextInt(2000) - 1000);
+                case 1 -> wrap(List.of(wrap(random.nextInt(50))));
+                default -> wrap(random.nextInt(64) << 16);
+            };
+            switch(random.nextInt(4)) {
+                case 0, 1 -> {
+                    var value = wrap(i);
+                    dictionary.put(key, value);
+                    expected.put(key, value);
+                }
+                case 2 -> assertEquals(expected.remove(key) != null, dictionary.remove(key));
+                default -> {
+                    assertEquals(expected.containsKey(key), dictionary.containsKey(key));
+                    if(expected.containsKey(key)) {
+                        assertEquals(expected.get(key), dictionary.get(key));
+                    }
+                }
+            }
+            assertEquals(expected.size(), dictionary.size());
+        }
+        assertEquals(expected, dictionary.entries());
+    }
+
+    @Test
+    public void testMissingKey() {
+        var dictionary = new Dictionary();
+        dictionary.put(1, wrap(true));
+        try {
+            dictionary.get(2);
+            fail();
+        } catch (LanguageException e) {
+            assertEquals("Key 2 is not found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testArithmeticPromotesOnOverflow() {
+        var max = wrap(Long.MAX_VALUE);
+        var big = new BigInt(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE));
+        assertEquals(big, arithmetic(Operator.ADD, max, wrap(1)));
+        assertEquals(big, arithmetic(Operator.DIVIDE, wrap(Long.MIN_VALUE), wrap(-1)));
+        assertEquals(big.value().pow(2), ((BigInt)arithmetic(Operator.MULTIPLY, big, big)).value());
+        assertEquals(max, arithmetic(Operator.SUBTRACT, big, wrap(1)));
+        assertTrue(compare(Operator.LESS_THAN, max, big));
+        var array = wrap(List.of(wrap(1), wrap(2)));
+        array.asArray().set(0, max);
+        assertTrue(array.asArray().elements() instanceof GenericArray);
+        assertEquals(Long.MAX_VALUE, array.asArray().getLong(0));
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.kmizu.toys;
+
+import org.javafp.parsecj.input.Input;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class VirtualMachineTest {
+    private final Interpreter interpreter = new Interpreter(Interpreter.Engine.VM);
+
+    @Test
+    public void testDeepRecursionDoesNotUseJavaStack() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                define count(n) {
+                  if(n == 0) {
+                    0;
+                  } else {
+                    1 + count(n - 1);
+                  }
+                }
+                define main() {
+                  count(200000);
+                }""")).getResult();
+        assertEquals(200000, interpreter.callMain(program).asInt().value());
+    }
+
+    @Test
+    public void testDisassemble() throws Exception {
+        var program = Parsers.program().parse(Input.of("""
+                global limit = 3;
+                define main() {
+                  i = 0;
+                  while(i < limit) {
+                    i = i + 1;
+                  }
+                  i;
+                }""")).getResult();
+        assertEquals(3, interpreter.callMain(program).asInt().value());
+        assertEquals("""
+                function main arity=0 frame=0 stack=2
+                0000 CONST 0    ; Int[value=0]
+                0002 STORE_GLOBAL 1    ; i
+                0004 LOAD_GLOBAL 1    ; i
+                0006 LOAD_GLOBAL 0    ; limit
+                0008 LT
+                0009 JUMP_IF_FALSE 21
+                0011 LOAD_GLOBAL 1    ; i
+                0013 CONST 1    ; Int[value=1]
+                0015 ADD
+                0016 STORE_GLOBAL 1    ; i
+                0018 LOOP 4 0    ; main:while#1
+                0021 LOAD_GLOBAL 1    ; i
+                0023 RETURN
+                """, interpreter.disassemble("main"));
+    }
+}